@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Field;
+import model.Rule;
+
+/**
+ * One generation of a whole field, with each kernel. updateToCopy recomputes the same generation every time;
+ * step moves the world on, so it also measures how activity tracking does as the world settles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class FieldBenchmark {
+    /**Rows, columns and slices of the field**/
+    @Param({"16", "64"})
+    int size;
+
+    @Param({"0.03", "0.25"})
+    double density;
+
+    @Param({"SCALAR", "PACKED", "PLANE_SUM", "VECTOR", "SPARSE"})
+    Field.Kernel kernel;
+
+    @Param({"1"})
+    int parallelism;
+
+    private Field field;
+
+    /**A fresh world each iteration, so step starts from the same place every time**/
+    @Setup(Level.Iteration)
+    public void setup() {
+        field = Worlds.field(size, size, density, Rule.DEFAULT);
+        field.setKernel(kernel);
+        field.setParallelism(parallelism);
+    }
+
+    @Benchmark
+    public Field updateToCopy() {
+        return field.updateToCopy();
+    }
+
+    @Benchmark
+    public Field step() {
+        field.step();
+        return field;
+    }
+}
@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import chord.MessageCodec;
+import chord.Peer;
+import chord.PeerMessage;
+import model.Slice;
+
+/**
+ * Loads one peer with thousands of connections at once, each sending it a burst of halo payloads to relay to the
+ * next peer round the ring, and times how long the ring takes to deliver them all. Runs the peer on pools and then
+ * on virtual threads (see Peer.setVirtualThreads), or only the mode given.
+ *
+ * Not a JMH benchmark, as it measures a whole ring over sockets; run it from the shaded jar:
+ *
+ *     java -cp benchmarks/target/benchmarks.jar benchmarks.PeerLoadTest [connections] [messages] [pooled|virtual]
+ */
+public final class PeerLoadTest {
+    /**The peer under load, and the one it relays to: payloads for SINK are in (NODE, SINK], so NODE relays them**/
+    private static final long NODE = 100;
+    private static final long SINK = 600;
+    /**The size of the slices sent, as a 16x16 halo**/
+    private static final int SIZE = 16;
+    /**Threads writing the bursts; the connections stay open side by side whatever the number**/
+    private static final int WRITERS = 8;
+    private static final long TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+
+    private PeerLoadTest() {}
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String mode = args.length > 2 ? args[2] : "both";
+        System.out.println("Virtual threads " + (Peer.isVirtualThreadsAvailable() ? "available" : "not available, "
+                + "so the virtual mode runs on platform threads"));
+        if (!mode.equals("virtual"))
+            run(false, connections, messages);
+        if (!mode.equals("pooled"))
+            run(true, connections, messages);
+        System.exit(0);
+    }
+
+    private static void run(boolean virtual, int connections, int messages) throws Exception {
+        Peer node = new Peer();
+        node.setVirtualThreads(virtual);
+        node.createNetwork(NODE);
+        Peer sink = new Peer();
+        sink.setVirtualThreads(virtual);
+        if (!sink.connectToNetwork("127.0.0.1", node.getPort(), SINK))
+            throw new IllegalStateException("The sink could not join the ring");
+        // Wait for stabilization to make the sink the node's successor
+        long settle = System.nanoTime() + TIMEOUT;
+        while (node.getSuccessorID() != SINK && System.nanoTime() < settle)
+            Thread.sleep(100);
+
+        final byte[] burst = burst(messages);
+        List<Socket> sockets = new ArrayList<Socket>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress("127.0.0.1", node.getPort()));
+                sockets.add(socket);
+            }
+            long start = System.nanoTime();
+            ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+            List<Future<?>> writes = new ArrayList<Future<?>>();
+            for (final Socket socket : sockets) {
+                writes.add(writers.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        socket.getOutputStream().write(burst);
+                        socket.getOutputStream().flush();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> write : writes)
+                write.get();
+            writers.shutdown();
+
+            long expected = (long) connections * messages;
+            long delivered = 0;
+            long end = start + TIMEOUT;
+            while (delivered < expected && System.nanoTime() < end) {
+                List<Slice> received = sink.getReceived();
+                if (received != null)
+                    delivered += received.size();
+                else
+                    Thread.sleep(1);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-7s %d connections x %d messages: %d delivered in %.2f s, %.0f messages/s, "
+                    + "peak %d platform threads%n", virtual ? "virtual" : "pooled", connections, messages,
+                    delivered, seconds, delivered / seconds, ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        } finally {
+            for (Socket socket : sockets)
+                socket.close();
+            sink.disconnectFromNetwork();
+            node.disconnectFromNetwork();
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        }
+    }
+
+    /**
+     * What one connection sends: the preamble of a kept-open connection, then each payload as a MESSAGE frame, as
+     * chord.Connection writes them.
+     */
+    private static byte[] burst(int messages) throws IOException {
+        byte[] payload = MessageCodec.encode(new PeerMessage(SINK, Worlds.slice(0, SIZE, 0.25, new Random(Worlds.SEED))));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes));
+        out.writeByte(0x43);
+        out.writeByte(1);
+        for (int i = 0; i < messages; i++) {
+            out.writeInt(payload.length + 1);
+            out.writeByte(0);
+            out.write(payload);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
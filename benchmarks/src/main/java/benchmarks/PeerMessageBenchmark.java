@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import chord.MessageCodec;
+import chord.PeerMessage;
+
+/**
+ * Encoding and decoding the halo messages peers send each generation, without the sockets: with MessageCodec,
+ * which peers use, and with the Java serialization it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerMessageBenchmark {
+    @Param({"16", "64", "256"})
+    int size;
+
+    @Param({"0.03", "0.25"})
+    double density;
+
+    private PeerMessage message;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        message = new PeerMessage(-1L, Worlds.slice(0, size, density, new Random(Worlds.SEED)));
+        encoded = MessageCodec.encode(message);
+        serialized = write(message);
+    }
+
+    private static byte[] write(PeerMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static PeerMessage read(byte[] encoded) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded));
+        return (PeerMessage) in.readObject();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return MessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public PeerMessage decode() throws IOException {
+        return MessageCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public PeerMessage codecRoundTrip() throws IOException {
+        return MessageCodec.decode(MessageCodec.encode(message));
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return write(message);
+    }
+
+    @Benchmark
+    public PeerMessage deserialize() throws IOException, ClassNotFoundException {
+        return read(serialized);
+    }
+
+    @Benchmark
+    public PeerMessage roundTrip() throws IOException, ClassNotFoundException {
+        return read(write(message));
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gui.SceneDiff;
+import model.Field;
+import model.FieldView;
+import model.Rule;
+
+/**
+ * The redraw half of GameofLife.tick: diffing one generation against the last into a renderer. The renderer is a
+ * stand-in for the Java3D scene that keeps which cells are shown and their colours in arrays, so this measures the
+ * diff and not the scene graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneDiffBenchmark {
+    @Param({"16", "32", "64"})
+    int size;
+
+    @Param({"0.03", "0.25"})
+    double density;
+
+    private Field field;
+    private FieldView previous;
+    private MockRenderer renderer;
+
+    @Setup
+    public void setup() {
+        field = Worlds.field(size, size, density, Rule.DEFAULT);
+        field.step();
+        previous = field.previous();
+        renderer = new MockRenderer(size);
+    }
+
+    @Benchmark
+    public int diff() {
+        SceneDiff.apply(field, previous, renderer);
+        return renderer.changes;
+    }
+
+    /**Keeps the shown cells and their brightness, as the GUI's scene and colouring attributes would**/
+    static final class MockRenderer implements SceneDiff.Renderer {
+        private final int size;
+        private final boolean[] shown;
+        private final float[] brightness;
+        int changes;
+
+        MockRenderer(int size) {
+            this.size = size;
+            this.shown = new boolean[size * size * size];
+            this.brightness = new float[size * size * size];
+        }
+
+        public void show(int x, int y, int z, int age, boolean internal) {
+            int i = (z * size + y) * size + x;
+            if(!shown[i]) {
+                shown[i] = true;
+                changes++;
+            }
+            brightness[i] = internal ? Math.min(1f, age / 16f) : -1f;
+        }
+
+        public void hide(int x, int y, int z) {
+            shown[(z * size + y) * size + x] = false;
+            changes++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.Rule;
+import model.Slice;
+
+/**
+ * One slice update, and the per-cell neighbour count the scalar kernel is built on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SliceBenchmark {
+    /**Rows and columns of the slices**/
+    @Param({"16", "64", "256"})
+    int size;
+
+    /**Chance of a cell being alive**/
+    @Param({"0.03", "0.25"})
+    double density;
+
+    private Slice below;
+    private Slice mid;
+    private Slice above;
+    private final Rule rule = Rule.DEFAULT;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(Worlds.SEED);
+        below = Worlds.slice(0, size, density, random);
+        mid = Worlds.slice(1, size, density, random);
+        above = Worlds.slice(2, size, density, random);
+    }
+
+    /**getAdjacent for every cell of the slice**/
+    @Benchmark
+    public int getAdjacent() {
+        int sum = 0;
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                sum += mid.getAdjacent(x, y, below, above);
+        return sum;
+    }
+
+    @Benchmark
+    public Slice updateToCopy() {
+        return mid.updateToCopy(below, above, rule);
+    }
+
+    @Benchmark
+    public Slice updateToCopyPacked() {
+        return mid.updateToCopyPacked(below, above, rule);
+    }
+
+    /**Reading every cell back, as the renderer and getAdjacent do**/
+    @Benchmark
+    public void getCell(Blackhole blackhole) {
+        for(int x = 0; x < size; x++)
+            for(int y = 0; y < size; y++)
+                blackhole.consume(mid.getCell(x, y));
+    }
+}
@@ -0,0 +1,36 @@
+package benchmarks;
+
+import java.util.Random;
+
+import model.Field;
+import model.Rule;
+import model.Slice;
+
+/**
+ * Seeded worlds, so every run of a benchmark steps the same cells.
+ */
+final class Worlds {
+    /**The seed every benchmark builds its world from**/
+    static final long SEED = 20160414L;
+
+    private Worlds() {}
+
+    /**A slice of size x size cells, each alive with the given chance**/
+    static Slice slice(int number, int size, double density, Random random) {
+        Slice slice = new Slice(number, 0, size, size);
+        fill(slice, density, random);
+        return slice;
+    }
+
+    /**A field of size x size x sliceCount cells, each alive with the given chance**/
+    static Field field(int size, int sliceCount, double density, Rule rule) {
+        return new Field(size, size, sliceCount, rule, SEED, density);
+    }
+
+    /**Overwrites the slice's random cells with seeded ones**/
+    private static void fill(Slice slice, double density, Random random) {
+        for(int x = 0; x < slice.getSizeX(); x++)
+            for(int y = 0; y < slice.getSizeY(); y++)
+                slice.setCell(x, y, random.nextDouble() < density ? 1 : 0);
+    }
+}
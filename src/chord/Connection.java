@@ -0,0 +1,177 @@
+package chord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A TCP connection to another peer that stays open for any number of messages.
+ *
+ * The side that connects first sends a preamble (PREAMBLE, then the framing version), so the server can tell it
+ * from a peer sending one message per connection. After that both sides send frames: the length of the rest of the
+ * frame, a kind byte, and the payload. MESSAGE frames carry a MessageCodec message; PING and PONG have no payload and
+ * keep the connection's liveness known without a message to send.
+ */
+final class Connection implements Closeable {
+    /**The first byte on a kept-open connection. Neither MessageCodec messages nor Java serialization start with it.**/
+    static final int PREAMBLE = 0x43;
+    static final int VERSION = 1;
+
+    /**Frame kinds**/
+    static final int MESSAGE = 0;
+    static final int PING = 1;
+    static final int PONG = 2;
+
+    /**The longest frame accepted: a message carrying the largest slice, and some**/
+    static final int MAX_FRAME = MessageCodec.MAX_SLICE_CELLS + (1 << 24);
+
+    /**Bytes of a frame allocated before any arrive; the buffer doubles as more do, up to the frame's length**/
+    static final int READ_CHUNK = 1 << 16;
+
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    /**Held while writing a frame. A lock rather than synchronized, so a virtual thread blocked writing does not hold its carrier thread.**/
+    private final ReentrantLock writing = new ReentrantLock();
+    /**When a frame last came in, and when a message last went out, in System.nanoTime**/
+    private volatile long lastHeard;
+    private volatile long lastUsed;
+
+    private Connection(Socket socket, InputStream in) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.lastHeard = System.nanoTime();
+        this.lastUsed = lastHeard;
+    }
+
+    /**
+     * Connects to a peer's server and sends the preamble.
+     * @param timeout milliseconds to wait for the connection
+     */
+    static Connection open(InetSocketAddress address, int timeout) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, timeout);
+            socket.setTcpNoDelay(true);
+            Connection connection = new Connection(socket, new BufferedInputStream(socket.getInputStream()));
+            connection.out.writeByte(PREAMBLE);
+            connection.out.writeByte(VERSION);
+            connection.out.flush();
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes over an accepted socket whose first byte, PREAMBLE, was read from in, and reads the rest of the preamble.
+     * @throws IOException if the peer uses a framing version this one does not know
+     */
+    static Connection accept(Socket socket, InputStream in) throws IOException {
+        Connection connection = new Connection(socket, in);
+        int version = connection.in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unknown framing version " + version);
+        socket.setTcpNoDelay(true);
+        return connection;
+    }
+
+    /**Sends a MessageCodec message**/
+    void send(byte[] message) throws IOException {
+        send(MESSAGE, message);
+        lastUsed = System.nanoTime();
+    }
+
+    /**Keeps the connection from counting as idle, for one kept open only to watch the peer's liveness**/
+    void touch() {
+        lastUsed = System.nanoTime();
+    }
+
+    void ping() throws IOException {
+        send(PING, NO_PAYLOAD);
+    }
+
+    void pong() throws IOException {
+        send(PONG, NO_PAYLOAD);
+    }
+
+    private void send(int kind, byte[] payload) throws IOException {
+        writing.lock();
+        try {
+            out.writeInt(payload.length + 1);
+            out.writeByte(kind);
+            out.write(payload);
+            out.flush();
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next frame. Only one thread may read a connection.
+     * @return the frame's kind byte followed by its payload
+     * @throws java.io.EOFException if the other side closed the connection
+     */
+    byte[] read() throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME)
+            throw new IOException("Bad frame length " + length);
+        byte[] frame = readFully(in, length);
+        lastHeard = System.nanoTime();
+        return frame;
+    }
+
+    /**
+     * Reads length bytes, growing the buffer as they arrive, so a length the other side does not follow up on
+     * costs no more than the bytes it did send.
+     * @throws EOFException if the input ends first
+     */
+    static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK)];
+        int read = 0;
+        while (read < length) {
+            if (read == bytes.length)
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0)
+                throw new EOFException();
+            read += n;
+        }
+        return bytes;
+    }
+
+    /**Nanoseconds since a frame last came in, or since the connection was made**/
+    long sinceHeard() {
+        return System.nanoTime() - lastHeard;
+    }
+
+    /**Nanoseconds since a message last went out, or since the connection was made**/
+    long sinceUsed() {
+        return System.nanoTime() - lastUsed;
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+}
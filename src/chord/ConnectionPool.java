@@ -0,0 +1,158 @@
+package chord;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The open connections from a peer to the others, one per remote server, shared by every kind of message.
+ *
+ * A message to a peer goes over its connection, which is made on first use. If sending fails, the connection is
+ * dropped and made again once before giving up, so a peer that restarted is reached without the caller noticing.
+ * Each connection has a thread reading the PONGs that answer heartbeat PINGs; a connection that hears nothing for
+ * the heartbeat timeout, or that the other side closes, is dropped.
+ */
+final class ConnectionPool {
+    private final int connectTimeout;
+    private final long heartbeatTimeout;
+    private final long idleTimeout;
+    private final Map<InetSocketAddress, Connection> connections = new HashMap<InetSocketAddress, Connection>();
+    /**Whether reader threads are virtual, see Threads**/
+    private volatile boolean virtualThreads;
+
+    /**
+     * @param connectTimeout milliseconds to wait for a new connection
+     * @param heartbeatTimeout milliseconds without a frame before a connection counts as dead
+     * @param idleTimeout milliseconds without a message before a connection is closed, as no longer needed
+     */
+    ConnectionPool(int connectTimeout, long heartbeatTimeout, long idleTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.heartbeatTimeout = TimeUnit.MILLISECONDS.toNanos(heartbeatTimeout);
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+    }
+
+    /**Whether connections made from now on are read on virtual threads**/
+    void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Sends a MessageCodec message to the peer at address, connecting or reconnecting as needed.
+     * @throws IOException if the peer can't be reached
+     */
+    void send(InetSocketAddress address, byte[] message) throws IOException {
+        Connection connection = get(address);
+        try {
+            connection.send(message);
+        } catch (IOException e) {
+            //the connection may have gone stale, so try a fresh one
+            drop(address, connection);
+            connection = get(address);
+            try {
+                connection.send(message);
+            } catch (IOException e2) {
+                drop(address, connection);
+                throw e2;
+            }
+        }
+    }
+
+    /**
+     * Is the peer at address reachable, and answering heartbeats? Connects if there is no connection yet, and
+     * keeps the connection from being closed as idle.
+     */
+    boolean isAlive(InetSocketAddress address) {
+        Connection connection;
+        try {
+            connection = get(address);
+            connection.ping();
+            connection.touch();
+        } catch (IOException e) {
+            return false;
+        }
+        if (connection.sinceHeard() > heartbeatTimeout) {
+            drop(address, connection);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pings every connection, closes those not needed any more, and drops those that stopped answering.
+     * @return the addresses of the peers that stopped answering
+     */
+    List<InetSocketAddress> heartbeat() {
+        List<InetSocketAddress> dead = new ArrayList<InetSocketAddress>();
+        Map<InetSocketAddress, Connection> open;
+        synchronized (this) {
+            open = new HashMap<InetSocketAddress, Connection>(connections);
+        }
+        for (Map.Entry<InetSocketAddress, Connection> entry : open.entrySet()) {
+            Connection connection = entry.getValue();
+            if (connection.sinceHeard() > heartbeatTimeout) {
+                drop(entry.getKey(), connection);
+                dead.add(entry.getKey());
+            } else if (connection.sinceUsed() > idleTimeout) {
+                drop(entry.getKey(), connection);
+            } else {
+                try {
+                    connection.ping();
+                } catch (IOException e) {
+                    drop(entry.getKey(), connection);
+                    dead.add(entry.getKey());
+                }
+            }
+        }
+        return dead;
+    }
+
+    /**The connection to address, made and given a reader thread if there is none**/
+    private Connection get(final InetSocketAddress address) throws IOException {
+        synchronized (this) {
+            Connection connection = connections.get(address);
+            if (connection != null && !connection.isClosed())
+                return connection;
+        }
+        //connect outside the lock, so one unreachable peer doesn't hold up messages to the others
+        final Connection connection = Connection.open(address, connectTimeout);
+        synchronized (this) {
+            Connection other = connections.get(address);
+            if (other != null && !other.isClosed()) {
+                //another thread connected first
+                connection.close();
+                return other;
+            }
+            connections.put(address, connection);
+        }
+        Threads.start("Connection to " + address, virtualThreads, new Runnable() {
+            public void run() {
+                try {
+                    while (true)
+                        connection.read();
+                } catch (IOException e) {
+                    drop(address, connection);
+                }
+            }
+        });
+        return connection;
+    }
+
+    private void drop(InetSocketAddress address, Connection connection) {
+        connection.close();
+        synchronized (this) {
+            if (connections.get(address) == connection)
+                connections.remove(address);
+        }
+    }
+
+    /**Closes every connection**/
+    synchronized void close() {
+        for (Connection connection : connections.values())
+            connection.close();
+        connections.clear();
+    }
+}
@@ -0,0 +1,154 @@
+package chord;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import model.Slice;
+
+/**
+ * The halos a peer has received from its neighbours, kept by generation until its field reaches that generation.
+ *
+ * A halo is a neighbour's edge slice at one generation. It goes on the PREV side of this peer's field if it is the
+ * last slice of the predecessor's field, or the NEXT side if it is the first slice of the successor's. Each side keeps
+ * the last few generations from each of the last few senders, so a neighbour a generation ahead can't overwrite the
+ * halo still needed, and a neighbour that runs ahead or leaves the ring costs no more than that.
+ */
+final class Halos {
+    /**The sides of the field a halo goes on**/
+    static final int PREV = 0;
+    static final int NEXT = 1;
+
+    /**Senders kept per side: the current neighbour, and ones it replaced whose halos are still arriving**/
+    private static final int SENDERS = 4;
+    /**
+     * How long a neighbour with a later halo has to send the one for a joining peer's generation before it counts as
+     * ahead. A neighbour one generation ahead is normal in lockstep: the halo it sent before stepping is on its way.
+     */
+    private static final long CATCH_UP_GRACE = TimeUnit.SECONDS.toNanos(1);
+
+    /**A received halo, and when it arrived in System.nanoTime**/
+    private static final class Halo {
+        final Slice slice;
+        final long arrived;
+
+        Halo(Slice slice, long arrived) {
+            this.slice = slice;
+            this.arrived = arrived;
+        }
+    }
+
+    /**Generations kept per sender and side**/
+    private final int depth;
+    /**By side, the halos of each sender by generation**/
+    private final Map<Long, NavigableMap<Integer, Halo>> prev = senders();
+    private final Map<Long, NavigableMap<Integer, Halo>> next = senders();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+
+    Halos(int depth) {
+        this.depth = depth;
+    }
+
+    /**The halos of one side, dropping the sender heard from least recently beyond SENDERS**/
+    private static Map<Long, NavigableMap<Integer, Halo>> senders() {
+        return new LinkedHashMap<Long, NavigableMap<Integer, Halo>>(SENDERS * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Long, NavigableMap<Integer, Halo>> eldest) {
+                return size() > SENDERS;
+            }
+        };
+    }
+
+    private Map<Long, NavigableMap<Integer, Halo>> side(int side) {
+        return side == PREV ? prev : next;
+    }
+
+    /**Keeps a halo from a neighbour, dropping that neighbour's oldest on that side beyond the depth**/
+    void put(int side, long sender, int generation, Slice halo) {
+        lock.lock();
+        try {
+            NavigableMap<Integer, Halo> halos = side(side).get(sender);
+            if (halos == null) {
+                halos = new TreeMap<Integer, Halo>();
+                side(side).put(sender, halos);
+            }
+            halos.put(generation, new Halo(halo, System.nanoTime()));
+            while (halos.size() > depth)
+                halos.pollFirstEntry();
+            arrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the halos of a generation have come from both neighbours or, for a peer catching up, one neighbour
+     * is ahead: it has sent a later halo, and had CATCH_UP_GRACE to send the one for this generation without doing so.
+     * @param prevSender the chord ID of the predecessor, -1 if there is none yet
+     * @param nextSender the chord ID of the successor
+     * @param catchUp whether a neighbour ahead ends the wait, only for a peer that has just joined
+     * @param timeout nanoseconds to wait at most
+     * @return generation if both halos are in, the generation of the neighbour ahead if catching up and one is, or -1
+     * if the time ran out first
+     */
+    int await(long prevSender, long nextSender, int generation, boolean catchUp, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout;
+        lock.lock();
+        try {
+            while (true) {
+                NavigableMap<Integer, Halo> before = prevSender != -1 ? prev.get(prevSender) : null;
+                NavigableMap<Integer, Halo> after = next.get(nextSender);
+                if (before != null && before.containsKey(generation) && after != null && after.containsKey(generation))
+                    return generation;
+                long now = System.nanoTime();
+                long wait = deadline - now;
+                int ahead = -1;
+                for (int side = PREV; side <= NEXT && catchUp; side++) {
+                    NavigableMap<Integer, Halo> halos = side == PREV ? before : after;
+                    if (halos == null || halos.isEmpty() || halos.lastKey() <= generation || halos.containsKey(generation))
+                        continue;
+                    long waited = now - halos.lastEntry().getValue().arrived;
+                    if (waited >= CATCH_UP_GRACE)
+                        ahead = Math.max(ahead, halos.lastKey());
+                    else
+                        wait = Math.min(wait, CATCH_UP_GRACE - waited);
+                }
+                if (ahead != -1)
+                    return ahead;
+                if (deadline - now <= 0)
+                    return -1;
+                arrived.awaitNanos(wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the halos of a generation, as await found them, and drops every halo that can no longer be needed: those
+     * of that generation and before, and those of senders that are not the current neighbours.
+     * @return the PREV and NEXT halos
+     */
+    Slice[] take(long prevSender, long nextSender, int generation) {
+        lock.lock();
+        try {
+            prev.keySet().retainAll(Collections.singleton(prevSender));
+            next.keySet().retainAll(Collections.singleton(nextSender));
+            NavigableMap<Integer, Halo> before = prev.get(prevSender);
+            NavigableMap<Integer, Halo> after = next.get(nextSender);
+            Slice[] halos = {before.get(generation).slice, after.get(generation).slice};
+            before.headMap(generation, true).clear();
+            after.headMap(generation, true).clear();
+            return halos;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package chord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+
+import model.Slice;
+
+/**
+ * The binary wire format of PeerMessages, hand written so that reading a message never loads a class named by the
+ * sender and costs no more than the bytes it carries.
+ *
+ * A message is a magic byte, the format version and the type's wire code, followed by the fields its type uses.
+ * Peers are fixed width: a kind byte (no peer, no address, IPv4 or IPv6), the chord ID, the port and 16 bytes of
+ * address. Slices are bit-packed by Slice.write, so a 16x16 halo is 32 bytes of liveness plus its live cells' ages.
+ *
+ * Java serialization is kept as a fallback for peers that still send it, off unless asked for. Its streams start
+ * with a byte the binary format never does, and are only read through a filter that accepts the message classes.
+ */
+public final class MessageCodec {
+    /**The first byte of every binary message. Java serialization streams start with 0xAC.**/
+    static final int MAGIC = 0x47;
+    /**The version of the format written. Readers refuse versions they don't know.**/
+    public static final int VERSION = 1;
+    /**The most cells a slice in a message may have**/
+    public static final int MAX_SLICE_CELLS = 1 << 26;
+
+    /**The types by wire code. Codes must never change, so new types go on the end.**/
+    private static final PeerMessage.Type[] TYPES = {
+        PeerMessage.Type.NOTIFY, PeerMessage.Type.FIND_SUCCESSOR, PeerMessage.Type.SUCCESSOR,
+        PeerMessage.Type.FIND_PREDECESSOR, PeerMessage.Type.PREDECESSOR, PeerMessage.Type.PAYLOAD,
+        PeerMessage.Type.STEADY, PeerMessage.Type.HALT, PeerMessage.Type.HALO
+    };
+
+    /**Peer kinds**/
+    private static final int NO_PEER = 0;
+    private static final int NO_ADDRESS = 1;
+    private static final int IPV4 = 4;
+    private static final int IPV6 = 6;
+
+    /**The classes a Java-serialized message may contain**/
+    private static final ObjectInputFilter SERIALIZED_CLASSES = ObjectInputFilter.Config.createFilter(
+            "maxdepth=8;chord.PeerMessage;chord.PeerMessage$Type;chord.PeerInformation;model.Slice;java.lang.Enum;"
+            + "java.net.InetAddress;java.net.Inet4Address;java.net.Inet6Address;[J;[B;!*");
+
+    private MessageCodec() {}
+
+    /**Encodes a message into bytes**/
+    public static byte[] encode(PeerMessage mesg) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(mesg, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**Decodes a message encoded by encode**/
+    public static PeerMessage decode(byte[] bytes) throws IOException {
+        return read(new ByteArrayInputStream(bytes), false);
+    }
+
+    /**Writes a message in the binary format**/
+    public static void write(PeerMessage mesg, DataOutputStream out) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(code(mesg.type));
+        switch (mesg.type) {
+            case NOTIFY:
+            case FIND_PREDECESSOR:
+            case PREDECESSOR:
+                writePeer(mesg.peer, out);
+                break;
+            case FIND_SUCCESSOR:
+                writePeer(mesg.peer, out);
+                out.writeLong(mesg.nodeIdentifier);
+                out.writeInt(mesg.fingerTableIndex);
+                break;
+            case SUCCESSOR:
+                out.writeInt(mesg.fingerTableIndex);
+                writePeer(mesg.peer, out);
+                break;
+            case PAYLOAD:
+                out.writeLong(mesg.nodeIdentifier);
+                mesg.payload.write(out);
+                break;
+            case STEADY:
+            case HALT:
+                writePeer(mesg.peer, out);
+                out.writeInt(mesg.period);
+                out.writeBoolean(mesg.confirming);
+                break;
+            case HALO:
+                writePeer(mesg.peer, out);
+                out.writeInt(mesg.generation);
+                out.writeBoolean(mesg.forward);
+                mesg.payload.write(out);
+                break;
+        }
+    }
+
+    /**
+     * Reads a message in the binary format.
+     * @throws EOFException if the input is empty or ends early
+     * @throws IOException if it is not a message of a known version
+     */
+    public static PeerMessage read(DataInputStream in) throws IOException {
+        int magic = in.read();
+        if (magic < 0)
+            throw new EOFException();
+        if (magic != MAGIC)
+            throw new IOException("Not a peer message");
+        return readBody(in, null);
+    }
+
+    /**
+     * Reads a message from a connection, in the binary format or, if allowed, Java serialization.
+     * A message read from a ByteArrayInputStream, like a frame, may not declare more than the bytes left in it.
+     * @param allowSerialized whether to accept Java-serialized messages
+     * @throws EOFException if the connection sent nothing, like a liveness probe
+     */
+    public static PeerMessage read(InputStream in, boolean allowSerialized) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 1);
+        int first = pushback.read();
+        if (first < 0)
+            throw new EOFException();
+        if (first == MAGIC)
+            return readBody(new DataInputStream(pushback), in instanceof ByteArrayInputStream ? (ByteArrayInputStream) in : null);
+        if (first != 0xAC || !allowSerialized)
+            throw new IOException("Refused a message that is not in the binary format");
+        pushback.unread(first);
+        ObjectInputStream objects = new ObjectInputStream(pushback);
+        objects.setObjectInputFilter(SERIALIZED_CLASSES);
+        try {
+            return (PeerMessage) objects.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+    /**
+     * The rest of a binary message, after the magic byte.
+     * @param frame the bytes in is reading, which bound the slice sizes it may declare, or null for a stream
+     */
+    private static PeerMessage readBody(DataInputStream in, ByteArrayInputStream frame) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unknown message format version " + version);
+        int code = in.readUnsignedByte();
+        if (code >= TYPES.length)
+            throw new IOException("Unknown message type " + code);
+        PeerMessage.Type type = TYPES[code];
+        switch (type) {
+            case NOTIFY:
+            case FIND_PREDECESSOR:
+            case PREDECESSOR:
+                return new PeerMessage(type, readPeer(in));
+            case FIND_SUCCESSOR: {
+                PeerInformation origin = readPeer(in);
+                long nodeIdentifier = in.readLong();
+                return new PeerMessage(origin, nodeIdentifier, in.readInt());
+            }
+            case SUCCESSOR: {
+                int fingerTableIndex = in.readInt();
+                return new PeerMessage(fingerTableIndex, readPeer(in));
+            }
+            case PAYLOAD: {
+                long nodeIdentifier = in.readLong();
+                return new PeerMessage(nodeIdentifier, readSlice(in, frame));
+            }
+            case STEADY:
+            case HALT: {
+                PeerInformation origin = readPeer(in);
+                int period = in.readInt();
+                return new PeerMessage(type, origin, period, in.readBoolean());
+            }
+            case HALO: {
+                PeerInformation origin = readPeer(in);
+                int generation = in.readInt();
+                boolean forward = in.readBoolean();
+                return new PeerMessage(origin, generation, forward, readSlice(in, frame));
+            }
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+    }
+
+    private static Slice readSlice(DataInputStream in, ByteArrayInputStream frame) throws IOException {
+        // Neither the pushback nor the data stream buffers, so what is left in the frame is what is left to read
+        return Slice.read(in, MAX_SLICE_CELLS, frame != null ? frame.available() : Long.MAX_VALUE);
+    }
+
+    private static int code(PeerMessage.Type type) {
+        for (int i = 0; i < TYPES.length; i++)
+            if (TYPES[i] == type)
+                return i;
+        throw new IllegalArgumentException("No wire code for " + type);
+    }
+
+    private static void writePeer(PeerInformation peer, DataOutputStream out) throws IOException {
+        byte[] address = peer == null || peer.networkID == null ? null : peer.networkID.getAddress();
+        out.writeByte(peer == null ? NO_PEER : address == null ? NO_ADDRESS : address.length == 4 ? IPV4 : IPV6);
+        out.writeLong(peer == null ? 0 : peer.chordID);
+        out.writeInt(peer == null ? 0 : peer.port);
+        byte[] padded = new byte[16];
+        if (address != null)
+            System.arraycopy(address, 0, padded, 0, address.length);
+        out.write(padded);
+    }
+
+    private static PeerInformation readPeer(DataInputStream in) throws IOException {
+        int kind = in.readUnsignedByte();
+        long chordID = in.readLong();
+        int port = in.readInt();
+        byte[] padded = new byte[16];
+        in.readFully(padded);
+        if (kind == NO_PEER)
+            return null;
+        PeerInformation peer = new PeerInformation();
+        peer.chordID = chordID;
+        peer.port = port;
+        if (kind == IPV4) {
+            byte[] address = new byte[4];
+            System.arraycopy(padded, 0, address, 0, 4);
+            peer.networkID = InetAddress.getByAddress(address);
+        } else if (kind == IPV6) {
+            peer.networkID = InetAddress.getByAddress(padded);
+        } else if (kind != NO_ADDRESS) {
+            throw new IOException("Unknown peer address kind " + kind);
+        }
+        return peer;
+    }
+}
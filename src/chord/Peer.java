@@ -1,20 +1,26 @@
 package chord;
 import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import chord.PeerInformation;
 import chord.PeerMessage;
+import model.CycleDetector;
 import model.Field;
 import model.Slice;
 
@@ -46,16 +52,91 @@ public class Peer {
      * The period between invocations of background tasks, e.g., stabilize, fix fingers.
      */
     private static final int BACKGROUND_TASK_PERIOD = 3000;
+    /**
+     * How long to wait for a connection to another peer.
+     */
+    private static final int CONNECT_TIMEOUT = 10000;
+    /**
+     * How long a kept-open connection may go without a heartbeat answered before the peer counts as gone.
+     */
+    private static final int HEARTBEAT_TIMEOUT = 3 * BACKGROUND_TASK_PERIOD;
+    /**
+     * How long a kept-open connection may go without a message before it is closed.
+     */
+    private static final int IDLE_TIMEOUT = 20 * BACKGROUND_TASK_PERIOD;
+    /**
+     * How long to wait for the network to answer a request to join it.
+     */
+    private static final int JOIN_TIMEOUT = 30000;
+    /**
+     * How long exchangeHalos waits for the neighbours' halos unless told.
+     */
+    public static final int HALO_TIMEOUT = 10000;
+    /**
+     * The generations of halos kept from each neighbour.
+     */
+    private static final int HALO_DEPTH = 4;
+    /**
+     * The most slices sent with sendSlice that wait for getReceived; beyond that the oldest are dropped.
+     */
+    private static final int MAX_RECEIVED = 1 << 16;
 
     private PeerInformation self;
-    private PeerInformation successor;
-    private PeerInformation predecessor;
+    private volatile PeerInformation successor;
+    private volatile PeerInformation predecessor;
     private PeerInformation[] fingerTable;
     private int next;
-    private ServerSocket serverSocket;
-    private Thread serverThread;
-    private Thread periodicThread;
-    private List<Slice> received;
+    private PeerServer server;
+    private ScheduledExecutorService periodic;
+    /**
+     * Runs the background tasks of each period side by side, and with virtual threads the messages sent while
+     * handling others.
+     */
+    private volatile ExecutorService tasks;
+    /**
+     * Counted down when the network answers a request to join it.
+     */
+    private volatile CountDownLatch joined;
+    private LinkedList<Slice> received;
+    /**
+     * The halos received from the neighbours, for exchangeHalos.
+     */
+    private final Halos halos = new Halos(HALO_DEPTH);
+    /**
+     * The halos this peer sent for its last two generations, first and last slice, to send again while it waits: a
+     * neighbour a generation behind may not have had the ones before. Only used by the thread calling exchangeHalos.
+     */
+    private final NavigableMap<Integer, Slice[]> sentHalos = new TreeMap<Integer, Slice[]>();
+    /**
+     * Set on joining a ring until halos are first exchanged in it: the only time the field may take the ring's
+     * generation rather than wait for halos of its own.
+     */
+    private volatile boolean joining;
+    /**
+     * The hashes of this peer's field, asked whether the ring can stop. Null if this peer does not take part.
+     */
+    private volatile CycleDetector cycles;
+    /**
+     * The period the ring agreed to stop with, 0 while it runs.
+     */
+    private volatile int haltedPeriod;
+    /**
+     * Whether messages are sent, and accepted, with Java serialization rather than MessageCodec.
+     */
+    private volatile boolean javaSerialization;
+    /**
+     * Whether connections are served, and messages sent, on a virtual thread each rather than on pools.
+     */
+    private volatile boolean virtualThreads = Boolean.getBoolean("chord.virtualThreads");
+    /**
+     * Connections to the other peers, kept open for every message.
+     */
+    private final ConnectionPool connections = new ConnectionPool(CONNECT_TIMEOUT, HEARTBEAT_TIMEOUT, IDLE_TIMEOUT);
+    /**
+     * Held while handling a message that changes the ring's links, so those are handled one at a time.
+     * A lock rather than synchronized, so virtual threads waiting for it don't hold their carrier threads.
+     */
+    private final ReentrantLock handling = new ReentrantLock();
 
     public Peer() {
         self = new PeerInformation();
@@ -67,11 +148,12 @@ public class Peer {
     }
 
     public boolean createNetwork(long id) {
-        if (serverSocket == null)
+        if (server == null)
             if (!startServer())
                 return false;
         self.chordID = id;
         successor = self;
+        joining = false;
         startPeriodicThread();
         return true;
     }
@@ -115,15 +197,21 @@ public class Peer {
     }
 
     public boolean connectToNetwork(InetAddress host, int port, long id) {
-        if (serverSocket == null)
+        if (server == null)
             if (!startServer())
                 return false;
         successor = null;
+        joined = new CountDownLatch(1);
         PeerMessage mesg = new PeerMessage(self, id, -1);
         try {
             sendMessage(mesg, host, port);
-            while (successor == null)
-                Thread.sleep(1000);
+            if (!joined.await(JOIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.out.println("No answer from " + host + ":" + port);
+                return false;
+            }
+        } catch (IOException e) {
+            // sendMessage has said it could not connect
+            return false;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -132,21 +220,25 @@ public class Peer {
         if (successor.chordID == id)
             return false;
         self.chordID = id;
+        joining = true;
         startPeriodicThread();
         return true;
     }
 
     public void disconnectFromNetwork() {
-        if (serverThread != null) {
-            serverThread.interrupt();
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-            }
-            serverSocket = null;
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+        if (periodic != null) {
+            periodic.shutdownNow();
+            periodic = null;
+        }
+        if (tasks != null) {
+            tasks.shutdown();
+            tasks = null;
         }
-        if (periodicThread != null)
-            periodicThread.interrupt();
+        connections.close();
     }
 
     private boolean startServer() {
@@ -154,9 +246,17 @@ public class Peer {
     }
 
     private boolean startServer(int port) {
+        PeerServer.Handler handler = new PeerServer.Handler() {
+            public void handle(PeerMessage mesg, InetAddress local, InetAddress remote) {
+                processMessage(mesg, local, remote);
+            }
+        };
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        connections.setVirtualThreads(virtualThreads);
+        tasks = Threads.perTask("Peer " + port + " task", virtualThreads);
         while (true) {
             try {
-                serverSocket = new ServerSocket(port);
+                server = new PeerServer(port, handler, workers, virtualThreads);
             } catch (IOException e) {
                 port++;
                 continue;
@@ -166,39 +266,42 @@ public class Peer {
             }
             break;
         }
+        server.setAllowSerialized(javaSerialization);
         self.port = port;
+        return true;
+    }
 
-        serverThread = new Thread() {
-            {
-                setDaemon(true);
-            }
-
-            public void run()  {
-                while (!isInterrupted()) {
-                    try (Socket socket = serverSocket.accept()) {
-                        processConnection(socket);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Handles a message from the server's workers. Messages that change the ring's links are handled one at a time;
+     * payloads and halt tokens only read them, so they are handled side by side.
+     */
+    private void processMessage(PeerMessage mesg, InetAddress local, InetAddress remote) {
+        switch (mesg.type) {
+            case PAYLOAD:
+            case STEADY:
+            case HALT:
+            case HALO:
+                handleMessage(mesg, local, remote);
+                break;
+            default:
+                handling.lock();
+                try {
+                    handleMessage(mesg, local, remote);
+                } finally {
+                    handling.unlock();
                 }
-            }
-        };
-        serverThread.start();
-
-        return true;
+        }
     }
 
-    private void processConnection(Socket socket) {
+    private void handleMessage(PeerMessage mesg, InetAddress local, InetAddress remote) {
         try {
-            ObjectInputStream socketIn = new ObjectInputStream(socket.getInputStream());
-            PeerMessage mesg = (PeerMessage)socketIn.readObject();
             if (mesg.peer != null) {
                 // First incoming remote connection will tell us our network address
                 if (self.networkID == null && mesg.peer.chordID != self.chordID)
-                    self.networkID = socket.getLocalAddress();
+                    self.networkID = local;
                 // Fill in the origin's network address if they didn't know it
                 if (mesg.peer.networkID == null)
-                    mesg.peer.networkID = socket.getInetAddress();
+                    mesg.peer.networkID = remote;
             }
             switch (mesg.type) {
                 case NOTIFY:
@@ -214,14 +317,17 @@ public class Peer {
                 case SUCCESSOR:
                     if (mesg.peer.chordID == self.chordID)
                         mesg.peer = self;
-                    if (mesg.fingerTableIndex == -1)
+                    if (mesg.fingerTableIndex == -1) {
                         successor = mesg.peer;
-                    else
+                        CountDownLatch joined = this.joined;
+                        if (joined != null)
+                            joined.countDown();
+                    } else
                         fingerTable[mesg.fingerTableIndex] = mesg.peer;
                     break;
                 case FIND_PREDECESSOR:
                     PeerMessage returnMesg = new PeerMessage(PeerMessage.Type.PREDECESSOR, predecessor);
-                    sendMessage(returnMesg, mesg.peer);
+                    dispatch(returnMesg, mesg.peer);
                     break;
                 case PREDECESSOR:
                     if (mesg.peer != null && withinOpenInterval(mesg.peer.chordID, self.chordID, successor.chordID)) {
@@ -230,17 +336,25 @@ public class Peer {
                         successor = mesg.peer;
                     }
                     returnMesg = new PeerMessage(PeerMessage.Type.NOTIFY, self);
-                    sendMessage(returnMesg, successor);
+                    dispatch(returnMesg, successor);
                     break;
                 case PAYLOAD:
                     handlePayload(mesg);
+                    break;
+                case STEADY:
+                    passSteady(mesg);
+                    break;
+                case HALT:
+                    passHalt(mesg);
+                    break;
+                case HALO:
+                    // The predecessor's last slice goes before this field's first, the successor's first after its last
+                    halos.put(mesg.forward ? Halos.PREV : Halos.NEXT, mesg.peer.chordID, mesg.generation, mesg.payload);
+                    break;
             }
         } catch (IOException e) {
-            // We expect the deserialization to fail, throwing EOFException, when a "check predecessor" connection is made
-            if (!(e instanceof EOFException) && !(e instanceof ConnectException))
+            if (!(e instanceof ConnectException))
                 e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
         }
     }
 
@@ -248,10 +362,10 @@ public class Peer {
         try {
             if (withinClosedInterval(mesg.nodeIdentifier, self.chordID, successor.chordID)) {
                 PeerMessage returnMesg = new PeerMessage(mesg.fingerTableIndex, successor);
-                sendMessage(returnMesg, mesg.peer);
+                dispatch(returnMesg, mesg.peer);
             } else {
                 PeerInformation n0 = closestPrecedingNode(mesg.nodeIdentifier);
-                sendMessage(mesg, n0);
+                dispatch(mesg, n0);
             }
         } catch (IOException e) {
         }
@@ -282,10 +396,17 @@ public class Peer {
     private void sendMessage(PeerMessage mesg, InetAddress networkID, int port) throws IOException {
         if (networkID == null)
             networkID = InetAddress.getLocalHost();
-        try (Socket socket = new Socket()) {
-            socket.connect(new InetSocketAddress(networkID, port), 10000);
-            ObjectOutputStream socketOut = new ObjectOutputStream(socket.getOutputStream());
-            socketOut.writeObject(mesg);
+        try {
+            if (javaSerialization) {
+                // Peers from before MessageCodec take one message per connection
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(networkID, port), CONNECT_TIMEOUT);
+                    ObjectOutputStream socketOut = new ObjectOutputStream(socket.getOutputStream());
+                    socketOut.writeObject(mesg);
+                }
+            } else {
+                connections.send(new InetSocketAddress(networkID, port), MessageCodec.encode(mesg));
+            }
         } catch (IOException e) {
             System.out.println("Unable to connect to " + networkID + ":" + port);
             invalidatePeer(networkID, port);
@@ -297,28 +418,79 @@ public class Peer {
         }
     }
 
-    private void startPeriodicThread() {
-        periodicThread = new Thread() {
-            {
-                setDaemon(true);
-            }
-
-            public void run()  {
-                while (!isInterrupted()) {
+    /**
+     * Sends a message from a message handler. With virtual threads it is sent on a thread of its own, so the handler
+     * does not wait for the connection; a failure is dealt with by sendMessage, as there is no one to tell.
+     */
+    private void dispatch(final PeerMessage mesg, final PeerInformation destination) throws IOException {
+        ExecutorService tasks = this.tasks;
+        if (!virtualThreads || tasks == null) {
+            sendMessage(mesg, destination);
+            return;
+        }
+        try {
+            tasks.execute(new Runnable() {
+                public void run() {
                     try {
-                        synchronized (this) {
-                            wait(BACKGROUND_TASK_PERIOD);
-                        }
-                    } catch (InterruptedException e) {
-                        break;
+                        sendMessage(mesg, destination);
+                    } catch (IOException e) {
                     }
-                    stabilize();
-                    fixFingers();
-                    checkPredecessor();
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            // Disconnected
+        }
+    }
+
+    private void startPeriodicThread() {
+        periodic = Executors.newSingleThreadScheduledExecutor(Threads.factory("Peer " + self.port + " periodic", virtualThreads));
+        periodic.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                runPeriodicTasks();
             }
-        };
-        periodicThread.start();
+        }, BACKGROUND_TASK_PERIOD, BACKGROUND_TASK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One period's background tasks. They are independent, and each may wait on a peer that is slow to answer,
+     * so they run side by side and the period ends when all have finished.
+     */
+    private void runPeriodicTasks() {
+        List<Callable<Object>> round = new ArrayList<Callable<Object>>();
+        round.add(Executors.callable(new Runnable() {
+            public void run() {
+                stabilize();
+            }
+        }));
+        round.add(Executors.callable(new Runnable() {
+            public void run() {
+                fixFingers();
+            }
+        }));
+        round.add(Executors.callable(new Runnable() {
+            public void run() {
+                checkPredecessor();
+            }
+        }));
+        round.add(Executors.callable(new Runnable() {
+            public void run() {
+                proposeHalt();
+            }
+        }));
+        round.add(Executors.callable(new Runnable() {
+            public void run() {
+                for (InetSocketAddress gone : connections.heartbeat())
+                    invalidatePeer(gone.getAddress(), gone.getPort());
+            }
+        }));
+        ExecutorService tasks = this.tasks;
+        if (tasks == null)
+            return;
+        try {
+            tasks.invokeAll(round);
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // Disconnected
+        }
     }
 
     private void stabilize() {
@@ -336,12 +508,18 @@ public class Peer {
     }
 
     private void checkPredecessor() {
-        if (predecessor != null && predecessor.networkID != null)
+        PeerInformation predecessor = this.predecessor;
+        if (predecessor == null || predecessor.networkID == null)
+            return;
+        if (javaSerialization) {
             try {
                 new Socket(predecessor.networkID, predecessor.port).close();
             } catch (IOException e) {
                 invalidatePeer(predecessor.chordID);
             }
+        } else if (!connections.isAlive(new InetSocketAddress(predecessor.networkID, predecessor.port))) {
+            invalidatePeer(predecessor.chordID);
+        }
     }
 
     private void invalidatePeer(long id) {
@@ -357,7 +535,8 @@ public class Peer {
     private void invalidatePeer(InetAddress host, int port) {
         if (host == null)
             return;
-        if (host.equals(successor.networkID) && successor.port == port)
+        // No successor while joining
+        if (successor != null && host.equals(successor.networkID) && successor.port == port)
             successor = self;
         if (predecessor != null && host.equals(predecessor.networkID) && predecessor.port == port)
             predecessor = null;
@@ -440,6 +619,40 @@ public class Peer {
         }
     }
 
+    /**
+     * Serves each incoming connection, and sends each message relayed or answered, on a thread of its own, rather
+     * than on a selector thread with a pool of workers. The threads are virtual on a JVM that has them, Java 21 on,
+     * and platform threads otherwise. Takes effect when the peer next creates or joins a network.
+     * Off by default, unless the system property chord.virtualThreads is true.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Does this JVM have virtual threads for setVirtualThreads?
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return Threads.isVirtualAvailable();
+    }
+
+    /**
+     * Sends messages with Java serialization, and accepts them, to talk to peers from before MessageCodec.
+     * Off by default: serialized messages are refused, so a sender can't make this peer load arbitrary classes.
+     */
+    public void setJavaSerialization(boolean javaSerialization) {
+        this.javaSerialization = javaSerialization;
+        if (server != null)
+            server.setAllowSerialized(javaSerialization);
+    }
+
+    /**
+     * The port this peer's server listens on, 0 before it creates or joins a network.
+     */
+    public int getPort() {
+        return server != null ? self.port : 0;
+    }
+
     public long getSuccessorID() {
         return successor != null ? successor.chordID : -1;
     }
@@ -467,14 +680,16 @@ public class Peer {
                 synchronized (this) {
                     if (received == null)
                         received = new LinkedList<Slice>();
+                    else if (received.size() == MAX_RECEIVED)
+                        received.removeFirst();
                     received.add(mesg.payload);
                 }
             } else if (withinClosedInterval(mesg.nodeIdentifier, self.chordID, successor.chordID)) {
                 mesg.nodeIdentifier = -1;
-                sendMessage(mesg, successor);
+                dispatch(mesg, successor);
             } else {
                 PeerInformation n0 = closestPrecedingNode(mesg.nodeIdentifier);
-                sendMessage(mesg, n0);
+                dispatch(mesg, n0);
             }
         } catch (IOException e) {
 //			e.printStackTrace();
@@ -483,10 +698,203 @@ public class Peer {
         return true;
     }
 
-    public void sendSlices(Field slices) {
-        //pass backward
-        sendSlice(slices.getSlice(0), getPredecessorID());
-        //pass forward
-        sendSlice(slices.getSlice(Field.SLICE_COUNT), getPredecessorID());
+    /**
+     * Takes part in stopping the ring once the whole world cycles. Every peer's field must repeat before the
+     * ring stops: a peer whose field is cycling sends a STEADY token round the ring, which gathers the least common
+     * multiple of the periods, then goes round again to check every field repeats over that many generations.
+     * If the token comes back to its origin, the ring stops and a HALT goes round telling every peer.
+     * Any peer whose field is not cycling drops the token, and the ring carries on.
+     * @param cycles the cycle detector of this peer's field, null to stop taking part
+     */
+    public void setCycleDetector(CycleDetector cycles) {
+        this.cycles = cycles;
+    }
+
+    /**
+     * Has the ring agreed to stop because the world cycles?
+     */
+    public boolean isHalted() {
+        return haltedPeriod != 0;
+    }
+
+    /**
+     * The period of the world the ring agreed to stop with, 0 while it runs.
+     */
+    public int getHaltedPeriod() {
+        return haltedPeriod;
+    }
+
+    /**
+     * Lets this peer run again after a halt, for a new game. Other peers stay halted.
+     */
+    public void resume() {
+        haltedPeriod = 0;
+    }
+
+    private void proposeHalt() {
+        CycleDetector cycles = this.cycles;
+        if (cycles == null || haltedPeriod != 0 || successor == null)
+            return;
+        int period = cycles.getPeriod();
+        if (period == 0)
+            return;
+        try {
+            sendMessage(new PeerMessage(PeerMessage.Type.STEADY, self, period, false), successor);
+        } catch (IOException e) {
+        }
+    }
+
+    private void passSteady(PeerMessage mesg) throws IOException {
+        CycleDetector cycles = this.cycles;
+        if (cycles == null || haltedPeriod != 0)
+            return;
+        if (mesg.peer.chordID == self.chordID) {
+            // Back at the origin: every peer has added its period, or has checked the combined one
+            if (!cycles.repeats(mesg.period))
+                return;
+            if (!mesg.confirming) {
+                mesg.confirming = true;
+                dispatch(mesg, successor);
+            } else {
+                haltedPeriod = mesg.period;
+                dispatch(new PeerMessage(PeerMessage.Type.HALT, self, mesg.period, false), successor);
+            }
+            return;
+        }
+        if (!mesg.confirming) {
+            int period = cycles.getPeriod();
+            if (period == 0)
+                return;
+            long lcm = (long) mesg.period / gcd(mesg.period, period) * period;
+            if (lcm > cycles.getHistory())
+                return;
+            mesg.period = (int) lcm;
+        } else if (!cycles.repeats(mesg.period)) {
+            return;
+        }
+        dispatch(mesg, successor);
+    }
+
+    private void passHalt(PeerMessage mesg) throws IOException {
+        // The origin halted when it sent this
+        if (mesg.peer.chordID == self.chordID)
+            return;
+        haltedPeriod = mesg.period;
+        dispatch(mesg, successor);
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Exchanges halos with the neighbouring peers, waiting at most HALO_TIMEOUT. See exchangeHalos(Field, long).
+     */
+    public boolean exchangeHalos(Field field) throws IOException {
+        return exchangeHalos(field, HALO_TIMEOUT);
+    }
+
+    /**
+     * Exchanges halos with the neighbouring peers in lockstep: sends the field's first slice to the predecessor and
+     * its last to the successor, tagged with the field's generation, then waits for theirs of the same generation and
+     * gives them to the field. Call before each step, so every peer steps each generation with its neighbours' edges
+     * of that generation, and a ring's run is the same whatever the timing. While it waits, the peer sends its halos
+     * of this generation and the one before again each period, so a halo lost on the way, or sent to a neighbour that
+     * has since been replaced, is made up for; a neighbour behind it is waiting for the one before.
+     *
+     * A peer that has just joined a running ring is behind it, and its slices are new to the ring. Only then, when a
+     * neighbour is ahead, does the field take the generation of the halos the neighbour sends, and carry on in
+     * lockstep from there. Any other peer never steps on halos from another generation: it waits for its own.
+     * A peer alone in the ring has no halos; its field wraps onto itself.
+     * @param timeout milliseconds to wait for the halos, 0 to only take them if they are in
+     * @return false if the halos did not all come in time; the field is left as it was, and must not be stepped
+     * before a later call returns true
+     * @throws IOException if the halos could not be sent, the last time they were tried before the time ran out
+     */
+    public boolean exchangeHalos(Field field, long timeout) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        int sentGeneration = -1;
+        long sentPredecessor = -1;
+        long sentSuccessor = -1;
+        IOException failure = null;
+        while (true) {
+            PeerInformation successor = this.successor;
+            PeerInformation predecessor = this.predecessor;
+            if (successor == null || successor.chordID == self.chordID) {
+                field.setPrev(null);
+                field.setNext(null);
+                return true;
+            }
+            int generation = field.getVersion();
+            long predecessorID = predecessor != null ? predecessor.chordID : -1;
+            if (predecessor != null) {
+                // The first time for this generation and these neighbours, then again with the generation before
+                boolean again = generation == sentGeneration && predecessorID == sentPredecessor
+                        && successor.chordID == sentSuccessor;
+                if (generation != sentGeneration)
+                    keepHalos(field);
+                try {
+                    sendHalos(generation, predecessor, successor, again);
+                    failure = null;
+                } catch (IOException e) {
+                    failure = e;
+                }
+                sentGeneration = generation;
+                sentPredecessor = predecessorID;
+                sentSuccessor = successor.chordID;
+            }
+            // Wake up each period to send again and notice the ring changing
+            long wait = Math.min(deadline - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(BACKGROUND_TASK_PERIOD));
+            int ready;
+            try {
+                ready = halos.await(predecessorID, successor.chordID, generation, joining, Math.max(wait, 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (ready == generation) {
+                Slice[] taken = halos.take(predecessorID, successor.chordID, generation);
+                field.setPrev(taken[Halos.PREV]);
+                field.setNext(taken[Halos.NEXT]);
+                joining = false;
+                return true;
+            }
+            if (ready > generation) {
+                System.out.println("Joining the ring at generation " + ready + ", from " + generation);
+                field.setVersion(ready);
+            } else if (System.nanoTime() - deadline >= 0) {
+                if (failure != null)
+                    throw failure;
+                return false;
+            }
+        }
+    }
+
+    /**Copies the field's edge slices as its halos of its generation, forgetting those before the generation before**/
+    private void keepHalos(Field field) {
+        int generation = field.getVersion();
+        sentHalos.put(generation, new Slice[] {new Slice(field.getSlice(0)), new Slice(field.getSlice(field.getSliceCount() - 1))});
+        sentHalos.headMap(generation - 1).clear();
+        // A field that went back, or took the ring's generation, has no halos after this one
+        sentHalos.tailMap(generation, false).clear();
+    }
+
+    /**
+     * Sends the halos kept for a generation, and if again those of the generation before as well, in order and on
+     * this thread, so a neighbour gets them in the order they were made and a failure is not lost.
+     */
+    private void sendHalos(int generation, PeerInformation predecessor, PeerInformation successor, boolean again)
+            throws IOException {
+        for (Map.Entry<Integer, Slice[]> sent : sentHalos.headMap(generation, true).entrySet()) {
+            if (sent.getKey() < generation && !again)
+                continue;
+            sendMessage(new PeerMessage(self, sent.getKey(), false, sent.getValue()[0]), predecessor);
+            sendMessage(new PeerMessage(self, sent.getKey(), true, sent.getValue()[1]), successor);
+        }
     }
 }
@@ -9,14 +9,18 @@ public class PeerMessage implements Serializable {
     private static final long serialVersionUID = -8361483433000719806L;
 
     public enum Type {
-        NOTIFY, FIND_SUCCESSOR, SUCCESSOR, FIND_PREDECESSOR, PREDECESSOR, PAYLOAD
+        NOTIFY, FIND_SUCCESSOR, SUCCESSOR, FIND_PREDECESSOR, PREDECESSOR, PAYLOAD, STEADY, HALT, HALO
     }
 
     public Type type;
     public long nodeIdentifier;						// FIND_SUCCESSOR, PAYLOAD
     public int fingerTableIndex;					// FIND_SUCCESSOR, SUCCESSOR
-    public PeerInformation peer;					// NOTIFY, FIND_SUCCESSOR, SUCCESSOR, FIND_PREDECESSOR, PREDECESSOR
-    public Slice payload;					        // PAYLOAD
+    public PeerInformation peer;					// NOTIFY, FIND_SUCCESSOR, SUCCESSOR, FIND_PREDECESSOR, PREDECESSOR, HALO
+    public Slice payload;					        // PAYLOAD, HALO
+    public int period;					            // STEADY, HALT
+    public boolean confirming;				        // STEADY
+    public int generation;					        // HALO
+    public boolean forward;					        // HALO
 
     public PeerMessage(PeerInformation origin, long nodeIdentifier, int fingerTableIndex) {
         type = Type.FIND_SUCCESSOR;
@@ -44,9 +48,35 @@ public class PeerMessage implements Serializable {
         }
     }
 
+    public PeerMessage(Type type, PeerInformation origin, int period, boolean confirming) {
+        this.type = type;
+        switch (type) {
+            case STEADY:
+            case HALT:
+                this.peer = origin;
+                this.period = period;
+                this.confirming = confirming;
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
     public PeerMessage(long nodeIdentifier, Slice payload) {
         type = Type.PAYLOAD;
         this.nodeIdentifier = nodeIdentifier;
         this.payload = payload;
     }
+
+    /**
+     * An edge slice of the origin's field at a generation, for a neighbour's halo.
+     * @param forward whether it is the last slice, going to the successor, rather than the first, to the predecessor
+     */
+    public PeerMessage(PeerInformation origin, int generation, boolean forward, Slice halo) {
+        type = Type.HALO;
+        this.peer = origin;
+        this.generation = generation;
+        this.forward = forward;
+        this.payload = halo;
+    }
 }
@@ -0,0 +1,484 @@
+package chord;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The server side of a peer: takes connections from the other peers and reads their messages, all on one thread.
+ *
+ * Connections are non-blocking and share one Selector. Each is decoded incrementally as bytes arrive, so a peer
+ * that sends half a frame and stalls holds up nobody: frames of a kept-open Connection, or the single message of a
+ * peer that sends one per connection and then closes it. A frame's buffer grows as its bytes arrive rather than being
+ * allocated at the length it declares. Decoded frames are handled on a pool of worker threads, in order for each
+ * connection but side by side across connections. A connection with MAX_QUEUED frames waiting is not read again until
+ * its worker catches up, so a peer sending faster than it is handled is held back by TCP instead of filling memory.
+ * Heartbeat PINGs are answered straight from the selector thread.
+ *
+ * Alternatively each connection gets its own thread, virtual if the JVM has them (see Threads), which reads it with
+ * blocking I/O and handles its messages itself, in order. That is the simpler model; benchmarks.PeerLoadTest
+ * compares the two.
+ */
+final class PeerServer implements Closeable {
+    /**Handles the messages the server receives**/
+    interface Handler {
+        /**
+         * @param local the address the message came in on
+         * @param remote the address of the peer that sent it
+         */
+        void handle(PeerMessage mesg, InetAddress local, InetAddress remote);
+    }
+
+    /**Bytes read from a connection at a time**/
+    private static final int READ_BUFFER = 1 << 16;
+    /**Frames a connection may have waiting for a worker before it is no longer read**/
+    static final int MAX_QUEUED = 64;
+    private static final byte[] PONG = {0, 0, 0, 1, Connection.PONG};
+
+    private final ServerSocketChannel server;
+    private final Handler handler;
+    private final Thread thread;
+    private volatile boolean allowSerialized;
+    /**Null when each connection has its own thread**/
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ByteBuffer readBuffer;
+    /**The open connections when each has its own thread, to close them with the server**/
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Listens on a port and starts serving.
+     * @param workers how many threads handle messages, with the selector
+     * @param virtualThreads whether to give each connection its own virtual thread instead of using the selector
+     * @throws IOException if the port can't be listened on
+     */
+    PeerServer(final int port, Handler handler, int workers, final boolean virtualThreads) throws IOException {
+        this.handler = handler;
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port));
+            if (!virtualThreads) {
+                server.configureBlocking(false);
+                this.selector = Selector.open();
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            } else {
+                this.selector = null;
+            }
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        if (!virtualThreads) {
+            this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "Peer " + port + " worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+        } else {
+            this.workers = null;
+            this.readBuffer = null;
+        }
+        this.thread = Threads.start("Peer " + port + " server", virtualThreads, new Runnable() {
+            public void run() {
+                if (virtualThreads)
+                    acceptEach(port);
+                else
+                    serve();
+            }
+        });
+    }
+
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**Whether to accept Java-serialized messages, see MessageCodec.read**/
+    void setAllowSerialized(boolean allowSerialized) {
+        this.allowSerialized = allowSerialized;
+    }
+
+    private void serve() {
+        try {
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    try {
+                        if (key.isAcceptable())
+                            accept();
+                        else {
+                            Inbound inbound = (Inbound) key.attachment();
+                            if (key.isReadable())
+                                inbound.read();
+                            if (key.isValid() && key.isWritable())
+                                inbound.flush();
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null)
+                            ((Inbound) key.attachment()).close(e);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**Accepts connections and starts a virtual thread for each**/
+    private void acceptEach(int port) {
+        try {
+            while (true) {
+                final SocketChannel channel = server.accept();
+                open.add(channel);
+                if (!server.isOpen()) {
+                    // Closed while accepting
+                    channel.close();
+                    break;
+                }
+                Threads.start("Peer " + port + " connection", true, new Runnable() {
+                    public void run() {
+                        serve(channel);
+                    }
+                });
+            }
+        } catch (ClosedChannelException e) {
+            // Closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads one connection until it closes, handling each message before reading the next: the single message of a
+     * connection that is not kept open, or the frames of a Connection, answering PINGs.
+     */
+    private void serve(SocketChannel channel) {
+        Socket socket = channel.socket();
+        InetAddress local = socket.getLocalAddress();
+        InetAddress remote = socket.getInetAddress();
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            in.mark(1);
+            int first = in.read();
+            if (first < 0)
+                return;
+            if (first != Connection.PREAMBLE) {
+                in.reset();
+                handle(MessageCodec.read(in, allowSerialized), local, remote);
+                return;
+            }
+            Connection connection = Connection.accept(socket, in);
+            while (true) {
+                byte[] frame = connection.read();
+                if (frame[0] == Connection.PING)
+                    connection.pong();
+                else if (frame[0] == Connection.MESSAGE)
+                    handle(MessageCodec.read(new ByteArrayInputStream(frame, 1, frame.length - 1), allowSerialized), local, remote);
+            }
+        } catch (EOFException e) {
+            // Closed by the other side
+        } catch (IOException e) {
+            if (channel.isOpen())
+                System.out.println("Dropped connection from " + remote + ": " + e.getMessage());
+        } finally {
+            open.remove(channel);
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void handle(PeerMessage mesg, InetAddress local, InetAddress remote) {
+        try {
+            handler.handle(mesg, local, remote);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            Inbound inbound = new Inbound(channel, socket.getLocalAddress(), socket.getInetAddress());
+            inbound.key = channel.register(selector, SelectionKey.OP_READ, inbound);
+        }
+    }
+
+    /**What has been read of a connection so far, and the frames waiting to be handled**/
+    private final class Inbound {
+        /**
+         * Decoding states: before the first byte, before the framing version, in a frame's length or body, or in the
+         * one message of a connection that is not kept open
+         */
+        private static final int START = 0;
+        private static final int VERSION = 1;
+        private static final int LENGTH = 2;
+        private static final int BODY = 3;
+        private static final int SINGLE = 4;
+
+        final SocketChannel channel;
+        final InetAddress local;
+        final InetAddress remote;
+        SelectionKey key;
+        private int state = START;
+        private final ByteBuffer length = ByteBuffer.allocate(4);
+        /**The frame being read, which grows to size as its bytes arrive**/
+        private byte[] body;
+        private int size;
+        private int filled;
+        private ByteArrayOutputStream single;
+        /**Bytes still to write, if the channel could not take them at once**/
+        private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<ByteBuffer>();
+        /**Frames waiting for a worker, whether a worker is on this connection, and whether reading is paused until it catches up**/
+        private final ArrayDeque<byte[]> frames = new ArrayDeque<byte[]>();
+        private boolean handling = false;
+        private boolean paused = false;
+
+        Inbound(SocketChannel channel, InetAddress local, InetAddress remote) {
+            this.channel = channel;
+            this.local = local;
+            this.remote = remote;
+        }
+
+        /**Reads what has arrived and decodes as far as it goes**/
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                // The end of the message on a connection that is not kept open. Anything else cut short is dropped.
+                if (state == SINGLE) {
+                    byte[] frame = new byte[single.size() + 1];
+                    frame[0] = Connection.MESSAGE;
+                    System.arraycopy(single.toByteArray(), 0, frame, 1, single.size());
+                    dispatch(frame);
+                }
+                close(null);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                switch (state) {
+                    case START:
+                        int first = readBuffer.get(readBuffer.position()) & 0xFF;
+                        if (first == Connection.PREAMBLE) {
+                            readBuffer.get();
+                            state = VERSION;
+                        } else {
+                            single = new ByteArrayOutputStream();
+                            state = SINGLE;
+                        }
+                        break;
+                    case VERSION:
+                        int version = readBuffer.get() & 0xFF;
+                        if (version != Connection.VERSION)
+                            throw new IOException("Unknown framing version " + version);
+                        state = LENGTH;
+                        break;
+                    case LENGTH:
+                        while (length.hasRemaining() && readBuffer.hasRemaining())
+                            length.put(readBuffer.get());
+                        if (!length.hasRemaining()) {
+                            size = length.getInt(0);
+                            length.clear();
+                            if (size < 1 || size > Connection.MAX_FRAME)
+                                throw new IOException("Bad frame length " + size);
+                            body = new byte[Math.min(size, Connection.READ_CHUNK)];
+                            filled = 0;
+                            state = BODY;
+                        }
+                        break;
+                    case BODY:
+                        if (filled == body.length)
+                            body = Arrays.copyOf(body, (int) Math.min(size, 2L * body.length));
+                        int take = Math.min(body.length - filled, readBuffer.remaining());
+                        readBuffer.get(body, filled, take);
+                        filled += take;
+                        if (filled == size) {
+                            frame(body);
+                            body = null;
+                            state = LENGTH;
+                        }
+                        break;
+                    case SINGLE:
+                        if (single.size() + readBuffer.remaining() > Connection.MAX_FRAME)
+                            throw new IOException("Message too long");
+                        byte[] bytes = new byte[readBuffer.remaining()];
+                        readBuffer.get(bytes);
+                        single.write(bytes, 0, bytes.length);
+                        break;
+                }
+            }
+        }
+
+        /**A whole frame: PINGs are answered here, messages go to a worker**/
+        private void frame(byte[] frame) throws IOException {
+            if (frame[0] == Connection.PING)
+                write(ByteBuffer.wrap(PONG));
+            else if (frame[0] == Connection.MESSAGE)
+                dispatch(frame);
+        }
+
+        /**
+         * Queues a MESSAGE frame to be decoded and handled after the ones before it. Stops reading the connection once
+         * MAX_QUEUED are waiting; the frames already read are still queued.
+         */
+        private void dispatch(byte[] frame) {
+            synchronized (frames) {
+                frames.add(frame);
+                if (frames.size() >= MAX_QUEUED && !paused) {
+                    paused = true;
+                    setReading(false);
+                }
+                if (handling)
+                    return;
+                handling = true;
+            }
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        handleNext(this);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        /**Handles one frame on a worker, then hands the connection back to the pool if it has more**/
+        private void handleNext(Runnable task) {
+            byte[] frame;
+            synchronized (frames) {
+                frame = frames.poll();
+                if (paused && frames.size() < MAX_QUEUED / 2) {
+                    paused = false;
+                    setReading(true);
+                    selector.wakeup();
+                }
+            }
+            try {
+                handle(MessageCodec.read(new ByteArrayInputStream(frame, 1, frame.length - 1), allowSerialized), local, remote);
+            } catch (IOException e) {
+                if (!(e instanceof EOFException))
+                    e.printStackTrace();
+                close(null);
+            }
+            synchronized (frames) {
+                if (frames.isEmpty()) {
+                    handling = false;
+                    return;
+                }
+            }
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        }
+
+        /**
+         * Turns reading the connection on or off, leaving writing as it is. Called with frames held, on the selector
+         * thread or a worker, so that pausing and resuming apply in the order they were decided.
+         */
+        private void setReading(boolean reading) {
+            try {
+                if (reading)
+                    key.interestOpsOr(SelectionKey.OP_READ);
+                else
+                    key.interestOpsAnd(~SelectionKey.OP_READ);
+            } catch (CancelledKeyException e) {
+                // Closed
+            }
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            if (writes.isEmpty())
+                channel.write(bytes);
+            if (bytes.hasRemaining()) {
+                writes.add(bytes);
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+            }
+        }
+
+        void flush() throws IOException {
+            while (!writes.isEmpty()) {
+                ByteBuffer bytes = writes.peek();
+                channel.write(bytes);
+                if (bytes.hasRemaining())
+                    return;
+                writes.poll();
+            }
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        }
+
+        void close(IOException cause) {
+            if (cause != null && !(cause instanceof EOFException) && channel.isOpen())
+                System.out.println("Dropped connection from " + remote + ": " + cause.getMessage());
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**Stops serving and closes every connection. Messages being handled are finished.**/
+    @Override
+    public void close() {
+        if (selector != null) {
+            try {
+                for (SelectionKey key : selector.keys())
+                    key.channel().close();
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+        }
+        for (SocketChannel channel : open) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+        }
+        if (workers != null)
+            workers.shutdown();
+    }
+}
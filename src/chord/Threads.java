@@ -0,0 +1,74 @@
+package chord;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes the threads a peer does its I/O on: virtual threads when the JVM has them, else platform daemon threads.
+ *
+ * Virtual threads came with Java 21 and the project builds for 17, so they are looked up by reflection. Everywhere
+ * else the same code runs on platform threads, so a peer asked for virtual threads still works, just with the
+ * platform-thread cost.
+ */
+final class Threads {
+    /**Makes virtual threads, null if the JVM has none**/
+    private static final ThreadFactory VIRTUAL = virtualFactory();
+
+    private Threads() {}
+
+    private static ThreadFactory virtualFactory() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) builder.getMethod("factory").invoke(ofVirtual);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 21, or a preview not enabled
+            return null;
+        }
+    }
+
+    static boolean isVirtualAvailable() {
+        return VIRTUAL != null;
+    }
+
+    /**
+     * Makes named threads: virtual if asked for and available, else daemon platform threads.
+     */
+    static ThreadFactory factory(final String name, boolean virtual) {
+        final ThreadFactory base = virtual && VIRTUAL != null ? VIRTUAL : null;
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = base != null ? base.newThread(task) : new Thread(task);
+                thread.setName(name + " " + count.incrementAndGet());
+                if (base == null)
+                    thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * An executor for short blocking tasks. With virtual threads every task gets a new one; otherwise tasks share
+     * a pool of platform threads that grows as needed and shrinks when idle.
+     */
+    static ExecutorService perTask(String name, boolean virtual) {
+        if (virtual && VIRTUAL != null)
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    factory(name, true));
+        return Executors.newCachedThreadPool(factory(name, false));
+    }
+
+    /**Starts a thread made as factory(name, virtual) makes them, named name**/
+    static Thread start(String name, boolean virtual, Runnable task) {
+        Thread thread = factory(name, virtual).newThread(task);
+        thread.setName(name);
+        thread.start();
+        return thread;
+    }
+}
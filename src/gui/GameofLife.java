@@ -6,12 +6,15 @@ import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.media.j3d.Appearance;
 import javax.media.j3d.BoundingSphere;
@@ -41,23 +44,23 @@ import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
 
 import model.Field;
+import model.FieldView;
 import chord.Peer;
 
 import com.sun.j3d.utils.geometry.Sphere;
 import com.sun.j3d.utils.universe.SimpleUniverse;
-import model.Slice;
 
 public class GameofLife {
 	
 	// Time between generations in milliseconds.
 	private static int PAUSE_RATE = 500;
 
-    // Width of the extent in meters.
-    private static float DEFAULT_WORLD_SIZE = 16;
-
     // Brightness Steps for lifespan display.
     private static float BRIGHTNESS_STEPS = 16;
 	
+	// Title of the window.
+	private static final String TITLE = "Physics Demo";
+
 	// Starting distance of the camera from the game world.
 	private static final double DISTANCE = 3d;
 	
@@ -84,6 +87,18 @@ public class GameofLife {
 
 	private Timer gameTimer;
 
+	// Steps the field and waits for the neighbours' halos, so the event dispatch thread never blocks on them.
+	private final ExecutorService stepper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "Stepper");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// Whether a generation is being stepped or waiting to be drawn. Only read and written on the event dispatch thread.
+	private boolean ticking;
+
 	private JMenu newGameMenu;
 
 	private JMenu chordMenu; 
@@ -100,52 +115,87 @@ public class GameofLife {
 		});
 	}
 
-    /**Updates the field**/
+    /**
+     * Starts working out the next generation on the stepper, unless the last one is not drawn yet. The field is only
+     * stepped again once its generation has been drawn, so the scene is drawn from it without a copy.
+     */
 	private void tick() {
-        System.out.println("updating");
-		slices = slices.updateToCopy();
-        //handle peers
-        if(p2p != null) {
-            p2p.sendSlices(slices); //wrap the slices
-
-            //handle slice wrapping input
-            List<Slice> received = p2p.getReceived();
-            if(received != null) {
-                for(Slice slice : received) {
-                    //next
-                    if(slice.getNumber() == 0) {
-                        slices.setNext(slice);
-                    } else { //prev
-                        slices.setPrev(slice);
-                    }
-                }
-            }
+		if (ticking)
+			return;
+		ticking = true;
+		final Field field = slices;
+		stepper.execute(new Runnable() {
+			public void run() {
+				String title = TITLE + " - could not step";
+				try {
+					title = step(field);
+				} finally {
+					draw(field, title);
+				}
+			}
+		});
+	}
+
+	/**Hands a generation the stepper has finished to the event dispatch thread, and lets the next tick start**/
+	private void draw(final Field field, final String title) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				ticking = false;
+				appFrame.setTitle(title);
+				// A new game may have replaced the field meanwhile, and cleared the scene for it
+				if (title.equals(TITLE) && field == slices)
+					SceneDiff.apply(field, field.previous(), renderer);
+			}
+		});
+	}
+
+    /**
+     * Steps the field, on the stepper. Returns the window's title: TITLE if it stepped, else why not.
+     */
+	private String step(Field field) {
+        //a world that only repeats itself is paused: standalone once it cycles, on a ring once every peer agrees
+        int period;
+        if(p2p != null && p2p.isHalted())
+            period = p2p.getHaltedPeriod();
+        else if(p2p == null || p2p.getSuccessorID() == -1)
+            period = field.getPeriod();
+        else
+            period = 0;
+        if(period > 0)
+            return TITLE + " - steady, period " + period;
+        //on a ring, step in lockstep with the neighbours: wait for their halos of this generation, or try next tick
+        try {
+            if(p2p != null && !p2p.exchangeHalos(field, PAUSE_RATE / 2))
+                return TITLE + " - waiting for neighbours";
+        } catch (IOException e) {
+            return TITLE + " - could not reach neighbours";
         }
+        System.out.println("updating");
+		field.step();
+		return TITLE;
+	}
 
-		// Draw the slices for this field
-		for (int z = 0; z < DEFAULT_WORLD_SIZE; z++) {
-			for (int y = 0; y < DEFAULT_WORLD_SIZE; y++) {
-				for (int x = 0; x < DEFAULT_WORLD_SIZE; x++) {
-					Vector3f key = new Vector3f(x, y, z);
-                    BranchGroup cellGroup = cellMap.get(key);
-                    ColoringAttributes ca = coloringMap.get(key);
-					if (slices.getCell(x, y, z) > 0) {
-						// If the cell should be alive and is not already alive, cell is born
-						if (scene.indexOfChild(cellGroup) == -1) {
-							scene.addChild(cellGroup);
-						}
-                        if(slices.isInternalSlice(z))
-                            ca.setColor(mapLifeToColor(slices.getCell(x,y,z))); //color depends on life duration
-                        else
-                            ca.setColor(new Color3f(0,1,0));
-					} else {
-						// Otherwise, cell dies
-						cellGroup.detach();
-					}
-				}
+	/**Shows and hides the cells' nodes in the scene**/
+	private final SceneDiff.Renderer renderer = new SceneDiff.Renderer() {
+		public void show(int x, int y, int z, int age, boolean internal) {
+			Vector3f key = new Vector3f(x, y, z);
+			BranchGroup cellGroup = cellMap.get(key);
+			// If the cell should be alive and is not already alive, cell is born
+			if (scene.indexOfChild(cellGroup) == -1) {
+				scene.addChild(cellGroup);
 			}
+			ColoringAttributes ca = coloringMap.get(key);
+			if(internal)
+				ca.setColor(mapLifeToColor(age)); //color depends on life duration
+			else
+				ca.setColor(new Color3f(0,1,0));
 		}
-	}
+
+		public void hide(int x, int y, int z) {
+			// Otherwise, cell dies
+			cellMap.get(new Vector3f(x, y, z)).detach();
+		}
+	};
 
     /**
      * Maps a cell's lifespan to a color. For nodes we control.
@@ -168,12 +218,14 @@ public class GameofLife {
 		// Fix for background flickering on some platforms
 		System.setProperty("sun.awt.noerasebackground", "true");
 		
+		slices = new Field();
+
 		// Add a scaling transform that resizes the virtual world to fit
 		// within the standard view frustum.
 		BranchGroup trueScene = new BranchGroup();
 		TransformGroup worldScaleTG = new TransformGroup();
 		Transform3D t3D = new Transform3D();
-		t3D.setScale(.9 / DEFAULT_WORLD_SIZE);
+		t3D.setScale(.9 / Math.max(slices.getSliceCount(), Math.max(slices.getSizeX(), slices.getSizeY())));
 		worldScaleTG.setTransform(t3D);
 		trueScene.addChild(worldScaleTG);
 		scene = new BranchGroup();
@@ -208,9 +260,9 @@ public class GameofLife {
         appearanceMap = new HashMap<>();
         coloringMap = new HashMap<>();
 
-		for (int z = 0; z < DEFAULT_WORLD_SIZE; z++) {
-			for (int y = 0; y < DEFAULT_WORLD_SIZE; y++) {
-				for (int x = 0; x < DEFAULT_WORLD_SIZE; x++) {
+		for (int z = 0; z < slices.getSliceCount(); z++) {
+			for (int y = 0; y < slices.getSizeY(); y++) {
+				for (int x = 0; x < slices.getSizeX(); x++) {
 					TransformGroup sphereGroup = new TransformGroup();
 					Sphere sphere = new Sphere(0.3f);
                     Appearance appearance = new Appearance();
@@ -237,10 +289,10 @@ public class GameofLife {
 			}
 		}
 		
-		slices = new Field();
 		p2p = new Peer();
+		p2p.setCycleDetector(slices.getCycleDetector());
 
-		appFrame = new JFrame("Physics Demo");
+		appFrame = new JFrame(TITLE);
 		appFrame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         appFrame.add(canvas3D, BorderLayout.CENTER);
 		canvas3D.setPreferredSize(new Dimension(800,600));
@@ -373,10 +425,13 @@ public class GameofLife {
 					cellGroup.detach();
 				}
 
-                Field temp = new Field();
+                Field temp = new Field(slices.getSizeX(), slices.getSizeY(), slices.getSliceCount(), slices.getRule());
                 temp.setNext(slices.getNext());
                 temp.setPrev(slices.getPrev());
-				slices = new Field();
+				slices = new Field(slices.getSizeX(), slices.getSizeY(), slices.getSliceCount(), slices.getRule());
+				p2p.setCycleDetector(slices.getCycleDetector());
+				p2p.resume();
+				appFrame.setTitle(TITLE);
 			}
 		}
 	}
@@ -0,0 +1,48 @@
+package gui;
+
+import model.FieldView;
+
+/**
+ * Works out which cells to redraw after a step, by comparing the current generation with the previous one.
+ *
+ * Cells dead in both are skipped. Live cells are shown (again, since their age and so their colour changes every
+ * generation), and cells that died are hidden. What showing and hiding means is up to the Renderer, so the diff
+ * can run without a scene graph.
+ */
+public class SceneDiff {
+
+    /**Draws cells. GameofLife adds and removes Java3D nodes.**/
+    public interface Renderer {
+        /**
+         * A cell is alive.
+         * @param age ticks the cell has been on, 1 if ages are not tracked
+         * @param internal whether the cell's slice is managed by this field, rather than a halo
+         */
+        void show(int x, int y, int z, int age, boolean internal);
+
+        /**A cell that was alive has died**/
+        void hide(int x, int y, int z);
+    }
+
+    private SceneDiff() {}
+
+    /**
+     * Tells the renderer about every cell that is alive in current, or was in previous.
+     * @param previous the generation the renderer last drew, with the same dimensions as current
+     */
+    public static void apply(FieldView current, FieldView previous, Renderer renderer) {
+        for(int z = 0; z < current.getSliceCount(); z++) {
+            boolean internal = current.isInternalSlice(z);
+            for(int y = 0; y < current.getSizeY(); y++) {
+                for(int x = 0; x < current.getSizeX(); x++) {
+                    int cell = current.getCell(x, y, z);
+                    if(cell > 0)
+                        renderer.show(x, y, z, cell, internal);
+                    else if(previous.getCell(x, y, z) > 0)
+                        renderer.hide(x, y, z);
+                    //dead before and after, nothing to redraw
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package headless;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import chord.Peer;
+import model.Field;
+import model.GenerationStats;
+import model.Pattern;
+import model.Recorder;
+import model.Rule;
+import model.Slice;
+import model.Snapshot;
+
+/**
+ * Runs the simulation without Swing or Java3D, for machines with no display.
+ *
+ * Settings are key=value arguments (a leading -- is allowed), read in order, so later ones override earlier ones.
+ * config=file reads a properties file of the same keys at that point. See usage() for the keys.
+ *
+ * A world that starts cycling is not stepped for nothing: alone at full speed Field.advance skips whole periods of
+ * it, alone at a fixed rate the run stops, and on a ring the run stops once every peer agrees it cycles (see
+ * Peer.setCycleDetector). A recorded run steps one generation at a time, so every generation is in the journal.
+ * Ages are off unless asked for, since only the GUI shows them.
+ */
+public class Runner {
+    private final Properties config;
+
+    private Field field;
+    private Peer peer;
+
+    /**
+     * Main method.
+     * @param args key=value settings
+     */
+    public static void main(String[] args) {
+        Properties config;
+        try {
+            config = parse(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+            return;
+        }
+        if(config.containsKey("help")) {
+            System.out.println(usage());
+            return;
+        }
+        try {
+            new Runner(config).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getMessage() + ": " + e.getCause().getMessage());
+            System.exit(1);
+        } catch (IllegalStateException e) {
+            //a ring that could not be created or joined
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public Runner(Properties config) {
+        this.config = config;
+    }
+
+    /**Reads key=value arguments, and the properties files named by config=file, in order**/
+    static Properties parse(String[] args) throws IOException {
+        Properties config = new Properties();
+        for(String arg : args) {
+            String setting = arg.startsWith("--") ? arg.substring(2) : arg;
+            int eq = setting.indexOf('=');
+            if(setting.equals("help")) {
+                config.setProperty("help", "true");
+                continue;
+            }
+            if(eq < 1)
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            String key = setting.substring(0, eq);
+            String value = setting.substring(eq + 1);
+            if(key.equals("config")) {
+                try(Reader in = Files.newBufferedReader(Paths.get(value))) {
+                    config.load(in);
+                }
+            } else {
+                config.setProperty(key, value);
+            }
+        }
+        return config;
+    }
+
+    static String usage() {
+        return "Usage: java headless.Runner [key=value ...]\n"
+                + "  config=FILE         read settings from a properties file\n"
+                + "  generations=N       generations to run (1000)\n"
+                + "  rate=R              generations per second, 0 for as fast as possible (0)\n"
+                + "  size-x=N size-y=N   rows and columns in each slice (" + Slice.DEFAULT_SIZE + ")\n"
+                + "  slices=N            slices in the field (" + Field.DEFAULT_SLICE_COUNT + ")\n"
+                + "  rule=B../S..        birth/survival rule (the pattern's, else " + Rule.DEFAULT + ")\n"
+                + "  seed=N              seed for the starting cells, the same world for the same seed (random)\n"
+                + "  density=D           chance of each starting cell being on (" + Slice.CELL_ON_CHANCE + ")\n"
+                + "  first-slice=N       number of this field's slice 0 in the whole world, for seeding (0)\n"
+                + "  pattern=FILE        stamp a .cells pattern over the starting cells\n"
+                + "  pattern-at=X,Y,Z    where the pattern's corner goes (centred)\n"
+                + "  restore=FILE        start from a snapshot instead, at its generation, with its rule and size\n"
+                + "  save=FILE           save a snapshot of the field at the end\n"
+                + "  record=DIR          record every generation to a journal in DIR, for model.Replay\n"
+                + "  keyframe-every=K    generations between the journal's full snapshots ("
+                + Recorder.DEFAULT_KEYFRAME_INTERVAL + ")\n"
+                + "  kernel=NAME         SCALAR, PACKED, PLANE_SUM, VECTOR or SPARSE (PACKED)\n"
+                + "  parallelism=N       threads updating slices (1)\n"
+                + "  activity=BOOL       only recompute the changing part of the world (true)\n"
+                + "  ages=BOOL           keep cell ages, which only the GUI shows (false, or the snapshot's)\n"
+                + "  stats-every=N       print stats every N generations, 0 for only at the end (0)\n"
+                + "  stop-on-cycle=BOOL  stop once the world cycles, or the ring agrees it does (true)\n"
+                + "  create=ID|random    create a Chord ring with this peer in it\n"
+                + "  join=HOST[:PORT]    join the Chord ring of the peer at HOST\n"
+                + "  id=ID               chord ID to join with (random)";
+    }
+
+    /**Builds the field, joins the ring if asked, runs the generations and prints how it went**/
+    public void run() {
+        int generations = getInt("generations", 1000);
+        double rate = getDouble("rate", 0);
+        int statsEvery = getInt("stats-every", 0);
+        boolean stopOnCycle = getBoolean("stop-on-cycle", true);
+
+        field = buildField();
+        joinRing();
+        Recorder recorder = startRecording();
+
+        System.out.println("Running " + generations + " generations of " + field.getSizeX() + "x" + field.getSizeY()
+                + "x" + field.getSliceCount() + " " + field.getRule() + " with " + field.getKernel()
+                + (rate > 0 ? " at " + rate + "/s" : ""));
+        long start = System.nanoTime();
+        String stopped = null;
+        int done = 0;
+        while(done < generations) {
+            //alone at full speed, run up to the next stats line in one go, skipping cycles
+            int batch = 1;
+            if(peer == null && rate <= 0 && recorder == null)
+                batch = statsEvery > 0 ? Math.min(statsEvery - done % statsEvery, generations - done) : generations - done;
+
+            if(peer != null && peer.isHalted()) {
+                stopped = "ring agreed the world cycles with period " + peer.getHaltedPeriod();
+                break;
+            }
+            if(stopOnCycle && peer == null && rate > 0 && field.getPeriod() > 0) {
+                stopped = "world cycles with period " + field.getPeriod();
+                break;
+            }
+
+            //step on in lockstep with the neighbours, never on halos from another generation
+            if(peer != null && !exchangeHalos())
+                continue;
+            if(batch > 1)
+                field.advance(batch);
+            else
+                field.step();
+            done += batch;
+            if(recorder != null)
+                recorder.record(field);
+
+            if(statsEvery > 0 && done % statsEvery == 0)
+                System.out.println(field.getStats());
+            if(rate > 0)
+                waitForTick(start, done, rate);
+        }
+        long elapsed = System.nanoTime() - start;
+        report(done, elapsed, stopped);
+
+        if(recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not record to " + config.getProperty("record"), e);
+            }
+            System.out.println("Recorded to " + config.getProperty("record")
+                    + (recorder.getDropped() > 0 ? ", dropping " + recorder.getDropped() + " generations" : ""));
+        }
+
+        String save = config.getProperty("save");
+        if(save != null) {
+            try {
+                Snapshot.write(field, Paths.get(save));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not save " + save, e);
+            }
+            System.out.println("Saved generation " + field.getVersion() + " to " + save);
+        }
+
+        if(peer != null)
+            peer.disconnectFromNetwork();
+    }
+
+    /**Exchanges halos with the neighbours for the next step, saying what is wrong if they are not all in**/
+    private boolean exchangeHalos() {
+        try {
+            if(peer.exchangeHalos(field))
+                return true;
+            System.out.println("Waiting for the neighbours' halos of generation " + field.getVersion());
+        } catch (IOException e) {
+            System.out.println("Could not send the halos of generation " + field.getVersion() + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**The starting field: seeded cells if there is a seed, random ones if not, and the pattern if there is one**/
+    private Field buildField() {
+        Pattern pattern = null;
+        String patternFile = config.getProperty("pattern");
+        if(patternFile != null) {
+            try {
+                pattern = Pattern.read(Paths.get(patternFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read pattern " + patternFile, e);
+            }
+        }
+        Rule rule = pattern != null && pattern.getRule() != null ? pattern.getRule() : Rule.DEFAULT;
+        if(config.containsKey("rule"))
+            rule = Rule.parse(config.getProperty("rule"));
+
+        int sizeX = getInt("size-x", Slice.DEFAULT_SIZE);
+        int sizeY = getInt("size-y", Slice.DEFAULT_SIZE);
+        int sliceCount = getInt("slices", Field.DEFAULT_SLICE_COUNT);
+        Field field;
+        String restore = config.getProperty("restore");
+        if(restore != null) {
+            try {
+                field = Snapshot.read(Paths.get(restore));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not restore " + restore, e);
+            }
+            //the snapshot's rule, unless told otherwise
+            if(config.containsKey("rule"))
+                field.setRule(rule);
+            System.out.println("Restored generation " + field.getVersion() + " from " + restore);
+        } else if(config.containsKey("seed")) {
+            field = new Field(sizeX, sizeY, sliceCount, rule, getBoolean("ages", false));
+            field.setParallelism(getInt("parallelism", 1));
+            field.seed(Long.parseLong(config.getProperty("seed").trim()), getDouble("density", Slice.CELL_ON_CHANCE),
+                    getInt("first-slice", 0));
+        } else {
+            field = new Field(sizeX, sizeY, sliceCount, rule);
+        }
+        field.setKernel(Field.Kernel.valueOf(config.getProperty("kernel", "PACKED").toUpperCase()));
+        field.setParallelism(getInt("parallelism", 1));
+        field.setActivityTracking(getBoolean("activity", true));
+        field.setAgeTracking(getBoolean("ages", restore != null && field.isAgeTracking()));
+
+        if(pattern != null) {
+            String at = config.getProperty("pattern-at");
+            if(at == null) {
+                pattern.stampCentred(field);
+            } else {
+                String[] xyz = at.split(",");
+                if(xyz.length != 3)
+                    throw new IllegalArgumentException("pattern-at needs X,Y,Z, got " + at);
+                pattern.stamp(field, Integer.parseInt(xyz[0].trim()), Integer.parseInt(xyz[1].trim()),
+                        Integer.parseInt(xyz[2].trim()));
+            }
+            System.out.println("Stamped " + pattern);
+        }
+        return field;
+    }
+
+    /**Starts recording the run, from the starting generation, if the config says to**/
+    private Recorder startRecording() {
+        String record = config.getProperty("record");
+        if(record == null)
+            return null;
+        Recorder recorder;
+        try {
+            recorder = new Recorder(Paths.get(record), getInt("keyframe-every", Recorder.DEFAULT_KEYFRAME_INTERVAL),
+                    Recorder.DEFAULT_QUEUE_CAPACITY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not record to " + record, e);
+        }
+        recorder.record(field);
+        return recorder;
+    }
+
+    /**Creates or joins a ring if the config says to**/
+    private void joinRing() {
+        String create = config.getProperty("create");
+        String join = config.getProperty("join");
+        if(create == null && join == null)
+            return;
+        peer = new Peer();
+        peer.setCycleDetector(getBoolean("stop-on-cycle", true) ? field.getCycleDetector() : null);
+        boolean joined;
+        if(create != null) {
+            joined = create.equals("random") ? peer.createNetwork() : peer.createNetwork(Long.parseLong(create));
+        } else {
+            String host = join;
+            int port = Peer.DEFAULT_SERVER_PORT;
+            int colon = join.lastIndexOf(':');
+            if(colon >= 0) {
+                host = join.substring(0, colon);
+                port = Integer.parseInt(join.substring(colon + 1));
+            }
+            String id = config.getProperty("id");
+            joined = id == null ? peer.connectToNetwork(host, port) : peer.connectToNetwork(host, port, Long.parseLong(id));
+        }
+        if(!joined)
+            throw new IllegalStateException(create != null ? "Could not create the Chord ring"
+                    : "Could not join the Chord ring at " + join);
+        System.out.println("Joined the ring: predecessor " + peer.getPredecessorID() + ", successor " + peer.getSuccessorID());
+    }
+
+    /**Sleeps until generation done is due, at rate generations a second from start**/
+    private static void waitForTick(long start, int done, double rate) {
+        long due = start + (long) (done * 1e9 / rate);
+        long wait = due - System.nanoTime();
+        if(wait <= 0)
+            return;
+        try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void report(int generations, long elapsed, String stopped) {
+        double seconds = elapsed / 1e9;
+        long cells = (long) field.getSizeX() * field.getSizeY() * field.getSliceCount();
+        GenerationStats stats = field.getStats();
+        if(stopped != null)
+            System.out.println("Stopped early: " + stopped);
+        System.out.println(String.format("%d generations in %.3f s: %.1f generations/s, %.3g cells/s",
+                generations, seconds, generations / seconds, generations * (double) cells / seconds));
+        System.out.println(stats);
+        System.out.println("Tiles skipped by the last step: " + field.getSkippedTiles() + " of " + field.getTileCount());
+        if(field.getPeriod() > 0)
+            System.out.println("The world cycles with period " + field.getPeriod());
+    }
+
+    private int getInt(String key, int defaultValue) {
+        String value = config.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private double getDouble(String key, double defaultValue) {
+        String value = config.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = config.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
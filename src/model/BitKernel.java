@@ -0,0 +1,150 @@
+package model;
+
+/**
+ * Bit-parallel update kernel for packed slices.
+ *
+ * A slice is packed as one bit per cell: row x occupies words [x*wordsPerRow, (x+1)*wordsPerRow),
+ * and bit (y % 64) of word (y / 64) of that row is cell [x][y]. Bits past the row width are always 0.
+ *
+ * Neighbour counts for a whole word of cells are summed at once into five bit planes (counts 0-26),
+ * which are then matched against the birth/survival masks. The planes are fields of the kernel, so a kernel is
+ * kept and reused by whatever it steps (see Slice.counter) rather than made per call. One kernel steps one
+ * slice at a time.
+ */
+final class BitKernel {
+
+    BitKernel() {}
+
+    /**Number of longs needed to hold one row of the given width**/
+    static int wordsPerRow(int width) {
+        return (width + 63) >>> 6;
+    }
+
+    /**Mask of the valid bits in the last word of a row**/
+    static long lastWordMask(int width) {
+        int rem = width & 63;
+        return rem == 0 ? -1L : (1L << rem) - 1;
+    }
+
+    /**Bit-sliced neighbour counter, c0 is the ones plane**/
+    private long c0, c1, c2, c3, c4;
+
+    /**
+     * Computes the next liveness of a whole slice.
+     * @param below packed slice "below"
+     * @param mid packed slice being updated
+     * @param above packed slice "above"
+     * @param out where the next liveness is written. Must not alias the inputs.
+     * @param height number of rows (first cell index)
+     * @param width number of cells per row (second cell index)
+     * @param birthMask bit n set if a dead cell with n neighbours is born
+     * @param surviveMask bit n set if a live cell with n neighbours stays alive
+     */
+    void step(long[] below, long[] mid, long[] above, long[] out,
+              int height, int width, int birthMask, int surviveMask) {
+        stepRows(below, mid, above, out, height, width, birthMask, surviveMask, 0, height);
+    }
+
+    /**
+     * Computes the next liveness of rows [from, to) of a slice. Other rows of out are left alone.
+     * @see #step
+     */
+    void stepRows(long[] below, long[] mid, long[] above, long[] out,
+                  int height, int width, int birthMask, int surviveMask, int from, int to) {
+        int wpr = wordsPerRow(width);
+        for(int x = from; x < to; x++) {
+            int prev = ((x + height - 1) % height) * wpr;
+            int cur = x * wpr;
+            int next = ((x + 1) % height) * wpr;
+            for(int k = 0; k < wpr; k++) {
+                out[cur + k] = stepWord(below, mid, above, prev, cur, next, k, wpr, width, birthMask, surviveMask);
+            }
+        }
+    }
+
+    /**Next liveness of word k of the row at offset cur.**/
+    long stepWord(long[] below, long[] mid, long[] above, int prev, int cur, int next, int k,
+                  int wpr, int width, int birthMask, int surviveMask) {
+        c0 = c1 = c2 = c3 = c4 = 0;
+
+        //below
+        addRow(below, prev, k, wpr, width, true);
+        addRow(below, cur, k, wpr, width, true);
+        addRow(below, next, k, wpr, width, true);
+
+        //in-line, the current cell does not count as adjacent
+        addRow(mid, prev, k, wpr, width, true);
+        addRow(mid, cur, k, wpr, width, false);
+        addRow(mid, next, k, wpr, width, true);
+
+        //above
+        addRow(above, prev, k, wpr, width, true);
+        addRow(above, cur, k, wpr, width, true);
+        addRow(above, next, k, wpr, width, true);
+
+        long alive = mid[cur + k];
+        long born = matchAny(birthMask, c0, c1, c2, c3, c4);
+        long survive = matchAny(surviveMask, c0, c1, c2, c3, c4);
+        long result = (~alive & born) | (alive & survive);
+        return k == wpr - 1 ? result & lastWordMask(width) : result;
+    }
+
+    /**Adds the west, (optionally) centre and east neighbours from one row**/
+    private void addRow(long[] p, int off, int k, int wpr, int width, boolean centre) {
+        add(west(p, off, k, wpr, width));
+        if(centre)
+            add(p[off + k]);
+        add(east(p, off, k, wpr, width));
+    }
+
+    /**Adds a one bit plane to the counter**/
+    private void add(long a) {
+        long carry = c0 & a; c0 ^= a;
+        a = carry; carry = c1 & a; c1 ^= a;
+        a = carry; carry = c2 & a; c2 ^= a;
+        a = carry; carry = c3 & a; c3 ^= a;
+        c4 |= carry;
+    }
+
+    /**Bits whose count (given as bit planes) is one of the counts set in mask**/
+    static long matchAny(int mask, long c0, long c1, long c2, long c3, long c4) {
+        long match = 0;
+        while(mask != 0) {
+            int n = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            long eq = ((n & 1) != 0 ? c0 : ~c0)
+                    & ((n & 2) != 0 ? c1 : ~c1)
+                    & ((n & 4) != 0 ? c2 : ~c2)
+                    & ((n & 8) != 0 ? c3 : ~c3)
+                    & ((n & 16) != 0 ? c4 : ~c4);
+            match |= eq;
+        }
+        return match;
+    }
+
+    /**Word k of the row at off, shifted so that bit y holds cell y-1 (wrapping)**/
+    static long west(long[] p, int off, int k, int wpr, int width) {
+        long carry;
+        if(k > 0)
+            carry = p[off + k - 1] >>> 63;
+        else
+            carry = (p[off + wpr - 1] >>> ((width - 1) & 63)) & 1;
+        long w = (p[off + k] << 1) | carry;
+        return k == wpr - 1 ? w & lastWordMask(width) : w;
+    }
+
+    /**Word k of the row at off, shifted so that bit y holds cell y+1 (wrapping)**/
+    static long east(long[] p, int off, int k, int wpr, int width) {
+        long carry;
+        if(k < wpr - 1)
+            carry = p[off + k + 1] << 63;
+        else
+            carry = (p[off] & 1) << ((width - 1) & 63);
+        return (p[off + k] >>> 1) | carry;
+    }
+
+    /**Whether cell [x][y] is set in a packed slice**/
+    static boolean get(long[] bits, int x, int y, int width) {
+        return ((bits[x * wordsPerRow(width) + (y >>> 6)] >>> (y & 63)) & 1) != 0;
+    }
+}
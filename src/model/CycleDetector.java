@@ -0,0 +1,127 @@
+package model;
+
+/**
+ * Spots a world repeating itself, from the hashes of its most recent generations.
+ *
+ * A generation with the same hash as an earlier one has the same cells, so from then on the world cycles with the
+ * difference between the two as its period: 1 for a still life, 2 for a blinker and so on. A repeat is only seen
+ * while the earlier generation is still in the history. If generations were skipped between records, the period
+ * found can be a multiple of the shortest one. Hashes are 64 bits, so two different worlds are taken for one with
+ * negligible odds.
+ *
+ * Methods are synchronized, so a peer can ask about cycles while the field steps.
+ */
+public final class CycleDetector {
+    /**Generations a Field remembers unless told otherwise**/
+    public static final int DEFAULT_HISTORY = 64;
+
+    /**The last generations recorded and their hashes, oldest first from head once full**/
+    private final int[] generations;
+    private final long[] hashes;
+    private int count = 0;
+    private int head = 0;
+    /**The period of the cycle the latest generation is in, 0 if none was seen**/
+    private int period = 0;
+
+    /**
+     * @param history how many generations to remember, which is the longest period that can be seen
+     */
+    public CycleDetector(int history) {
+        if(history < 1)
+            throw new IllegalArgumentException("A cycle detector needs a history of at least 1");
+        this.generations = new int[history];
+        this.hashes = new long[history];
+    }
+
+    /**Copy constructor**/
+    CycleDetector(CycleDetector other) {
+        synchronized(other) {
+            this.generations = other.generations.clone();
+            this.hashes = other.hashes.clone();
+            this.count = other.count;
+            this.head = other.head;
+            this.period = other.period;
+        }
+    }
+
+    /**
+     * Records the hash of a generation. Generations should be recorded in increasing order; going back to an earlier
+     * one starts over, as for a new world.
+     * @return the period of the cycle the world is in, 0 if it did not repeat within the history
+     */
+    public synchronized int record(int generation, long hash) {
+        if(count > 0 && generation <= getGeneration())
+            reset();
+        //the most recent match is the shortest period
+        period = 0;
+        for(int i = 1; i <= count; i++) {
+            int at = index(count - i);
+            if(hashes[at] == hash) {
+                period = generation - generations[at];
+                break;
+            }
+        }
+        int at;
+        if(count < generations.length) {
+            at = index(count);
+            count++;
+        } else {
+            //full, so overwrite the oldest
+            at = head;
+            head = (head + 1) % generations.length;
+        }
+        generations[at] = generation;
+        hashes[at] = hash;
+        return period;
+    }
+
+    /**Slot of the i-th oldest recorded generation**/
+    private int index(int i) {
+        return (head + i) % generations.length;
+    }
+
+    /**The period of the cycle the latest generation recorded is in, 0 if it did not repeat within the history**/
+    public synchronized int getPeriod() {
+        return period;
+    }
+
+    /**The latest generation recorded, -1 if none has been**/
+    public synchronized int getGeneration() {
+        return count > 0 ? generations[index(count - 1)] : -1;
+    }
+
+    /**
+     * Does the latest generation recorded have the same hash as the one the given number of generations before it?
+     * @return false if that generation was not recorded
+     */
+    public synchronized boolean repeats(int generations) {
+        if(count == 0 || generations < 1)
+            return false;
+        int latest = index(count - 1);
+        int target = this.generations[latest] - generations;
+        for(int i = 0; i < count; i++) {
+            int at = index(i);
+            if(this.generations[at] == target)
+                return hashes[at] == hashes[latest];
+        }
+        return false;
+    }
+
+    /**Moves every recorded generation on, for a world that skipped ahead a whole number of periods**/
+    synchronized void skip(int generations) {
+        for(int i = 0; i < count; i++)
+            this.generations[index(i)] += generations;
+    }
+
+    /**Forgets every generation recorded**/
+    public synchronized void reset() {
+        count = 0;
+        head = 0;
+        period = 0;
+    }
+
+    /**How many generations are remembered**/
+    public int getHistory() {
+        return generations.length;
+    }
+}
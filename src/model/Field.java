@@ -1,132 +1,900 @@
-package model;
-
-import chord.Peer;
-
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
-/**
- * The game field.
- */
-public class Field {
-	
-    public static int SLICE_COUNT = 16;
-
-    /**Map of Slice# to Slice data */
-    public Map<Integer, Slice> slices = new HashMap<Integer,Slice>();
-    Slice previous = null;
-    Slice next = null;
-
-    public int version = -1;
-
-    public Field() {
-        for(int i = 0; i < SLICE_COUNT; i++) {
-            slices.put(i,new Slice(i,0));
-        }
-        this.version = 0;
-    }
-    
-    public Field(int size) {
-    	SLICE_COUNT = size;
-    	for(int i = 0; i < SLICE_COUNT; i++) {
-    		slices.put(i,new Slice(i,0));
-    	}
-    	this.version = 0;
-    }
-
-    public Field(Field other) {
-        this.version = other.version;
-    }
-
-    /**
-     * The slices this Field manages.
-     */
-    public Map<Integer,Slice> internalSlices() {
-        return slices;
-    }
-
-    /**
-     * Get the state of a cell
-     *
-     * @param x first coord in slice
-     * @param y second coord in slice
-     * @param z slice number
-     * @return -1 if not found, 0 if off, 1+ if on (ticks spent on)
-     */
-    public int getCell( int x , int y , int z ) {
-        Slice slice = getSlice(z);
-        if(slice != null)
-            return slice.cells[x][y];
-        else
-            return -1;
-    }
-
-    /**
-     * Get the specified slice
-     * @param slice_num
-     * @return null if the slice was not found, the slice otherwise. Slice may not be managed by this Field.
-     */
-    public Slice getSlice(int slice_num) {
-        //if too low, return the previous slice (wrapping)
-        if(slice_num < 0 && previous != null)
-            return previous;
-        else if(slice_num < 0)
-            slice_num = (slice_num + SLICE_COUNT);
-
-        //if too high, return the next slice (wrapping)
-        if(slice_num >= SLICE_COUNT && next != null)
-            return next;
-
-        slice_num = slice_num % SLICE_COUNT;
-
-        if(slices.containsKey(slice_num))
-            return slices.get(slice_num);
-        else
-            return null;
-    }
-
-    /**
-     * Updates the field to the next version. Does not modify original.
-     * @return The updated field.
-     */
-    public Field updateToCopy() {
-        Field field = new Field(this);
-        field.version = this.version + 1; //returning next version
-
-        for(Slice slice : this.slices.values()) {
-            Slice prev = getSlice(slice.number - 1);
-            Slice next = getSlice(slice.number + 1);
-            if(prev == null || next == null)
-                throw new IllegalStateException("Not all required slices were present.");
-            field.slices.put(slice.number,slice.updateToCopy(prev, next));
-        }
-
-        return field;
-    }
-
-    /**
-     * Is the passed slice_num an internally managed slice?
-     */
-    public boolean isInternalSlice(int slice_num) {
-        return internalSlices().containsKey(slice_num);
-    }
-
-    public void setNext(Slice next) {
-        this.next = next;
-    }
-
-    public void setPrev(Slice prev) {
-        this.previous = prev;
-    }
-
-    public Slice getPrev() {
-        return previous;
-    }
-
-
-    public Slice getNext() {
-        return next;
-    }
-}
+package model;
+
+import chord.Peer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The game field.
+ *
+ * A Field can be stepped either by updateToCopy, which returns a new Field, or in place by step,
+ * which double-buffers the slices and leaves the previous generation readable through previous().
+ */
+public class Field implements FieldView {
+	
+    /**The number of slices a Field has unless given**/
+    public static final int DEFAULT_SLICE_COUNT = 16;
+
+    /**The number of rows and columns in each slice, and the number of slices**/
+    final int sizeX;
+    final int sizeY;
+    final int sliceCount;
+
+    /**Map of Slice# to Slice data */
+    public Map<Integer, Slice> slices = new HashMap<Integer,Slice>();
+    Slice previous = null;
+    Slice next = null;
+
+    /**Buffers for in-place stepping. Hold the previous generation after a step, null until the first step.**/
+    Map<Integer, Slice> spare = null;
+    /**The halos the previous generation was computed with**/
+    Slice spare_previous = null;
+    Slice spare_next = null;
+
+    public int version = -1;
+
+    /**The update kernels a Field can step its slices with. All give identical results.**/
+    public enum Kernel {
+        /**One cell at a time, via Slice.getAdjacent**/
+        SCALAR,
+        /**A row word at a time, on the packed liveness bits**/
+        PACKED,
+        /**From each slice's 3x3 box sums, computed once per generation and shared by the slices either side**/
+        PLANE_SUM,
+        /**
+         * A vector of cells at a time with the jdk.incubator.vector API (run with --add-modules jdk.incubator.vector).
+         * Falls back to SCALAR when the module is not loaded.
+         */
+        VECTOR,
+        /**
+         * Per slice: around live cells only while a slice and its neighbours are sparse, so the cost follows the
+         * population, and PACKED once they fill up. Each slice switches on its own measured density.
+         */
+        SPARSE;
+
+        /**Can this kernel run in this JVM, rather than falling back?**/
+        public boolean isAvailable() {
+            return this != VECTOR || VECTOR_MODULE;
+        }
+
+        private static final boolean VECTOR_MODULE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    /**The kernel used by updateToCopy and step**/
+    Kernel kernel = Kernel.PACKED;
+
+    /**The birth/survival rule this Field runs**/
+    Rule rule = Rule.DEFAULT;
+
+    /**How many threads update slices at once. 1 updates them on the calling thread.**/
+    int parallelism = 1;
+    /**How many slabs each thread gets, so uneven slabs can be balanced by work stealing**/
+    private static final int SLABS_PER_THREAD = 4;
+    /**Most generations one blocked pass of advance computes before the slices are written back**/
+    private static final int MAX_BLOCK_DEPTH = 8;
+    /**Bytes of intermediate slices a blocked pass tries to keep in cache, per thread**/
+    private static final int BLOCK_CACHE_BYTES = 256 * 1024;
+    /**Fork/join pools by parallelism level, shared by all Fields**/
+    private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>();
+
+    /**Only recompute the tiles of each slice that can have changed since the last generation**/
+    boolean activityTracking = true;
+    /**Do the slices keep the ages of their cells? Only the GUI shows ages.**/
+    boolean ageTracking = true;
+    /**Slices and tiles copied rather than recomputed by the step that produced this generation**/
+    int skippedSlices = 0;
+    int skippedTiles = 0;
+    /**Counts for this generation, gathered by the update that produced it. Null until asked for if it wasn't.**/
+    GenerationStats stats = null;
+    /**Zobrist hash of the live cells (see WorldHash), kept up to date from the cells each step changes. Valid if hashKnown.**/
+    long hash = 0;
+    boolean hashKnown = false;
+    /**Counts the times the cells were changed other than by stepping (see cellsChanged)**/
+    int edits = 0;
+    /**The hashes of recent generations, to spot the world cycling. Null if not looked for.**/
+    CycleDetector cycles = new CycleDetector(CycleDetector.DEFAULT_HISTORY);
+    /**Counters for the step in progress, shared by the slab tasks**/
+    private final AtomicInteger skippingSlices = new AtomicInteger();
+    private final AtomicInteger skippingTiles = new AtomicInteger();
+
+    public Field() {
+        this(DEFAULT_SLICE_COUNT);
+    }
+    
+    public Field(int size) {
+    	this(Slice.DEFAULT_SIZE, Slice.DEFAULT_SIZE, size, Rule.DEFAULT);
+    }
+
+    public Field(int size, Rule rule) {
+        this(Slice.DEFAULT_SIZE, Slice.DEFAULT_SIZE, size, rule);
+    }
+
+    /**
+     * Construct with random cells.
+     * @param sizeX rows in each slice (first coord)
+     * @param sizeY columns in each slice (second coord)
+     * @param sliceCount number of slices (third coord)
+     * @param rule the birth/survival rule to run
+     */
+    public Field(int sizeX, int sizeY, int sliceCount, Rule rule) {
+        if(sliceCount < 1)
+            throw new IllegalArgumentException("A field needs at least one slice");
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sliceCount = sliceCount;
+        this.rule = rule;
+        for(int i = 0; i < sliceCount; i++) {
+            slices.put(i,new Slice(i,0,sizeX,sizeY));
+        }
+        this.version = 0;
+    }
+
+    /**
+     * Construct with seeded random cells, the same for the same seed whatever the parallelism. See seed.
+     * @param density the chance of each cell being on, e.g. Slice.CELL_ON_CHANCE
+     */
+    public Field(int sizeX, int sizeY, int sliceCount, Rule rule, long seed, double density) {
+        this(sizeX, sizeY, sliceCount, rule, true);
+        seed(seed, density, 0);
+    }
+
+    /**
+     * Construct with every cell off, at version 0, e.g. to seed or stamp patterns into.
+     * @param ageTracking whether the slices keep the ages of their cells (see setAgeTracking)
+     */
+    public Field(int sizeX, int sizeY, int sliceCount, Rule rule, boolean ageTracking) {
+        if(sliceCount < 1)
+            throw new IllegalArgumentException("A field needs at least one slice");
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sliceCount = sliceCount;
+        this.rule = rule;
+        this.ageTracking = ageTracking;
+        for(int i = 0; i < sliceCount; i++)
+            slices.put(i, new Slice(i, 0, sizeX, sizeY, false, ageTracking));
+        this.version = 0;
+    }
+
+    /**Copy constructor. Copies the slices and keeps the same halos.**/
+    public Field(Field other) {
+        this(other, new HashMap<Integer,Slice>());
+        for(Slice slice : other.slices.values())
+            this.slices.put(slice.number, new Slice(slice));
+        this.previous = other.previous;
+        this.next = other.next;
+        this.stats = other.stats;
+        this.hash = other.hash;
+        this.hashKnown = other.hashKnown;
+    }
+
+    /**Copies the settings of other, but not its slices or halos**/
+    private Field(Field other, Map<Integer,Slice> slices) {
+        this.slices = slices;
+        this.sizeX = other.sizeX;
+        this.sizeY = other.sizeY;
+        this.sliceCount = other.sliceCount;
+        this.version = other.version;
+        this.kernel = other.kernel;
+        this.rule = other.rule;
+        this.parallelism = other.parallelism;
+        this.activityTracking = other.activityTracking;
+        this.ageTracking = other.ageTracking;
+        this.cycles = other.cycles != null ? new CycleDetector(other.cycles) : null;
+    }
+
+    /**
+     * The slices this Field manages.
+     */
+    public Map<Integer,Slice> internalSlices() {
+        return slices;
+    }
+
+    /**
+     * Get the state of a cell
+     *
+     * @param x first coord in slice
+     * @param y second coord in slice
+     * @param z slice number
+     * @return -1 if not found, 0 if off, 1+ if on (ticks spent on)
+     */
+    public int getCell( int x , int y , int z ) {
+        Slice slice = getSlice(z);
+        if(slice != null)
+            return slice.getCell(x, y);
+        else
+            return -1;
+    }
+
+    /**
+     * Get the specified slice
+     * @param slice_num
+     * @return null if the slice was not found, the slice otherwise. Slice may not be managed by this Field.
+     */
+    public Slice getSlice(int slice_num) {
+        return lookup(slices, previous, next, slice_num);
+    }
+
+    /**Slice lookup with wrapping, over either generation**/
+    private Slice lookup(Map<Integer,Slice> slices, Slice previous, Slice next, int slice_num) {
+        //if too low, return the previous slice (wrapping)
+        if(slice_num < 0 && previous != null)
+            return previous;
+        else if(slice_num < 0)
+            slice_num = (slice_num + sliceCount);
+
+        //if too high, return the next slice (wrapping)
+        if(slice_num >= sliceCount && next != null)
+            return next;
+
+        slice_num = slice_num % sliceCount;
+
+        if(slices.containsKey(slice_num))
+            return slices.get(slice_num);
+        else
+            return null;
+    }
+
+    /**
+     * Updates the field to the next version. Does not modify original.
+     * @return The updated field.
+     */
+    public Field updateToCopy() {
+        Field field = new Field(this, new HashMap<Integer,Slice>());
+        field.version = this.version + 1; //returning next version
+
+        Slice[] sources = slices.values().toArray(new Slice[slices.size()]);
+        Slice[] targets = new Slice[sources.length];
+        for(int i = 0; i < sources.length; i++)
+            targets[i] = sources[i].emptyLike();
+        updateAll(sources, targets);
+        for(Slice slice : targets)
+            field.slices.put(slice.number, slice);
+        field.skippedSlices = skippingSlices.get();
+        field.skippedTiles = skippingTiles.get();
+        field.stats = GenerationStats.of(field.version, field.slices.values());
+        field.hash = this.hash ^ field.stats.hashChange;
+        field.hashKnown = this.hashKnown;
+        field.recordCycle();
+
+        return field;
+    }
+
+    /**
+     * Updates the field to the next version in place. Reuses the slice buffers from the generation
+     * before, so stepping does not allocate once the buffers exist. The generation that was current
+     * before the call stays readable through previous() until the next step.
+     */
+    public void step() {
+        if(spare == null) {
+            spare = new HashMap<Integer,Slice>();
+            for(Slice slice : slices.values())
+                spare.put(slice.number, new Slice(slice));
+        }
+        reclaimSpare();
+
+        Slice[] sources = slices.values().toArray(new Slice[slices.size()]);
+        Slice[] targets = new Slice[sources.length];
+        for(int i = 0; i < sources.length; i++)
+            targets[i] = spare.get(sources[i].number);
+        updateAll(sources, targets);
+        skippedSlices = skippingSlices.get();
+        skippedTiles = skippingTiles.get();
+
+        //swap buffers
+        Map<Integer,Slice> current = spare;
+        spare = slices;
+        slices = current;
+        spare_previous = previous;
+        spare_next = next;
+        version++;
+        stats = GenerationStats.of(version, slices.values());
+        hash ^= stats.hashChange;
+        recordCycle();
+    }
+
+    /**Replaces the spare buffers still lent out (see lend) with new ones, so the step about to fill them doesn't**/
+    private void reclaimSpare() {
+        for(Map.Entry<Integer,Slice> entry : spare.entrySet())
+            if(entry.getValue().isLent())
+                entry.setValue(entry.getValue().emptyLike());
+    }
+
+    /**
+     * A field holding this one's current slices rather than copies, for a reader on another thread such as a
+     * Recorder's writer, and the current version, rule and halos. The slices are lent until the reader releases
+     * each of them: stepping past them gives this field new buffers rather than writing into them, so lending
+     * costs nothing but an allocation when the reader is still busy two steps on. Cells edited in place while
+     * lent are seen by the reader.
+     */
+    Field lend() {
+        Field lent = new Field(this, new HashMap<Integer,Slice>(slices));
+        lent.previous = previous;
+        lent.next = next;
+        lent.cycles = null;
+        for(Slice slice : slices.values())
+            slice.lend();
+        return lent;
+    }
+
+    /**
+     * Advances the field the given number of generations in place. The result, halos used and previous() are the
+     * same as calling step() that many times, but all but the last generation are computed in temporally blocked
+     * passes: each pass sweeps along z and carries every slice through several generations while its neighbours
+     * are still in cache, instead of streaming the whole world through cache once per generation.
+     *
+     * A pass over slices [from, to) for d generations computes generation k on the slices d - k either side
+     * as well (wrapping), since those are what generation k + 1 of the edge slices depends on. The slices beyond
+     * the halos of a field with halos are never needed: the halos stand for every generation, as with step().
+     * With parallelism above 1 the slices are split into one range per thread, each with its own border.
+     * @param generations how many generations to advance, at least 0
+     */
+    public void advance(int generations) {
+        if(generations < 0)
+            throw new IllegalArgumentException("Cannot advance a negative number of generations");
+        int period = getPeriod();
+        if(period > 0 && previous == null && next == null && generations > period) {
+            //whole periods change nothing but the ages, again leaving the last generation to step
+            int skip = (generations - 1) / period * period;
+            for(Slice slice : slices.values())
+                slice.skipCycles(skip, period);
+            version += skip;
+            cycles.skip(skip);
+            generations -= skip;
+        }
+        int chunks = Math.min(parallelism, sliceCount);
+        //the last generation goes through step so that previous() holds the one before it
+        while(generations > 1) {
+            int depth = Math.min(generations - 1, blockDepth(sliceCount / chunks));
+            if(depth < 2)
+                break;
+            advanceBlocked(depth, chunks);
+            generations -= depth;
+        }
+        for(int i = 0; i < generations; i++)
+            step();
+    }
+
+    /**
+     * How many generations a blocked pass over ranges of this many slices should compute: as many as keep each
+     * level's three slices in cache, and few enough that the border recomputed at each end stays a small part.
+     */
+    private int blockDepth(int rangeSlices) {
+        Slice slice = slices.get(0);
+        long sliceBytes = 8L * slice.bits.length + (slice.ages != null ? slice.ages.length : 0);
+        long fit = BLOCK_CACHE_BYTES / (3 * sliceBytes);
+        return (int) Math.min(MAX_BLOCK_DEPTH, Math.min(fit, rangeSlices / 4));
+    }
+
+    /**Advances depth generations in one blocked pass, into the spare buffers, then swaps them in**/
+    private void advanceBlocked(int depth, int chunks) {
+        if(spare == null) {
+            spare = new HashMap<Integer,Slice>();
+            for(Slice slice : slices.values())
+                spare.put(slice.number, new Slice(slice));
+        }
+        reclaimSpare();
+        Slice[] sources = slices.values().toArray(new Slice[slices.size()]);
+        if(previous != null)
+            previous.prepare(kernel);
+        if(next != null)
+            next.prepare(kernel);
+        runSlabs(sources, null, true);
+
+        skippingSlices.set(0);
+        skippingTiles.set(0);
+        if(chunks > 1) {
+            BlockTask[] tasks = new BlockTask[chunks];
+            for(int c = 0; c < chunks; c++)
+                tasks[c] = new BlockTask(c * sliceCount / chunks, (c + 1) * sliceCount / chunks, depth);
+            pool(parallelism).invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            advanceRange(0, sliceCount, depth);
+        }
+        skippedSlices = skippingSlices.get();
+        skippedTiles = skippingTiles.get();
+
+        Map<Integer,Slice> current = spare;
+        spare = slices;
+        slices = current;
+        spare_previous = previous;
+        spare_next = next;
+        version += depth;
+        stats = GenerationStats.of(version, slices.values());
+        //the stats only cover the pass's last generation, so hash the cells again when asked
+        hashKnown = false;
+        recordCycle();
+    }
+
+    /**
+     * Computes slices [from, to) depth generations on into the spare buffers, sweeping along z. Generation k
+     * of slice i is computed once generation k - 1 of slice i + 1 is, and only the last three slices of each
+     * generation are kept.
+     */
+    private void advanceRange(int from, int to, int depth) {
+        boolean halos = previous != null || next != null;
+        //generations 1 to depth - 1, three slices each, indexed by slice number mod 3
+        Slice[][] rings = new Slice[depth][3];
+        for(int k = 1; k < depth; k++)
+            for(int r = 0; r < 3; r++)
+                rings[k][r] = slices.get(0).emptyLike();
+
+        int lowest = halos ? Math.max(0, from - depth) : from - depth;
+        int highest = halos ? Math.min(sliceCount, to + depth) : to + depth;
+        int slicesSkipped = 0;
+        int tilesSkipped = 0;
+        for(int j = lowest; j < highest + depth; j++) {
+            for(int k = 1; k <= depth; k++) {
+                //generation k of slice i, within the generation's range
+                int i = j - k;
+                int lo = k == depth ? from : halos ? Math.max(0, from - depth + k) : from - depth + k;
+                int hi = k == depth ? to : halos ? Math.min(sliceCount, to + depth - k) : to + depth - k;
+                if(i < lo || i >= hi)
+                    continue;
+                Slice below = generation(rings, k - 1, i - 1);
+                Slice mid = generation(rings, k - 1, i);
+                Slice above = generation(rings, k - 1, i + 1);
+                Slice target = k == depth ? spare.get(i) : rings[k][Math.floorMod(i, 3)];
+                if(activityTracking) {
+                    int skipped = mid.updateActive(kernel, below, above, rule, target);
+                    if(k == depth) {
+                        tilesSkipped += skipped;
+                        if(skipped == Slice.tileCount(sizeX))
+                            slicesSkipped++;
+                    }
+                } else {
+                    mid.updateInto(kernel, below, above, rule, target);
+                }
+                if(k < depth)
+                    target.prepare(kernel);
+            }
+        }
+        skippingSlices.addAndGet(slicesSkipped);
+        skippingTiles.addAndGet(tilesSkipped);
+    }
+
+    /**Slice i of generation k of a blocked pass: the halos outside the field, generation 0 from the field**/
+    private Slice generation(Slice[][] rings, int k, int i) {
+        if(i < 0 && previous != null)
+            return previous;
+        if(i >= sliceCount && next != null)
+            return next;
+        if(k == 0)
+            return slices.get(Math.floorMod(i, sliceCount));
+        return rings[k][Math.floorMod(i, 3)];
+    }
+
+    /**
+     * Replaces every cell with a seeded random one, on with the given chance. Each slice draws from its own stream,
+     * picked by the seed and the slice's number in the whole world, so a world split across peers comes out the same
+     * as one field holding all of it, and the slices can be filled in parallel.
+     * Keeps the version; the generation before is forgotten, so previous() is null until the next step.
+     * @param firstSlice the number in the whole world of this field's slice 0, 0 unless the world is split across peers
+     */
+    public void seed(long seed, double density, int firstSlice) {
+        final Slice[] targets = slices.values().toArray(new Slice[slices.size()]);
+        if(parallelism > 1 && targets.length > 1) {
+            final RecursiveAction[] tasks = new RecursiveAction[targets.length];
+            for(int i = 0; i < targets.length; i++) {
+                final Slice slice = targets[i];
+                tasks[i] = new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        slice.randomize(sliceStream(seed, firstSlice + slice.number), density);
+                    }
+                };
+            }
+            pool(parallelism).invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for(Slice slice : targets)
+                slice.randomize(sliceStream(seed, firstSlice + slice.number), density);
+        }
+        spare = null;
+        cellsChanged();
+    }
+
+    /**The random stream slice z of the whole world is seeded from**/
+    private static SplittableRandom sliceStream(long seed, long z) {
+        //two rounds of mixing, so neighbouring seeds and slices get unrelated streams
+        return new SplittableRandom(WorldHash.key(WorldHash.key(seed) + z));
+    }
+
+    /**Runs advanceRange for one range of slices**/
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 4753431215798216346L;
+
+        private final int from;
+        private final int to;
+        private final int depth;
+
+        BlockTask(int from, int to, int depth) {
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            advanceRange(from, to, depth);
+        }
+    }
+
+    /**
+     * Writes the next version of each source slice into the matching target, splitting the
+     * slices into slabs across the fork/join pool when parallelism is above 1. Slices and halos
+     * are only read while this runs, so the slabs need no coordination.
+     */
+    private void updateAll(Slice[] sources, Slice[] targets) {
+        skippingSlices.set(0);
+        skippingTiles.set(0);
+        if(kernel == Kernel.PLANE_SUM || kernel == Kernel.VECTOR || kernel == Kernel.SPARSE) {
+            //every slice's prepared data is read by three slice updates, so prepare them all first
+            if(previous != null)
+                previous.prepare(kernel);
+            if(next != null)
+                next.prepare(kernel);
+            runSlabs(sources, targets, true);
+        }
+        runSlabs(sources, targets, false);
+    }
+
+    /**Runs updateRange (or only prepares the sources) over all the slices, in slabs on the pool if parallel**/
+    private void runSlabs(Slice[] sources, Slice[] targets, boolean prepare) {
+        if(parallelism > 1 && sources.length > 1) {
+            int slab = Math.max(1, sources.length / (parallelism * SLABS_PER_THREAD));
+            pool(parallelism).invoke(new SlabTask(sources, targets, 0, sources.length, slab, prepare));
+        } else if(prepare) {
+            prepareRange(sources, 0, sources.length);
+        } else {
+            updateRange(sources, targets, 0, sources.length);
+        }
+    }
+
+    private void prepareRange(Slice[] sources, int from, int to) {
+        for(int i = from; i < to; i++)
+            sources[i].prepare(kernel);
+    }
+
+    private void updateRange(Slice[] sources, Slice[] targets, int from, int to) {
+        int slicesSkipped = 0;
+        int tilesSkipped = 0;
+        for(int i = from; i < to; i++) {
+            Slice slice = sources[i];
+            Slice prev = getSlice(slice.number - 1);
+            Slice next = getSlice(slice.number + 1);
+            if(prev == null || next == null)
+                throw new IllegalStateException("Not all required slices were present.");
+            if(activityTracking) {
+                int skipped = slice.updateActive(kernel, prev, next, rule, targets[i]);
+                tilesSkipped += skipped;
+                if(skipped == Slice.tileCount(slice.sizeX))
+                    slicesSkipped++;
+            } else {
+                slice.updateInto(kernel, prev, next, rule, targets[i]);
+            }
+        }
+        skippingSlices.addAndGet(slicesSkipped);
+        skippingTiles.addAndGet(tilesSkipped);
+    }
+
+    /**Updates a range of slices, splitting it in half until it is no bigger than a slab**/
+    private class SlabTask extends RecursiveAction {
+        private static final long serialVersionUID = -2518839573104936021L;
+
+        private final Slice[] sources;
+        private final Slice[] targets;
+        private final int from;
+        private final int to;
+        private final int slab;
+        /**Only prepare the sources for the kernel**/
+        private final boolean prepare;
+
+        SlabTask(Slice[] sources, Slice[] targets, int from, int to, int slab, boolean prepare) {
+            this.sources = sources;
+            this.targets = targets;
+            this.from = from;
+            this.to = to;
+            this.slab = slab;
+            this.prepare = prepare;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= slab) {
+                if(prepare)
+                    prepareRange(sources, from, to);
+                else
+                    updateRange(sources, targets, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SlabTask(sources, targets, from, mid, slab, prepare),
+                          new SlabTask(sources, targets, mid, to, slab, prepare));
+            }
+        }
+    }
+
+    /**The shared pool for a parallelism level. Pools are kept for the life of the JVM.**/
+    private static synchronized ForkJoinPool pool(int parallelism) {
+        ForkJoinPool pool = POOLS.get(parallelism);
+        if(pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            POOLS.put(parallelism, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * A read-only view of the generation before the last step, with the halos it was computed from.
+     * The view is only valid until the next step, which overwrites it.
+     * @return null if the field has not been stepped in place.
+     */
+    public FieldView previous() {
+        if(spare == null)
+            return null;
+        return new FieldView() {
+            public int getCell(int x, int y, int z) {
+                Slice slice = getSlice(z);
+                if(slice != null)
+                    return slice.getCell(x, y);
+                else
+                    return -1;
+            }
+
+            public Slice getSlice(int slice_num) {
+                return lookup(spare, spare_previous, spare_next, slice_num);
+            }
+
+            public boolean isInternalSlice(int slice_num) {
+                return spare.containsKey(slice_num);
+            }
+
+            public int getVersion() {
+                return version - 1;
+            }
+
+            public int getSizeX() {
+                return sizeX;
+            }
+
+            public int getSizeY() {
+                return sizeY;
+            }
+
+            public int getSliceCount() {
+                return sliceCount;
+            }
+        };
+    }
+
+    /**
+     * Is the passed slice_num an internally managed slice?
+     */
+    public boolean isInternalSlice(int slice_num) {
+        return internalSlices().containsKey(slice_num);
+    }
+
+    /**The kernel updateToCopy steps the slices with**/
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    public void setKernel(Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    /**The birth/survival rule this Field runs**/
+    public Rule getRule() {
+        return rule;
+    }
+
+    public void setRule(Rule rule) {
+        this.rule = rule;
+        //what changed under the old rule says nothing about the new one
+        for(Slice slice : slices.values())
+            slice.changed = null;
+        if(cycles != null)
+            cycles.reset();
+    }
+
+    /**How many threads update slices at once**/
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets how many threads update slices at once. Slices are split into slabs and stepped
+     * on a fork/join pool of that size.
+     * @param parallelism 1 to step on the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /**Is only the changing part of the world recomputed each generation?**/
+    public boolean isActivityTracking() {
+        return activityTracking;
+    }
+
+    /**
+     * Turns activity tracking on or off. When on, each slice is split into tiles of a few rows, and only
+     * tiles that changed in the last generation (or border one that did, in this slice or the slices
+     * below and above) are recomputed. The rest are copied. Results are the same either way.
+     */
+    public void setActivityTracking(boolean activityTracking) {
+        this.activityTracking = activityTracking;
+    }
+
+    /**Do the slices keep the ages of their cells?**/
+    public boolean isAgeTracking() {
+        return ageTracking;
+    }
+
+    /**
+     * Turns age tracking on or off. Off, the slices hold only their liveness bits, getCell reads 1 for every
+     * live cell, and steps skip the age bookkeeping. Turning it on gives every live cell age 1.
+     */
+    public void setAgeTracking(boolean ageTracking) {
+        this.ageTracking = ageTracking;
+        for(Slice slice : slices.values())
+            slice.setAgeTracking(ageTracking);
+        if(spare != null)
+            for(Slice slice : spare.values())
+                slice.setAgeTracking(ageTracking);
+    }
+
+    /**
+     * Counts for this generation: live cells, births, deaths, the oldest cell and the box spanned by the cells that
+     * changed. Gathered while the generation was computed, so this costs nothing after a step. A field that has not
+     * been stepped counts its cells once and reports no births or deaths. Changing cells directly is not counted.
+     */
+    public GenerationStats getStats() {
+        if(stats == null)
+            stats = GenerationStats.census(version, slices.values());
+        return stats;
+    }
+
+    /**
+     * A 64-bit Zobrist hash of the live cells: equal for equal worlds, and almost never equal for different ones.
+     * Kept up to date from the cells each step changes, so this costs nothing after a step. Ages are not hashed.
+     */
+    public long getHash() {
+        if(!hashKnown) {
+            hash = WorldHash.of(slices.values());
+            hashKnown = true;
+        }
+        return hash;
+    }
+
+    /**Records this generation's hash, if cycles are looked for**/
+    private void recordCycle() {
+        if(cycles != null)
+            cycles.record(version, getHash());
+    }
+
+    /**
+     * The period of the cycle this generation is in: 1 if it is the same as the generation before, p if it is the
+     * same as the generation p before. A field without halos stays in the cycle for good, and advance skips whole
+     * periods of it. With halos the cycle only lasts as long as the halos cycle with it; see Peer for agreeing to
+     * stop across a ring.
+     * @return 0 if the world has not repeated within the cycle history, or cycles are not looked for
+     */
+    public int getPeriod() {
+        if(cycles == null || cycles.getGeneration() != version)
+            return 0;
+        return cycles.getPeriod();
+    }
+
+    /**The hashes of recent generations, or null if cycles are not looked for**/
+    public CycleDetector getCycleDetector() {
+        return cycles;
+    }
+
+    /**
+     * Sets how many recent generations are remembered to spot cycles: the longest period that can be seen.
+     * This starts a new detector, so a peer given the old one must be given the new one.
+     * @param history 0 to stop looking for cycles
+     */
+    public void setCycleHistory(int history) {
+        if(history < 0)
+            throw new IllegalArgumentException("Cycle history cannot be negative");
+        cycles = history > 0 ? new CycleDetector(history) : null;
+        recordCycle();
+    }
+
+    /**Forgets the hash, the stats and the cycle history, after the cells were changed other than by stepping**/
+    void cellsChanged() {
+        edits++;
+        hashKnown = false;
+        stats = null;
+        if(cycles != null)
+            cycles.reset();
+    }
+
+    /**How many slices were copied whole, rather than recomputed, by the step that produced this generation**/
+    public int getSkippedSlices() {
+        return skippedSlices;
+    }
+
+    /**How many tiles were copied, rather than recomputed, by the step that produced this generation**/
+    public int getSkippedTiles() {
+        return skippedTiles;
+    }
+
+    /**The number of activity tiles across all internal slices**/
+    public int getTileCount() {
+        int tiles = 0;
+        for(Slice slice : slices.values())
+            tiles += Slice.tileCount(slice.sizeX);
+        return tiles;
+    }
+
+    public void setNext(Slice next) {
+        checkSize(next);
+        this.next = next;
+    }
+
+    public void setPrev(Slice prev) {
+        checkSize(prev);
+        this.previous = prev;
+    }
+
+    /**Halos from peers must match this field's slices**/
+    private void checkSize(Slice halo) {
+        if(halo != null && (halo.sizeX != sizeX || halo.sizeY != sizeY))
+            throw new IllegalArgumentException("Slice is " + halo.sizeX + "x" + halo.sizeY
+                    + ", field slices are " + sizeX + "x" + sizeY);
+    }
+
+    public Slice getPrev() {
+        return previous;
+    }
+
+
+    public Slice getNext() {
+        return next;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Renumbers the current generation without changing its cells, for a peer joining a ring that is further on.
+     * The generation before is forgotten, so previous() is null until the next step.
+     */
+    public void setVersion(int version) {
+        this.version = version;
+        for(Slice slice : slices.values())
+            slice.version = version;
+        spare = null;
+        cellsChanged();
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSliceCount() {
+        return sliceCount;
+    }
+}
@@ -0,0 +1,43 @@
+package model;
+
+/**
+ * Read-only access to one generation of a field.
+ *
+ * Slices returned from a view belong to the field and must not be modified.
+ */
+public interface FieldView {
+
+    /**
+     * Get the state of a cell
+     *
+     * @param x first coord in slice
+     * @param y second coord in slice
+     * @param z slice number
+     * @return -1 if not found, 0 if off, 1+ if on (ticks spent on)
+     */
+    int getCell(int x, int y, int z);
+
+    /**
+     * Get the specified slice
+     * @param slice_num
+     * @return null if the slice was not found, the slice otherwise. Slice may not be managed by this Field.
+     */
+    Slice getSlice(int slice_num);
+
+    /**
+     * Is the passed slice_num an internally managed slice?
+     */
+    boolean isInternalSlice(int slice_num);
+
+    /**The version (generation) this view shows**/
+    int getVersion();
+
+    /**The number of rows (first coord) in each slice**/
+    int getSizeX();
+
+    /**The number of columns (second coord) in each slice**/
+    int getSizeY();
+
+    /**The number of slices (third coord) this field manages**/
+    int getSliceCount();
+}
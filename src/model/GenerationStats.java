@@ -0,0 +1,135 @@
+package model;
+
+import java.util.Collection;
+
+/**
+ * Counts for one generation of a field: live cells, births, deaths, the oldest cell and the box spanned by the
+ * cells that changed. Gathered by the update kernels while they compute the generation, so reading them costs
+ * nothing extra.
+ */
+public final class GenerationStats {
+    private final int generation;
+    private final long population;
+    private final long births;
+    private final long deaths;
+    private final int maxAge;
+    private final int minX, maxX, minY, maxY, minZ, maxZ;
+    /**The world hash keys of the cells that changed, XORed together: the world hash before this generation XOR after**/
+    final long hashChange;
+
+    private GenerationStats(int generation, long population, long births, long deaths, int maxAge,
+                            int minX, int maxX, int minY, int maxY, int minZ, int maxZ, long hashChange) {
+        this.generation = generation;
+        this.population = population;
+        this.births = births;
+        this.deaths = deaths;
+        this.maxAge = maxAge;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.minZ = minZ;
+        this.maxZ = maxZ;
+        this.hashChange = hashChange;
+    }
+
+    /**Adds up the counts the update left on each slice**/
+    static GenerationStats of(int generation, Collection<Slice> slices) {
+        long population = 0, births = 0, deaths = 0;
+        int maxAge = 0;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = -1, maxY = -1, maxZ = -1;
+        long hashChange = 0;
+        for(Slice slice : slices) {
+            SliceStats stats = slice.stats;
+            hashChange ^= stats.hash;
+            population += stats.population;
+            births += stats.births;
+            deaths += stats.deaths;
+            maxAge = Math.max(maxAge, stats.maxAge);
+            if(stats.hasChanged()) {
+                minX = Math.min(minX, stats.minX);
+                maxX = Math.max(maxX, stats.maxX);
+                minY = Math.min(minY, stats.minY);
+                maxY = Math.max(maxY, stats.maxY);
+                minZ = Math.min(minZ, slice.number);
+                maxZ = Math.max(maxZ, slice.number);
+            }
+        }
+        return new GenerationStats(generation, population, births, deaths, maxAge, minX, maxX, minY, maxY, minZ, maxZ, hashChange);
+    }
+
+    /**Counts the live cells and ages of slices that were not produced by an update. Nothing was born or died.**/
+    static GenerationStats census(int generation, Collection<Slice> slices) {
+        long population = 0;
+        int maxAge = 0;
+        for(Slice slice : slices) {
+            for(long word : slice.bits)
+                population += Long.bitCount(word);
+            if(slice.ages != null) {
+                for(byte age : slice.ages)
+                    maxAge = Math.max(maxAge, age);
+            }
+        }
+        if(maxAge == 0 && population > 0)
+            maxAge = 1;
+        return new GenerationStats(generation, population, 0, 0, maxAge,
+                Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1, 0L);
+    }
+
+    /**The generation (version) these counts are for**/
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**The number of live cells**/
+    public long getPopulation() {
+        return population;
+    }
+
+    /**The number of cells that came alive in this generation**/
+    public long getBirths() {
+        return births;
+    }
+
+    /**The number of cells that died in this generation**/
+    public long getDeaths() {
+        return deaths;
+    }
+
+    /**The age of the oldest live cell (saturating at Slice.MAX_AGE), 1 if ages are not tracked, 0 if none is alive**/
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /**Did any cell change in this generation?**/
+    public boolean hasChanged() {
+        return births + deaths > 0;
+    }
+
+    /**
+     * The box spanned by the cells that changed, as {minX, maxX, minY, maxY, minZ, maxZ}, inclusive.
+     * The box does not wrap: changes on both sides of an edge span the whole axis.
+     * @return null if no cell changed
+     */
+    public int[] getChangedBounds() {
+        if(!hasChanged())
+            return null;
+        return new int[] {minX, maxX, minY, maxY, minZ, maxZ};
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("generation ").append(generation)
+          .append(": population ").append(population)
+          .append(", births ").append(births)
+          .append(", deaths ").append(deaths)
+          .append(", max age ").append(maxAge);
+        if(hasChanged())
+            sb.append(", changed [").append(minX).append('-').append(maxX)
+              .append(", ").append(minY).append('-').append(maxY)
+              .append(", ").append(minZ).append('-').append(maxZ).append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,399 @@
+package model;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HashLife engine for standalone worlds.
+ *
+ * The world is stored as an octree of canonical (hash-consed) nodes: a node of level L covers 2^L cells
+ * per side, identical subtrees are stored once, and the result of a node after 2^k generations is memoized.
+ * Settled and periodic worlds then advance by huge generation counts in time roughly proportional to the
+ * number of distinct nodes rather than the number of generations.
+ *
+ * The world wraps on all three axes, like a Field with no halos. That periodicity is what lets a node
+ * built of copies of the world be advanced: the centre of such a node is again the whole world. Every
+ * dimension must be a power of two. Cell ages are not tracked.
+ */
+public class HashLife {
+    /**Default bound on the number of canonical nodes and memoized results kept**/
+    public static final int DEFAULT_MAX_NODES = 1 << 20;
+
+    /**
+     * An octree node. Level 1 nodes are leaves holding 2x2x2 cells as bits; larger nodes have 8 children.
+     * Child and cell octants are numbered x | y << 1 | z << 2 (x = row, y = column, z = slice).
+     */
+    static final class Node {
+        final int level;
+        final Node[] children;
+        final int bits;
+        /**Live cells, saturating at Long.MAX_VALUE: the tiled nodes of a long jump hold more than a long can count**/
+        final long population;
+        private final int hash;
+
+        Node(int bits) {
+            this.level = 1;
+            this.children = null;
+            this.bits = bits;
+            this.population = Integer.bitCount(bits);
+            this.hash = bits;
+        }
+
+        Node(Node[] children) {
+            this.level = children[0].level + 1;
+            this.children = children;
+            this.bits = 0;
+            long population = 0;
+            int hash = level;
+            for(Node child : children) {
+                population += child.population;
+                if(population < 0)
+                    population = Long.MAX_VALUE;
+                hash = hash * 31 + System.identityHashCode(child);
+            }
+            this.population = population;
+            this.hash = hash;
+        }
+
+        /**Nodes are equal if they have the same cells or the same (canonical) children**/
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Node))
+                return false;
+            Node other = (Node) o;
+            if(level != other.level || hash != other.hash)
+                return false;
+            if(children == null)
+                return bits == other.bits;
+            for(int i = 0; i < 8; i++)
+                if(children[i] != other.children[i])
+                    return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final Rule rule;
+    private final int maxNodes;
+    /**World size, cells per side of each axis**/
+    private final int sizeX, sizeY, sizeZ;
+    /**Level of the root node: the smallest cube holding the world**/
+    private final int level;
+
+    /**Canonical nodes, least recently used first**/
+    private final Map<Node, Node> nodes;
+    /**Memoized results by log2 of the generations advanced**/
+    private final Map<Integer, Map<Node, Node>> results = new HashMap<Integer, Map<Node, Node>>();
+    /**The empty node of each level**/
+    private final Map<Integer, Node> empties = new HashMap<Integer, Node>();
+
+    private Node root;
+    private long generation;
+
+    public HashLife(Field field) {
+        this(field, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Builds the octree from a Field's internal slices.
+     * @param field a field with no halos. Its row, column and slice counts must be powers of two.
+     * @param maxNodes how many canonical nodes, and how many results per step size, to keep before evicting
+     *                 the least recently used. Evicted nodes are still correct, just no longer shared.
+     */
+    public HashLife(Field field, int maxNodes) {
+        if(field.getPrev() != null || field.getNext() != null)
+            throw new IllegalArgumentException("HashLife only runs standalone, wrapping fields (this one has halos)");
+        if(field.getRule().isBorn(0))
+            throw new IllegalArgumentException("HashLife cannot run rules where cells are born with 0 neighbours");
+        Slice first = field.getSlice(0);
+        if(first == null)
+            throw new IllegalArgumentException("The field has no slice 0");
+        this.rule = field.getRule();
+        this.maxNodes = maxNodes;
+        this.sizeX = field.getSizeX();
+        this.sizeY = field.getSizeY();
+        this.sizeZ = field.getSliceCount();
+        for(int size : new int[] {sizeX, sizeY, sizeZ})
+            if(Integer.bitCount(size) != 1 || size < 4)
+                throw new IllegalArgumentException("HashLife needs power of two dimensions of at least 4, got " + size);
+        this.level = Integer.numberOfTrailingZeros(Math.max(sizeX, Math.max(sizeY, sizeZ)));
+        this.nodes = lruMap(maxNodes);
+
+        Slice[] slices = new Slice[sizeZ];
+        for(int z = 0; z < sizeZ; z++) {
+            slices[z] = field.getSlice(z);
+            if(slices[z] == null || !field.isInternalSlice(z))
+                throw new IllegalArgumentException("The field is missing slice " + z);
+        }
+        this.root = build(slices, level, 0, 0, 0);
+        this.generation = field.version;
+    }
+
+    /**The generation the octree currently holds**/
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**The number of live cells**/
+    public long getPopulation() {
+        //the root may hold several copies of the world
+        long copies = (1L << (3 * level)) / ((long) sizeX * sizeY * sizeZ);
+        return root.population / copies;
+    }
+
+    /**How many canonical nodes are cached**/
+    public int getCachedNodes() {
+        return nodes.size();
+    }
+
+    /**
+     * Advances the world. Each set bit k of generations is one jump of 2^k generations.
+     * @param generations how many generations to advance, at least 0
+     * @throws IllegalArgumentException if that takes the world past generation Integer.MAX_VALUE, the last a Field
+     * can hold
+     */
+    public void advance(long generations) {
+        if(generations < 0)
+            throw new IllegalArgumentException("Cannot advance a negative number of generations");
+        if(generations > Integer.MAX_VALUE - generation)
+            throw new IllegalArgumentException("Advancing " + generations + " generations from " + generation
+                    + " passes generation " + Integer.MAX_VALUE + ", the last a Field can hold");
+        for(int k = 0; k < 63; k++)
+            if(((generations >>> k) & 1) != 0)
+                advancePow2(k);
+    }
+
+    /**Advances 2^k generations**/
+    private void advancePow2(int k) {
+        //a node of copies of the world, big enough that its result (centre) is a whole number of worlds
+        int top = Math.max(level + 2, k + 2);
+        Node tiled = root;
+        for(int l = level; l < top; l++)
+            tiled = make(tiled, tiled, tiled, tiled, tiled, tiled, tiled, tiled);
+        Node next = result(tiled, k);
+        //the centre starts at an offset of 2^(top-2), a multiple of the world size, so any corner is the world
+        while(next.level > level)
+            next = next.children[0];
+        root = next;
+        generation += 1L << k;
+    }
+
+    /**
+     * Writes the current generation into a field's slices and sets its version. Live cells that were
+     * already alive keep their age, newly live cells get age 1.
+     * @param field a field of the same dimensions as the one this was built from
+     */
+    public void writeTo(Field field) {
+        for(int z = 0; z < sizeZ; z++) {
+            Slice slice = field.getSlice(z);
+            if(slice == null || slice.sizeX != sizeX || slice.sizeY != sizeY)
+                throw new IllegalArgumentException("The field does not match the world's dimensions");
+        }
+        for(int z = 0; z < sizeZ; z++) {
+            Slice slice = field.getSlice(z);
+            read(root, 0, 0, 0, field, z);
+            slice.version = Math.toIntExact(generation);
+        }
+        field.version = Math.toIntExact(generation);
+        field.cellsChanged();
+    }
+
+    /**A new Field holding the current generation, with the rule this was built with**/
+    public Field toField() {
+        Field field = new Field(sizeX, sizeY, sizeZ, rule);
+        writeTo(field);
+        return field;
+    }
+
+    /**Builds the node of the given level with its low corner at (x, y, z), wrapping the world**/
+    private Node build(Slice[] slices, int level, int x, int y, int z) {
+        if(level == 1) {
+            int bits = 0;
+            for(int o = 0; o < 8; o++) {
+                int cx = (x + (o & 1)) % sizeX;
+                int cy = (y + ((o >> 1) & 1)) % sizeY;
+                int cz = (z + ((o >> 2) & 1)) % sizeZ;
+                if(slices[cz].getCell(cx, cy) > 0)
+                    bits |= 1 << o;
+            }
+            return make(bits);
+        }
+        int half = 1 << (level - 1);
+        Node[] children = new Node[8];
+        for(int o = 0; o < 8; o++)
+            children[o] = build(slices, level - 1, x + (o & 1) * half, y + ((o >> 1) & 1) * half, z + ((o >> 2) & 1) * half);
+        return make(children);
+    }
+
+    /**Reads the cells of slice z from the node with its low corner at (x, y, z0)**/
+    private void read(Node node, int x, int y, int z0, Field field, int z) {
+        int size = 1 << node.level;
+        if(x >= sizeX || y >= sizeY || z0 > z || z >= z0 + size)
+            return;
+        Slice slice = field.getSlice(z);
+        if(node.population == 0) {
+            for(int i = x; i < Math.min(sizeX, x + size); i++)
+                for(int j = y; j < Math.min(sizeY, y + size); j++)
+                    slice.setCell(i, j, 0);
+            return;
+        }
+        if(node.level == 1) {
+            for(int o = 0; o < 8; o++) {
+                if(z0 + ((o >> 2) & 1) != z)
+                    continue;
+                int i = x + (o & 1);
+                int j = y + ((o >> 1) & 1);
+                if(((node.bits >> o) & 1) == 0)
+                    slice.setCell(i, j, 0);
+                else if(slice.getCell(i, j) == 0)
+                    slice.setCell(i, j, 1);
+            }
+            return;
+        }
+        int half = size >> 1;
+        for(int o = 0; o < 8; o++)
+            read(node.children[o], x + (o & 1) * half, y + ((o >> 1) & 1) * half, z0 + ((o >> 2) & 1) * half, field, z);
+    }
+
+    /**
+     * The centre of a node (level L >= 2) after 2^k generations, k <= L - 2.
+     */
+    private Node result(Node node, int k) {
+        if(node.population == 0)
+            return empty(node.level - 1);
+        Map<Node, Node> memo = results.get(k);
+        if(memo == null) {
+            memo = lruMap(maxNodes);
+            results.put(k, memo);
+        }
+        Node result = memo.get(node);
+        if(result != null)
+            return result;
+
+        if(node.level == 2) {
+            result = base(node);
+        } else {
+            //the 4x4x4 grandchildren, then the 27 overlapping level L-1 nodes they form
+            Node[][][] grand = new Node[4][4][4];
+            for(int x = 0; x < 4; x++)
+                for(int y = 0; y < 4; y++)
+                    for(int z = 0; z < 4; z++)
+                        grand[x][y][z] = node.children[octant(x >> 1, y >> 1, z >> 1)].children[octant(x & 1, y & 1, z & 1)];
+
+            //full speed: both phases advance. Otherwise the first phase only recentres.
+            boolean full = k == node.level - 2;
+            Node[][][] middle = new Node[3][3][3];
+            for(int x = 0; x < 3; x++)
+                for(int y = 0; y < 3; y++)
+                    for(int z = 0; z < 3; z++) {
+                        Node sub = make(grand, x, y, z);
+                        middle[x][y][z] = full ? result(sub, k - 1) : centre(sub);
+                    }
+
+            Node[] children = new Node[8];
+            for(int o = 0; o < 8; o++)
+                children[o] = result(make(middle, o & 1, (o >> 1) & 1, (o >> 2) & 1), full ? k - 1 : k);
+            result = make(children);
+        }
+        memo.put(node, result);
+        return result;
+    }
+
+    /**The central 2x2x2 cells of a level 2 node after one generation**/
+    private Node base(Node node) {
+        //the 4x4x4 cells, bit x + 4y + 16z
+        long cells = 0;
+        for(int x = 0; x < 4; x++)
+            for(int y = 0; y < 4; y++)
+                for(int z = 0; z < 4; z++) {
+                    Node leaf = node.children[octant(x >> 1, y >> 1, z >> 1)];
+                    if(((leaf.bits >> octant(x & 1, y & 1, z & 1)) & 1) != 0)
+                        cells |= 1L << (x + 4 * y + 16 * z);
+                }
+
+        int bits = 0;
+        for(int o = 0; o < 8; o++) {
+            int x = 1 + (o & 1), y = 1 + ((o >> 1) & 1), z = 1 + ((o >> 2) & 1);
+            int adjacent = 0;
+            for(int dx = -1; dx <= 1; dx++)
+                for(int dy = -1; dy <= 1; dy++)
+                    for(int dz = -1; dz <= 1; dz++)
+                        if((dx | dy | dz) != 0)
+                            adjacent += (int) ((cells >>> ((x + dx) + 4 * (y + dy) + 16 * (z + dz))) & 1);
+            boolean alive = ((cells >>> (x + 4 * y + 16 * z)) & 1) != 0;
+            if(alive ? rule.staysAlive(adjacent) : rule.isBorn(adjacent))
+                bits |= 1 << o;
+        }
+        return make(bits);
+    }
+
+    /**The central node (level L-1) of a node of level L >= 2, at the same generation**/
+    private Node centre(Node node) {
+        if(node.level == 2) {
+            int bits = 0;
+            for(int o = 0; o < 8; o++)
+                bits |= ((node.children[o].bits >> (7 - o)) & 1) << o;
+            return make(bits);
+        }
+        Node[] children = new Node[8];
+        for(int o = 0; o < 8; o++)
+            children[o] = node.children[o].children[7 - o];
+        return make(children);
+    }
+
+    private static int octant(int x, int y, int z) {
+        return x | y << 1 | z << 2;
+    }
+
+    private Node make(Node[][][] grid, int x, int y, int z) {
+        Node[] children = new Node[8];
+        for(int o = 0; o < 8; o++)
+            children[o] = grid[x + (o & 1)][y + ((o >> 1) & 1)][z + ((o >> 2) & 1)];
+        return make(children);
+    }
+
+    private Node make(Node... children) {
+        return intern(new Node(children));
+    }
+
+    private Node make(int bits) {
+        return intern(new Node(bits));
+    }
+
+    private Node intern(Node node) {
+        Node canonical = nodes.get(node);
+        if(canonical != null)
+            return canonical;
+        nodes.put(node, node);
+        return node;
+    }
+
+    private Node empty(int level) {
+        Node empty = empties.get(level);
+        if(empty == null) {
+            if(level == 1) {
+                empty = make(0);
+            } else {
+                Node child = empty(level - 1);
+                empty = make(child, child, child, child, child, child, child, child);
+            }
+            empties.put(level, empty);
+        }
+        return empty;
+    }
+
+    /**An access ordered map that evicts its least recently used entry past the given size**/
+    private static Map<Node, Node> lruMap(final int maxSize) {
+        return new LinkedHashMap<Node, Node>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Node, Node> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+}
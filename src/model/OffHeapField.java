@@ -0,0 +1,287 @@
+package model;
+
+import java.util.ArrayDeque;
+
+/**
+ * A field whose slices live in a SliceStore rather than on the heap.
+ *
+ * Stepping sweeps the slices in order with a window of a few heap slices: the two slices either side of the
+ * one being updated, the first slice (which the last one wraps around to), and the target. Each new slice is
+ * written to the store's next generation once the old one is in the window (over it, for direct memory), so the
+ * heap holds a handful of slices whatever the size of the world. Stepping a mapped store writes banks the file's
+ * header does not name, so steps never wait for the disk; the file keeps the generation last flushed, which is
+ * the one the field was made from until flush, close or a checkpoint (see setCheckpointInterval).
+ * Slices are updated with the same kernels and activity tracking as Field.
+ *
+ * Slice lookup wraps and uses halos like Field. Slices returned by getSlice are copies.
+ */
+public class OffHeapField implements FieldView {
+    private final SliceStore store;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sliceCount;
+
+    Slice previous = null;
+    Slice next = null;
+
+    /**The kernel step updates the slices with**/
+    Field.Kernel kernel = Field.Kernel.PACKED;
+    /**Only recompute the tiles of each slice that can have changed since the last generation**/
+    boolean activityTracking = true;
+    /**Slices and tiles copied rather than recomputed by the last step**/
+    int skippedSlices = 0;
+    int skippedTiles = 0;
+    /**Flush the store after stepping to each generation that is a multiple of this. 0 never flushes.**/
+    int checkpointInterval = 0;
+
+    /**Heap slices not in the window, reused across steps**/
+    private final ArrayDeque<Slice> free = new ArrayDeque<Slice>();
+    /**The slice getCell last read, so reading a slice cell by cell loads it once**/
+    private Slice cached = null;
+
+    /**
+     * Steps the world held by a store, from the generation and with the rule recorded in it.
+     */
+    public OffHeapField(SliceStore store) {
+        this.store = store;
+        this.sizeX = store.getSizeX();
+        this.sizeY = store.getSizeY();
+        this.sliceCount = store.getSliceCount();
+    }
+
+    /**
+     * Copies a heap field's slices, generation and rule into a store of the same dimensions.
+     * @return a field stepping the store
+     */
+    public static OffHeapField copyOf(Field field, SliceStore store) {
+        if(field.getSizeX() != store.getSizeX() || field.getSizeY() != store.getSizeY()
+                || field.getSliceCount() != store.getSliceCount())
+            throw new IllegalArgumentException("Store dimensions don't match the field");
+        for(Slice slice : field.internalSlices().values())
+            store.write(slice.number, slice);
+        store.setVersion(field.getVersion());
+        store.setRule(field.getRule());
+        OffHeapField offHeap = new OffHeapField(store);
+        offHeap.kernel = field.getKernel();
+        offHeap.activityTracking = field.isActivityTracking();
+        offHeap.previous = field.getPrev();
+        offHeap.next = field.getNext();
+        return offHeap;
+    }
+
+    /**Fills every slice with random cells, a slice at a time**/
+    public void randomize() {
+        for(int z = 0; z < sliceCount; z++) {
+            Slice slice = new Slice(z, getVersion(), sizeX, sizeY);
+            slice.setAgeTracking(store.isAgeTracking());
+            store.write(z, slice);
+        }
+        cached = null;
+    }
+
+    /**
+     * Updates the field to the next version in place, one slice at a time.
+     */
+    public void step() {
+        Field.Kernel kernel = this.kernel;
+        Rule rule = getRule();
+        int slicesSkipped = 0;
+        int tilesSkipped = 0;
+        cached = null;
+        if(previous != null)
+            previous.prepare(kernel);
+        if(next != null)
+            next.prepare(kernel);
+
+        //old slice 0 is needed again at the end, when the last slice wraps around to it
+        Slice first = load(0, kernel);
+        Slice below = previous != null ? previous : sliceCount == 1 ? first : load(sliceCount - 1, kernel);
+        Slice mid = first;
+        Slice target = take();
+        for(int z = 0; z < sliceCount; z++) {
+            Slice above;
+            if(z + 1 < sliceCount)
+                above = load(z + 1, kernel);
+            else
+                above = next != null ? next : first;
+
+            if(activityTracking) {
+                int skipped = mid.updateActive(kernel, below, above, rule, target);
+                tilesSkipped += skipped;
+                if(skipped == Slice.tileCount(sizeX))
+                    slicesSkipped++;
+            } else {
+                mid.updateInto(kernel, below, above, rule, target);
+            }
+            store.writeNext(z, target);
+
+            //below leaves the window, unless it is a halo or still needed as slice 0
+            if(below != previous && below != first)
+                free.push(below);
+            below = mid;
+            mid = above;
+        }
+        //what is left is the target, old slice 0 and old last slice (the same as slice 0 if there is one slice)
+        free.push(target);
+        free.push(first);
+        if(below != first)
+            free.push(below);
+
+        store.swap(store.getVersion() + 1);
+        skippedSlices = slicesSkipped;
+        skippedTiles = tilesSkipped;
+        if(checkpointInterval > 0 && store.getVersion() % checkpointInterval == 0)
+            store.flush();
+    }
+
+    /**Reads slice z into a free heap slice and prepares it for the kernel**/
+    private Slice load(int z, Field.Kernel kernel) {
+        Slice slice = take();
+        store.read(z, slice);
+        slice.prepare(kernel);
+        return slice;
+    }
+
+    private Slice take() {
+        Slice slice = free.poll();
+        return slice != null ? slice : new Slice(0, 0, sizeX, sizeY, false, store.isAgeTracking());
+    }
+
+    /**
+     * Get the state of a cell
+     * @return -1 if not found, 0 if off, 1+ if on (ticks spent on)
+     */
+    public int getCell(int x, int y, int z) {
+        Slice slice = getSlice(z);
+        if(slice != null)
+            return slice.getCell(x, y);
+        else
+            return -1;
+    }
+
+    /**
+     * Get the specified slice, wrapping like Field.getSlice
+     * @return a copy of the slice, or a halo
+     */
+    public Slice getSlice(int slice_num) {
+        if(slice_num < 0 && previous != null)
+            return previous;
+        else if(slice_num < 0)
+            slice_num = (slice_num + sliceCount);
+        if(slice_num >= sliceCount && next != null)
+            return next;
+        slice_num = slice_num % sliceCount;
+
+        Slice slice = cached;
+        if(slice == null || slice.number != slice_num) {
+            slice = new Slice(0, 0, sizeX, sizeY, false, store.isAgeTracking());
+            store.read(slice_num, slice);
+            cached = slice;
+        }
+        return slice;
+    }
+
+    public boolean isInternalSlice(int slice_num) {
+        return slice_num >= 0 && slice_num < sliceCount;
+    }
+
+    /**The store holding the slices**/
+    public SliceStore getStore() {
+        return store;
+    }
+
+    public Field.Kernel getKernel() {
+        return kernel;
+    }
+
+    public void setKernel(Field.Kernel kernel) {
+        this.kernel = kernel;
+    }
+
+    /**The birth/survival rule, as recorded in the store**/
+    public Rule getRule() {
+        return store.getRule();
+    }
+
+    public void setRule(Rule rule) {
+        store.setRule(rule);
+        //what changed under the old rule says nothing about the new one
+        store.clearChanged();
+        cached = null;
+    }
+
+    public boolean isActivityTracking() {
+        return activityTracking;
+    }
+
+    public void setActivityTracking(boolean activityTracking) {
+        this.activityTracking = activityTracking;
+    }
+
+    /**How many generations apart step flushes the store, 0 if it doesn't**/
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Makes step flush a mapped store each time it reaches a generation that is a multiple of the interval, so a
+     * restart loses at most that many generations. Each flush forces the whole world to disk; between them, steps
+     * don't touch the disk.
+     * @param checkpointInterval generations between flushes, 0 to flush only when asked
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        if(checkpointInterval < 0)
+            throw new IllegalArgumentException("The checkpoint interval can't be negative");
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**How many slices were copied whole, rather than recomputed, by the last step**/
+    public int getSkippedSlices() {
+        return skippedSlices;
+    }
+
+    /**How many tiles were copied, rather than recomputed, by the last step**/
+    public int getSkippedTiles() {
+        return skippedTiles;
+    }
+
+    public void setNext(Slice next) {
+        checkSize(next);
+        this.next = next;
+    }
+
+    public void setPrev(Slice prev) {
+        checkSize(prev);
+        this.previous = prev;
+    }
+
+    private void checkSize(Slice halo) {
+        if(halo != null && (halo.sizeX != sizeX || halo.sizeY != sizeY))
+            throw new IllegalArgumentException("Slice is " + halo.sizeX + "x" + halo.sizeY
+                    + ", field slices are " + sizeX + "x" + sizeY);
+    }
+
+    public Slice getPrev() {
+        return previous;
+    }
+
+    public Slice getNext() {
+        return next;
+    }
+
+    public int getVersion() {
+        return store.getVersion();
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSliceCount() {
+        return sliceCount;
+    }
+}
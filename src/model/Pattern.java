@@ -0,0 +1,159 @@
+package model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A 3D pattern of cells read from a file, to stamp into a Field.
+ *
+ * Files are Life's plain text ".cells" format with layers. Each line is a row of cells along y, the rows of a layer
+ * go along x, and a blank line starts the next layer along z. 'O' or '*' is a live cell and '.' a dead one; short
+ * rows are padded with dead cells. Lines starting with '!' are comments, and "!Name:" and "!Rule:" comments give
+ * the pattern's name and the rule it was found under.
+ */
+public final class Pattern {
+    private final String name;
+    /**Null if the file does not say**/
+    private final Rule rule;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    /**The live cells, as x, y, z triples**/
+    private final int[] cells;
+
+    private Pattern(String name, Rule rule, int sizeX, int sizeY, int sizeZ, int[] cells) {
+        this.name = name;
+        this.rule = rule;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.cells = cells;
+    }
+
+    /**
+     * Reads a pattern file. The pattern is named after the file unless it has a "!Name:" line.
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if it is not a pattern
+     */
+    public static Pattern read(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), dot > 0 ? fileName.substring(0, dot) : fileName);
+    }
+
+    /**
+     * Parses a pattern from the text of a file.
+     * @param defaultName the name if the text has no "!Name:" line
+     * @throws IllegalArgumentException if the text is not a pattern
+     */
+    public static Pattern parse(String text, String defaultName) {
+        String name = defaultName;
+        Rule rule = null;
+        List<int[]> live = new ArrayList<int[]>();
+        int x = 0, z = 0;
+        int sizeX = 0, sizeY = 0;
+        boolean layerStarted = false;
+        String[] lines = text.split("\r?\n", -1);
+        for(int n = 0; n < lines.length; n++) {
+            String line = lines[n].trim();
+            if(line.startsWith("!")) {
+                if(line.regionMatches(true, 1, "Name:", 0, 5))
+                    name = line.substring(6).trim();
+                else if(line.regionMatches(true, 1, "Rule:", 0, 5))
+                    rule = Rule.parse(line.substring(6).trim());
+                continue;
+            }
+            if(line.isEmpty()) {
+                //a blank line ends the layer, if one was started
+                if(layerStarted) {
+                    z++;
+                    x = 0;
+                    layerStarted = false;
+                }
+                continue;
+            }
+            for(int y = 0; y < line.length(); y++) {
+                char c = line.charAt(y);
+                if(c == 'O' || c == '*')
+                    live.add(new int[] {x, y, z});
+                else if(c != '.')
+                    throw new IllegalArgumentException("Line " + (n + 1) + ": unexpected '" + c + "' in pattern " + name);
+            }
+            sizeY = Math.max(sizeY, line.length());
+            x++;
+            sizeX = Math.max(sizeX, x);
+            layerStarted = true;
+        }
+        int sizeZ = layerStarted ? z + 1 : z;
+        if(sizeZ == 0)
+            throw new IllegalArgumentException("Pattern " + name + " has no cells");
+
+        int[] cells = new int[live.size() * 3];
+        for(int i = 0; i < live.size(); i++)
+            System.arraycopy(live.get(i), 0, cells, i * 3, 3);
+        return new Pattern(name, rule, sizeX, sizeY, sizeZ, cells);
+    }
+
+    /**
+     * Writes the pattern into a field with its corner at (x, y, z), wrapping around the field's edges. Every cell of
+     * the pattern's box is written, so cells the pattern has dead are cleared; live ones get age 1.
+     * @throws IllegalArgumentException if the pattern is larger than the field
+     */
+    public void stamp(Field field, int x, int y, int z) {
+        if(sizeX > field.getSizeX() || sizeY > field.getSizeY() || sizeZ > field.getSliceCount())
+            throw new IllegalArgumentException("Pattern " + name + " is " + sizeX + "x" + sizeY + "x" + sizeZ
+                    + ", larger than the field");
+        for(int k = 0; k < sizeZ; k++) {
+            Slice slice = field.internalSlices().get(Math.floorMod(z + k, field.getSliceCount()));
+            for(int i = 0; i < sizeX; i++)
+                for(int j = 0; j < sizeY; j++)
+                    slice.setCell(Math.floorMod(x + i, field.getSizeX()), Math.floorMod(y + j, field.getSizeY()), 0);
+        }
+        for(int c = 0; c < cells.length; c += 3) {
+            Slice slice = field.internalSlices().get(Math.floorMod(z + cells[c + 2], field.getSliceCount()));
+            slice.setCell(Math.floorMod(x + cells[c], field.getSizeX()), Math.floorMod(y + cells[c + 1], field.getSizeY()), 1);
+        }
+        field.cellsChanged();
+    }
+
+    /**Stamps the pattern in the middle of the field**/
+    public void stampCentred(Field field) {
+        stamp(field, (field.getSizeX() - sizeX) / 2, (field.getSizeY() - sizeY) / 2, (field.getSliceCount() - sizeZ) / 2);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**The rule the pattern was found under, or null if the file does not say**/
+    public Rule getRule() {
+        return rule;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSizeZ() {
+        return sizeZ;
+    }
+
+    /**The number of live cells**/
+    public int getPopulation() {
+        return cells.length / 3;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + sizeX + "x" + sizeY + "x" + sizeZ + ", " + getPopulation() + " cells"
+                + (rule != null ? ", " + rule : "") + ")";
+    }
+}
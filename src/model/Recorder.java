@@ -0,0 +1,337 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Records a run as a journal that Replay can seek through without recomputing it.
+ *
+ * A journal is a directory of segments. Each segment is a keyframe, a Snapshot of the whole field named after its
+ * generation (0000000000.snap), and a log of the generations after it (0000000000.log). Each log entry is one
+ * generation's delta: for every slice that changed, the packed words whose cells were born or died, as the word's
+ * index and the bits that flipped. A new segment starts every keyframeInterval generations, and whenever a
+ * generation was not recorded right after the one before it.
+ *
+ * record() is called on the simulation thread after each step. For a delta it only copies out the words that flipped,
+ * looking at just the rows and tiles the update found changes in. For a keyframe it copies nothing: the field lends
+ * the writer its slices (see Field.lend), and a step that comes round to a slice still being written gives the field
+ * a new buffer rather than waiting. Either is handed to a writer thread through a bounded queue, which writes the
+ * logs through a buffer. If the writer falls behind and the queue is full, the generation is dropped rather than
+ * waited for, and the next one recorded is a keyframe, so the journal skips those generations but never has a hole
+ * inside a segment.
+ *
+ * Halos are not recorded; they belong to the neighbouring peers' journals.
+ */
+public final class Recorder implements Closeable {
+    /**Generations between keyframes unless given**/
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+    /**Generations waiting to be written unless given**/
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**Bytes buffered before the log is written to**/
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final int keyframeInterval;
+    private final BlockingQueue<Frame> queue;
+    private final Thread writer;
+
+    /**The last generation queued, the generation of the keyframe its segment started from, and Field.edits then**/
+    private int lastGeneration = -1;
+    private int lastEdits = 0;
+    private int segmentStart = -1;
+    private boolean keyframeDue = true;
+    private int dropped = 0;
+    private boolean closed = false;
+    /**Set by the writer thread if writing failed; nothing more is written after that**/
+    private volatile IOException failure = null;
+
+    /**
+     * One recorded generation: a keyframe if field is set, otherwise the words that flipped, slice by slice.
+     * The end of the recording if generation is -1.
+     */
+    private static final class Frame {
+        final int generation;
+        Field field;
+        int[] slices;
+        int[] counts;
+        int sliceCount = 0;
+        int[] words;
+        long[] flips;
+        int wordCount = 0;
+
+        Frame(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Starts recording into a directory, which is created if it does not exist.
+     * @throws FileAlreadyExistsException if the directory already holds a journal
+     */
+    public Recorder(Path directory, int keyframeInterval, int queueCapacity) throws IOException {
+        if(keyframeInterval < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("The keyframe interval and queue capacity must be at least 1");
+        Files.createDirectories(directory);
+        if(!Replay.keyframes(directory).isEmpty())
+            throw new FileAlreadyExistsException(directory.toString(), null, "already holds a journal");
+        this.directory = directory;
+        this.keyframeInterval = keyframeInterval;
+        this.queue = new ArrayBlockingQueue<Frame>(queueCapacity);
+        this.writer = new Thread("Recorder " + directory) {
+            {
+                setDaemon(true);
+            }
+
+            public void run() {
+                write();
+            }
+        };
+        writer.start();
+    }
+
+    /**Starts recording with the default keyframe interval and queue capacity**/
+    public Recorder(Path directory) throws IOException {
+        this(directory, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Records the field's current generation. Call on the thread that steps the field, between steps.
+     * Never blocks, and never copies the whole world: if the writer is behind, the generation is dropped.
+     */
+    public void record(Field field) {
+        if(closed)
+            throw new IllegalStateException("The recorder is closed");
+        if(failure != null)
+            return;
+        int generation = field.getVersion();
+        FieldView previous = field.previous();
+        //a delta only follows from the last generation queued if the field was only stepped since
+        boolean follows = !keyframeDue && generation == lastGeneration + 1 && field.edits == lastEdits
+                && previous != null && previous.getVersion() == lastGeneration;
+        Frame frame;
+        if(follows && generation - segmentStart < keyframeInterval)
+            frame = delta(field, previous, generation);
+        else
+            frame = keyframe(field, generation);
+
+        if(queue.offer(frame)) {
+            lastGeneration = generation;
+            lastEdits = field.edits;
+            keyframeDue = false;
+            if(frame.field != null)
+                segmentStart = generation;
+        } else {
+            if(frame.field != null)
+                release(frame.field);
+            dropped++;
+            keyframeDue = true;
+        }
+    }
+
+    private static Frame keyframe(Field field, int generation) {
+        Frame frame = new Frame(generation);
+        frame.field = field.lend();
+        return frame;
+    }
+
+    /**Gives a keyframe's slices back to the field they were lent by**/
+    private static void release(Field lent) {
+        for(Slice slice : lent.slices.values())
+            slice.release();
+    }
+
+    /**
+     * The words of each slice that differ from the previous generation, in the rows the update counted changes in
+     * and the tiles it marked as changed
+     */
+    private static Frame delta(Field field, FieldView previous, int generation) {
+        Frame frame = new Frame(generation);
+        frame.slices = new int[8];
+        frame.counts = new int[8];
+        frame.words = new int[64];
+        frame.flips = new long[64];
+        int wpr = BitKernel.wordsPerRow(field.getSizeY());
+        int tileWords = Slice.TILE_ROWS * wpr;
+        for(int z = 0; z < field.getSliceCount(); z++) {
+            Slice slice = field.getSlice(z);
+            Slice before = previous.getSlice(z);
+            //without activity tracking there are no changed tiles, but the stats still bound the rows that changed
+            int from = 0;
+            int to = slice.bits.length;
+            if(slice.stats != null) {
+                if(!slice.stats.hasChanged())
+                    continue;
+                from = slice.stats.minX * wpr;
+                to = (slice.stats.maxX + 1) * wpr;
+            }
+            int first = frame.wordCount;
+            for(int tile = from / tileWords; tile * tileWords < to; tile++) {
+                if(slice.changed != null && (slice.changed[tile >>> 6] & (1L << (tile & 63))) == 0)
+                    continue;
+                int end = Math.min((tile + 1) * tileWords, to);
+                for(int w = Math.max(tile * tileWords, from); w < end; w++) {
+                    long flips = slice.bits[w] ^ before.bits[w];
+                    if(flips == 0)
+                        continue;
+                    if(frame.wordCount == frame.words.length) {
+                        frame.words = Arrays.copyOf(frame.words, frame.wordCount * 2);
+                        frame.flips = Arrays.copyOf(frame.flips, frame.wordCount * 2);
+                    }
+                    frame.words[frame.wordCount] = w;
+                    frame.flips[frame.wordCount++] = flips;
+                }
+            }
+            if(frame.wordCount > first) {
+                if(frame.sliceCount == frame.slices.length) {
+                    frame.slices = Arrays.copyOf(frame.slices, frame.sliceCount * 2);
+                    frame.counts = Arrays.copyOf(frame.counts, frame.sliceCount * 2);
+                }
+                frame.slices[frame.sliceCount] = z;
+                frame.counts[frame.sliceCount++] = frame.wordCount - first;
+            }
+        }
+        return frame;
+    }
+
+    /**The writer thread: takes frames off the queue until the end of the recording**/
+    private void write() {
+        FileChannel log = null;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer entry = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        try {
+            while(true) {
+                Frame frame = queue.poll();
+                if(frame == null) {
+                    //caught up, so let what is buffered reach the file
+                    flush(log, buffer);
+                    frame = queue.take();
+                }
+                if(frame.generation < 0)
+                    break;
+                if(frame.field != null) {
+                    if(log != null) {
+                        flush(log, buffer);
+                        log.close();
+                    }
+                    String name = Replay.segmentName(frame.generation);
+                    try {
+                        Snapshot.write(frame.field, directory.resolve(name + Replay.KEYFRAME));
+                    } finally {
+                        release(frame.field);
+                    }
+                    log = FileChannel.open(directory.resolve(name + Replay.LOG), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    continue;
+                }
+                entry = encode(frame, entry, crc);
+                if(entry.remaining() > buffer.remaining())
+                    flush(log, buffer);
+                if(entry.remaining() > buffer.remaining())
+                    writeFully(log, entry);
+                else
+                    buffer.put(entry);
+            }
+            if(log != null) {
+                flush(log, buffer);
+                log.force(false);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("Recording was interrupted", e);
+        } finally {
+            if(log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    if(failure == null)
+                        failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a delta as a log entry: generation, body length, then for each changed slice its number and word
+     * count followed by (word index, flipped bits) pairs, and a CRC32 of the body.
+     * @return entry, or a larger buffer if it did not fit, flipped for reading
+     */
+    private static ByteBuffer encode(Frame frame, ByteBuffer entry, CRC32 crc) {
+        int body = 8 * frame.sliceCount + 12 * frame.wordCount;
+        if(entry.capacity() < body + 12)
+            entry = ByteBuffer.allocate(body + 12).order(ByteOrder.LITTLE_ENDIAN);
+        entry.clear();
+        entry.putInt(frame.generation).putInt(body);
+        int w = 0;
+        for(int s = 0; s < frame.sliceCount; s++) {
+            entry.putInt(frame.slices[s]).putInt(frame.counts[s]);
+            for(int end = w + frame.counts[s]; w < end; w++)
+                entry.putInt(frame.words[w]).putLong(frame.flips[w]);
+        }
+        crc.reset();
+        crc.update(entry.array(), 8, body);
+        entry.putInt((int) crc.getValue());
+        entry.flip();
+        return entry;
+    }
+
+    private static void flush(FileChannel log, ByteBuffer buffer) throws IOException {
+        if(log == null || buffer.position() == 0)
+            return;
+        buffer.flip();
+        writeFully(log, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel log, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining())
+            log.write(buffer);
+    }
+
+    /**How many generations were dropped because the writer was behind**/
+    public int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Writes what is still queued and stops recording. Blocks until it is on disk.
+     * @throws IOException if writing failed at any point of the recording
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        try {
+            //the writer stops taking frames if it fails, so don't wait on a full queue for it
+            Frame end = new Frame(-1);
+            while(!queue.offer(end, 100, TimeUnit.MILLISECONDS))
+                if(!writer.isAlive())
+                    break;
+            writer.join();
+            //a writer that failed leaves frames queued, whose slices the field may still be lending
+            for(Frame frame = queue.poll(); frame != null; frame = queue.poll())
+                if(frame.field != null)
+                    release(frame.field);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing the recording", e);
+        }
+        if(failure != null)
+            throw failure;
+    }
+}
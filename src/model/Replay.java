@@ -0,0 +1,230 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Plays back a journal written by Recorder, without recomputing any generation.
+ *
+ * seek() restores the keyframe at or before a generation and applies the logged deltas up to it; next() then moves
+ * forward a generation at a time. Ages are rebuilt from the liveness as stepping does, so a field recorded with ages
+ * replays with them. A log whose last entry was cut short, by a crash while recording, ends before that entry.
+ */
+public final class Replay implements Closeable {
+    static final String KEYFRAME = ".snap";
+    static final String LOG = ".log";
+
+    /**Bytes read from a log at a time**/
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    /**The generations of the keyframes, one per segment**/
+    private final NavigableSet<Integer> keyframes;
+
+    private Field field = null;
+    /**The log being read, and the bytes read from it but not yet applied**/
+    private FileChannel log = null;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens a journal.
+     * @throws NoSuchFileException if the directory holds no journal
+     */
+    public Replay(Path directory) throws IOException {
+        this.directory = directory;
+        this.keyframes = keyframes(directory);
+        if(keyframes.isEmpty())
+            throw new NoSuchFileException(directory.toString(), null, "holds no journal");
+    }
+
+    /**The generations of the keyframes in a directory, empty if it has none**/
+    static NavigableSet<Integer> keyframes(Path directory) throws IOException {
+        NavigableSet<Integer> keyframes = new TreeSet<Integer>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + KEYFRAME)) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    keyframes.add(Integer.parseInt(name.substring(0, name.length() - KEYFRAME.length())));
+                } catch (NumberFormatException e) {
+                    //not a keyframe
+                }
+            }
+        }
+        return keyframes;
+    }
+
+    /**The name of the segment starting with the keyframe of a generation, so segments sort by name**/
+    static String segmentName(int generation) {
+        return String.format("%010d", generation);
+    }
+
+    /**The earliest generation that can be replayed**/
+    public int getFirstGeneration() {
+        return keyframes.first();
+    }
+
+    /**
+     * Moves to a generation: restores the nearest keyframe at or before it and streams the deltas up to it.
+     * @return the field at that generation, which next() moves forward
+     * @throws IllegalArgumentException if the generation was not recorded
+     * @throws IOException if the journal can't be read or is damaged
+     */
+    public Field seek(int generation) throws IOException {
+        Integer keyframe = keyframes.floor(generation);
+        if(keyframe == null)
+            throw new IllegalArgumentException("Generation " + generation + " is before the journal starts, at "
+                    + getFirstGeneration());
+        load(keyframe);
+        while(field.getVersion() < generation) {
+            if(!nextInSegment())
+                throw new IllegalArgumentException("Generation " + generation + " was not recorded");
+        }
+        return field;
+    }
+
+    /**
+     * Moves the field forward to the next generation recorded. That is the next generation unless the recording
+     * dropped some, in which case it is the keyframe after them.
+     * @return false at the end of the journal
+     * @throws IllegalStateException if seek was not called first
+     */
+    public boolean next() throws IOException {
+        if(field == null)
+            throw new IllegalStateException("Seek before reading on");
+        if(nextInSegment())
+            return true;
+        //a segment's log ends the generation before the next keyframe, or where generations were dropped
+        Integer keyframe = keyframes.higher(field.getVersion());
+        if(keyframe == null)
+            return false;
+        load(keyframe);
+        return true;
+    }
+
+    /**The field at the generation replayed to, null before the first seek**/
+    public Field getField() {
+        return field;
+    }
+
+    private void load(int keyframe) throws IOException {
+        field = Snapshot.read(directory.resolve(segmentName(keyframe) + KEYFRAME));
+        openLog(keyframe);
+    }
+
+    private void openLog(int keyframe) throws IOException {
+        closeLog();
+        buffer.clear().flip();
+        Path file = directory.resolve(segmentName(keyframe) + LOG);
+        log = Files.exists(file) ? FileChannel.open(file, StandardOpenOption.READ) : null;
+    }
+
+    /**
+     * Applies the next delta in the current segment's log.
+     * @return false if the log has no more complete entries
+     */
+    private boolean nextInSegment() throws IOException {
+        if(log == null || !fill(8))
+            return false;
+        int generation = buffer.getInt(buffer.position());
+        int body = buffer.getInt(buffer.position() + 4);
+        if(body < 0 || generation != field.getVersion() + 1)
+            throw new IOException(directory + " has a damaged log at generation " + (field.getVersion() + 1));
+        if(!fill(8 + body + 4))
+            return false;
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + buffer.position() + 8, body);
+        if((int) crc.getValue() != buffer.getInt(buffer.position() + 8 + body))
+            throw new IOException(directory + " has a damaged log at generation " + generation);
+
+        buffer.position(buffer.position() + 8);
+        int end = buffer.position() + body;
+        int words = field.getSlice(0).bits.length;
+        while(buffer.position() < end) {
+            int z = buffer.getInt();
+            int count = buffer.getInt();
+            if(z < 0 || z >= field.getSliceCount() || count < 0 || buffer.position() + 12L * count > end)
+                throw new IOException(directory + " has a damaged log at generation " + generation);
+            long[] bits = field.getSlice(z).bits;
+            for(int i = 0; i < count; i++) {
+                int w = buffer.getInt();
+                long flips = buffer.getLong();
+                if(w < 0 || w >= words)
+                    throw new IOException(directory + " has a damaged log at generation " + generation);
+                bits[w] ^= flips;
+            }
+        }
+        buffer.position(end + 4);
+
+        for(Slice slice : field.slices.values()) {
+            slice.version = generation;
+            slice.live = null;
+            slice.changed = null;
+            if(slice.ages != null)
+                age(slice);
+        }
+        field.version = generation;
+        field.spare = null;
+        field.cellsChanged();
+        return true;
+    }
+
+    /**Makes every live cell a generation older, and every dead one age 0, as a step does**/
+    private static void age(Slice slice) {
+        int wpr = BitKernel.wordsPerRow(slice.sizeY);
+        for(int x = 0; x < slice.sizeX; x++) {
+            for(int y = 0; y < slice.sizeY; y++) {
+                int p = x * slice.sizeY + y;
+                if((slice.bits[x * wpr + (y >>> 6)] & (1L << (y & 63))) != 0)
+                    slice.ages[p] = (byte) Math.min(slice.ages[p] + 1, Slice.MAX_AGE);
+                else
+                    slice.ages[p] = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads from the log until the buffer holds at least the given number of bytes, growing it if need be.
+     * @return false if the log ends first
+     */
+    private boolean fill(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes)
+            return true;
+        buffer.compact();
+        if(buffer.capacity() < bytes) {
+            buffer.flip();
+            buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN).put(buffer);
+        }
+        while(buffer.position() < bytes) {
+            if(log.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private void closeLog() throws IOException {
+        if(log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeLog();
+    }
+}
@@ -0,0 +1,141 @@
+package model;
+
+import java.io.Serializable;
+
+/**
+ * A birth/survival rule in B/S notation, e.g. "B5/S2-7".
+ *
+ * Counts are stored as bitmasks (bit n set if n adjacent cells trigger the rule), so checking
+ * a cell is a shift and a mask rather than a collection lookup.
+ */
+public final class Rule implements Serializable {
+    private static final long serialVersionUID = 4208472939473511903L;
+
+    /**The largest possible number of adjacent cells**/
+    public static final int MAX_ADJACENT = 26;
+
+    /**The rule the game has always used**/
+    public static final Rule DEFAULT = parse("B5/S2-7");
+
+    /**Bit n set if a dead cell with n adjacent cells is born**/
+    private final int birth;
+    /**Bit n set if a live cell with n adjacent cells stays alive**/
+    private final int stayAlive;
+
+    public Rule(int birthMask, int stayAliveMask) {
+        int valid = (1 << (MAX_ADJACENT + 1)) - 1;
+        if((birthMask & ~valid) != 0 || (stayAliveMask & ~valid) != 0)
+            throw new IllegalArgumentException("Adjacency counts must be between 0 and " + MAX_ADJACENT);
+        this.birth = birthMask;
+        this.stayAlive = stayAliveMask;
+    }
+
+    /**
+     * Parses a rule in B/S notation. Parts are separated by '/', in either order, and list counts
+     * separated by ',' with '-' for ranges, e.g. "B5/S2-7", "B4,5/S5-7" or "S4-5/B5". Case is ignored.
+     * @param notation the rule
+     * @return the parsed rule
+     * @throws IllegalArgumentException if the notation is malformed
+     */
+    public static Rule parse(String notation) {
+        int birth = -1;
+        int stayAlive = -1;
+        for(String part : notation.trim().split("/")) {
+            part = part.trim();
+            if(part.isEmpty())
+                throw new IllegalArgumentException("Empty part in rule \"" + notation + "\"");
+            char kind = Character.toUpperCase(part.charAt(0));
+            int mask = parseCounts(part.substring(1), notation);
+            if(kind == 'B' && birth == -1)
+                birth = mask;
+            else if(kind == 'S' && stayAlive == -1)
+                stayAlive = mask;
+            else
+                throw new IllegalArgumentException("Expected one B and one S part in rule \"" + notation + "\"");
+        }
+        if(birth == -1 || stayAlive == -1)
+            throw new IllegalArgumentException("Expected one B and one S part in rule \"" + notation + "\"");
+        return new Rule(birth, stayAlive);
+    }
+
+    private static int parseCounts(String counts, String notation) {
+        int mask = 0;
+        counts = counts.trim();
+        if(counts.isEmpty())
+            return mask;
+        for(String item : counts.split(",")) {
+            String[] range = item.trim().split("-");
+            try {
+                int from = Integer.parseInt(range[0].trim());
+                int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+                if(range.length > 2 || from < 0 || to > MAX_ADJACENT || from > to)
+                    throw new IllegalArgumentException("Bad count \"" + item + "\" in rule \"" + notation + "\"");
+                for(int n = from; n <= to; n++)
+                    mask |= 1 << n;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad count \"" + item + "\" in rule \"" + notation + "\"", e);
+            }
+        }
+        return mask;
+    }
+
+    /**Bit n set if a dead cell with n adjacent cells is born**/
+    public int getBirthMask() {
+        return birth;
+    }
+
+    /**Bit n set if a live cell with n adjacent cells stays alive**/
+    public int getStayAliveMask() {
+        return stayAlive;
+    }
+
+    /**Is a dead cell with this many adjacent cells born?**/
+    public boolean isBorn(int adjacent) {
+        return ((birth >>> adjacent) & 1) != 0;
+    }
+
+    /**Does a live cell with this many adjacent cells stay alive?**/
+    public boolean staysAlive(int adjacent) {
+        return ((stayAlive >>> adjacent) & 1) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!(o instanceof Rule))
+            return false;
+        Rule other = (Rule) o;
+        return birth == other.birth && stayAlive == other.stayAlive;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * birth + stayAlive;
+    }
+
+    /**The rule in canonical B/S notation, e.g. "B5/S2-7"**/
+    @Override
+    public String toString() {
+        return "B" + format(birth) + "/S" + format(stayAlive);
+    }
+
+    private static String format(int mask) {
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        while(n <= MAX_ADJACENT) {
+            if(((mask >>> n) & 1) == 0) {
+                n++;
+                continue;
+            }
+            int end = n;
+            while(end < MAX_ADJACENT && ((mask >>> (end + 1)) & 1) != 0)
+                end++;
+            if(sb.length() > 0)
+                sb.append(',');
+            sb.append(n);
+            if(end > n)
+                sb.append('-').append(end);
+            n = end + 1;
+        }
+        return sb.toString();
+    }
+}
@@ -1,155 +1,1019 @@
-package model;
-
-import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
-
-/**
- * Models a Slice of the field.
- */
-public class Slice implements Serializable {
-    private static final double CELL_ON_CHANCE = 0.03;
-    private static int SIZE = 16;
-
-    /**The version (iteration) number of this Slice**/
-    int version = -1;
-    /**The number (index) of this slice.**/
-    int number = -1;
-    /**The cells this slice contains**/
-    public int[][] cells = new int[SIZE][SIZE]; //-1 = uninitialized; 0 = off; 1+ = on, for num iterations;
-    /**The adjacency values on which we should change an empty cell to a filled cell**/
-    static Set<Integer> birth = new HashSet<Integer>();
-
-    /**The adjacency values on which we should keep an "on" cell "on"**/
-    static Set<Integer> stay_alive = new HashSet<Integer>();
-    static {
-        //defaults
-        birth.add(5);
-        stay_alive.add(2);
-        stay_alive.add(3);
-        stay_alive.add(4);
-        stay_alive.add(5);
-        stay_alive.add(6);
-        stay_alive.add(7);
-        //stay_alive.add(8);
-    }
-
-    /**Construct with defaults**/
-    private Slice() {};
-
-    /**Construct with version 0 and random cells**/
-    public Slice(int number) {
-        this(number,0);
-    }
-
-    /**Construct with specified version number and random cells.**/
-    public Slice(int number, int version) {
-        this.number = number;
-        this.version = version;
-
-        //initialize randomly
-        for(int i = 0; i < cells.length; i++)
-            for(int j = 0; j < cells[0].length; j++ )
-                cells[i][j] = (Math.random()<CELL_ON_CHANCE?1:0);
-    }
-
-    /**Copy constructor**/
-    public Slice(Slice other) {
-        this.version = other.version;
-        this.number = other.number;
-        this.cells = other.cells.clone();
-    }
-
-    /**
-     * Updates the slice. Does not modify original slice..
-     * @param below the slice "below" this one
-     * @param above the slice "above" this one
-     * @return The next version of this slice.
-     */
-    public Slice updateToCopy(Slice below, Slice above) {
-        Slice slice = new Slice();
-        slice.version = this.version + 1;
-        slice.number = this.number;
-
-        for(int i = 0; i < cells.length; i++) {
-            for(int j = 0; j < cells[0].length; j++) {
-                int adjacent = getAdjacent(i,j,below,above);
-                if(cells[i][j]==0 && birth.contains(adjacent)) {            //birth
-                    slice.cells[i][j] = cells[i][j] + 1;
-                } else if(cells[i][j]>0 && stay_alive.contains(adjacent)) { //stay alive
-                    slice.cells[i][j] = cells[i][j] + 1;
-                } else {                                                    //death
-                    slice.cells[i][j] = 0;
-                }
-            }
-        }
-        return slice;
-    }
-
-    /**
-     * Gets the adjacency count for a cell
-     * @param x the x index of the cell
-     * @param y the y index of the cell
-     * @param below the slice "below" this one
-     * @param above the slice "above" this one
-     * @return the number of adjacent cells
-     */
-    public int getAdjacent(int x , int y, Slice below, Slice above) {
-        int x_prev = (x+cells.length-1) % cells.length;
-        int x_next = (x+1) % cells.length;
-        int y_prev = (y+cells.length-1) % cells.length;
-        int y_next = (y+1) % cells.length;
-        int adjacent = 0;
-
-        //below
-        if(below.cells[x_prev][y_prev]>0)   adjacent++;
-        if(below.cells[x_prev][y]>0)        adjacent++;
-        if(below.cells[x_prev][y_next]>0)   adjacent++;
-
-        if(below.cells[x][y_prev]>0)        adjacent++;
-        if(below.cells[x][y]>0)             adjacent++;
-        if(below.cells[x][y_next]>0)        adjacent++;
-
-        if(below.cells[x_next][y_prev]>0)   adjacent++;
-        if(below.cells[x_next][y]>0)        adjacent++;
-        if(below.cells[x_next][y_next]>0)   adjacent++;
-
-        //in-line
-        if(this.cells[x_prev][y_prev]>0)   adjacent++;
-        if(this.cells[x_prev][y]>0)        adjacent++;
-        if(this.cells[x_prev][y_next]>0)   adjacent++;
-
-        if(this.cells[x][y_prev]>0)        adjacent++;
-        //if(this.cells[x][y]>0)             adjacent++; //this is the current cell, does not count as adjacent
-        if(this.cells[x][y_next]>0)        adjacent++;
-
-        if(this.cells[x_next][y_prev]>0)   adjacent++;
-        if(this.cells[x_next][y]>0)        adjacent++;
-        if(this.cells[x_next][y_next]>0)   adjacent++;
-
-        //above
-        if(above.cells[x_prev][y_prev]>0)   adjacent++;
-        if(above.cells[x_prev][y]>0)        adjacent++;
-        if(above.cells[x_prev][y_next]>0)   adjacent++;
-
-        if(above.cells[x][y_prev]>0)        adjacent++;
-        if(above.cells[x][y]>0)             adjacent++;
-        if(above.cells[x][y_next]>0)        adjacent++;
-
-        if(above.cells[x_next][y_prev]>0)   adjacent++;
-        if(above.cells[x_next][y]>0)        adjacent++;
-        if(above.cells[x_next][y_next]>0)   adjacent++;
-
-        return adjacent;
-    }
-
-    /**The number of the slice**/
-    public int getNumber() {
-        return number;
-    }
-
-    /** The version of the slice**/
-    public int getVersion() {
-        return version;
-    }
-}
+package model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Models a Slice of the field.
+ */
+public class Slice implements Serializable {
+    /**The chance of each cell being on in a random slice, unless given**/
+    public static final double CELL_ON_CHANCE = 0.03;
+    /**The number of rows and columns in a slice unless given**/
+    public static final int DEFAULT_SIZE = 16;
+
+    /**The version (iteration) number of this Slice**/
+    int version = -1;
+    /**The number (index) of this slice.**/
+    int number = -1;
+    /**The number of rows (first coord) and columns (second coord)**/
+    final int sizeX;
+    final int sizeY;
+    /**The liveness of the cells, one bit per cell (see BitKernel for the layout). This is what the kernels update.**/
+    long[] bits;
+    /**
+     * How many iterations each cell has been on, row by row (cell (x, y) at x * sizeY + y), saturating at MAX_AGE.
+     * 0 for dead cells. Null if the slice does not track ages, in which case every live cell reads as age 1.
+     */
+    byte[] ages;
+    /**Ages stop counting here. Only the GUI reads them, and it saturates far lower.**/
+    public static final int MAX_AGE = Byte.MAX_VALUE;
+
+    /**Rows per activity tile. Tiles are bands of whole rows.**/
+    static final int TILE_ROWS = 4;
+    /**Tiles whose liveness changed in the update that produced this slice, one bit per tile. Null if unknown.**/
+    transient long[] changed = null;
+    /**3x3 box sums of the liveness, one byte per cell, and the 1x3 row sums they are built from. See computeBoxSums.**/
+    transient byte[] boxSums = null;
+    transient byte[] rowSums = null;
+    /**Liveness as one byte per cell with wrapped edges, for the vector kernel. See VectorKernel.pad.**/
+    transient byte[] padded = null;
+
+    /**Counts gathered by the update that produced this slice. Null if it was not produced by an update.**/
+    transient SliceStats stats = null;
+
+    /**Indices (x * sizeY + y) of the live cells in ascending order, and how many there are. Null if not known.**/
+    transient int[] live = null;
+    transient int liveCount = 0;
+    /**Was this slice produced by a sparse update? Decides, with hysteresis, how the next version is computed.**/
+    transient boolean sparse = false;
+    /**
+     * Scratch for the updateSparse writing this slice: a touched cell's neighbour count plus one (0 if untouched),
+     * and the touched cells. Kept on the target, as the slices read may be read by other updates at the same time.
+     **/
+    transient byte[] counts = null;
+    transient int[] touched = null;
+    /**The packed kernel writing this slice, and its counter planes. Kept on the target for the same reason.**/
+    transient BitKernel counter = null;
+    /**How many readers on other threads the slice is lent to (see Field.lend). Steps must not write into it until 0.**/
+    transient volatile int lends = 0;
+    /**
+     * A slice and its neighbours go sparse below 1 live cell in ENTER_SPARSE, and back to dense above 1 in EXIT_SPARSE.
+     * Counting around live cells overtakes the packed kernel at about 1 in 100.
+     */
+    private static final int ENTER_SPARSE = 128;
+    private static final int EXIT_SPARSE = 80;
+    /**Words of a read slice's packed stream allocated before any arrive; the buffer doubles as more do**/
+    private static final int READ_CHUNK = 1 << 13;
+
+    /**Construct with version 0 and random cells**/
+    public Slice(int number) {
+        this(number,0);
+    }
+
+    /**Construct with specified version number and random cells.**/
+    public Slice(int number, int version) {
+        this(number, version, DEFAULT_SIZE, DEFAULT_SIZE);
+    }
+
+    /**Construct with specified version number, size and random cells, tracking ages.**/
+    public Slice(int number, int version, int sizeX, int sizeY) {
+        this(number, version, sizeX, sizeY, true, true);
+    }
+
+    /**
+     * Construct with specified version number and size, and either random cells or every cell off.
+     * @param ages whether to track the ages of the cells
+     */
+    Slice(int number, int version, int sizeX, int sizeY, boolean randomize, boolean ages) {
+        if(sizeX < 1 || sizeY < 1)
+            throw new IllegalArgumentException("Slices need at least one row and column");
+        this.number = number;
+        this.version = version;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.bits = new long[sizeX * BitKernel.wordsPerRow(sizeY)];
+        this.ages = ages ? new byte[sizeX * sizeY] : null;
+
+        //initialize randomly
+        if(randomize)
+            randomize(ThreadLocalRandom.current(), CELL_ON_CHANCE);
+    }
+
+    /**
+     * Replaces every cell with a random one, on with the given chance and age 1. Cells are drawn row by row, one
+     * number each, so the same stream always gives the same slice.
+     */
+    void randomize(RandomGenerator random, double density) {
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        Arrays.fill(bits, 0L);
+        for(int x = 0; x < sizeX; x++)
+            for(int y = 0; y < sizeY; y++)
+                if(random.nextDouble() < density)
+                    bits[x * wpr + (y >>> 6)] |= 1L << (y & 63);
+        if(ages != null)
+            resetAges();
+        live = null;
+        changed = null;
+    }
+
+    /**Copy constructor**/
+    public Slice(Slice other) {
+        this(other.number, other.version, other.sizeX, other.sizeY, false, other.ages != null);
+        System.arraycopy(other.bits, 0, this.bits, 0, bits.length);
+        if(ages != null)
+            System.arraycopy(other.ages, 0, this.ages, 0, ages.length);
+        this.changed = other.changed == null ? null : other.changed.clone();
+    }
+
+    /**
+     * Writes the slice compactly, for sending to another peer: number, version and size, then the liveness packed
+     * one bit per cell, row after row, with no padding between rows, then the ages of the live cells if tracked.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(number);
+        out.writeInt(version);
+        out.writeInt(sizeX);
+        out.writeInt(sizeY);
+        out.writeBoolean(ages != null);
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        long pending = 0;
+        int pendingBits = 0;
+        for(int x = 0; x < sizeX; x++) {
+            for(int k = 0; k < wpr; k++) {
+                int n = Math.min(64, sizeY - (k << 6));
+                long word = bits[x * wpr + k] & mask(n);
+                pending |= word << pendingBits;
+                if(pendingBits + n >= 64) {
+                    out.writeLong(pending);
+                    //the bits of word that did not fit
+                    pending = pendingBits == 0 ? 0 : word >>> (64 - pendingBits);
+                    pendingBits += n - 64;
+                } else {
+                    pendingBits += n;
+                }
+            }
+        }
+        for(int i = 0; i < pendingBits; i += 8)
+            out.writeByte((int) (pending >>> i));
+        if(ages != null) {
+            for(int x = 0; x < sizeX; x++) {
+                for(int k = 0; k < wpr; k++) {
+                    long word = bits[x * wpr + k];
+                    while(word != 0) {
+                        out.writeByte(ages[x * sizeY + (k << 6) + Long.numberOfTrailingZeros(word)]);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a slice written by write.
+     * @param maxCells the most cells a slice may have, so a bad size can't make it allocate without bound
+     * @throws IOException if the input ends early or the size is out of bounds
+     */
+    public static Slice read(DataInput in, int maxCells) throws IOException {
+        return read(in, maxCells, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads a slice written by write. Memory is only allocated for the cells as their packed bits arrive, so a size
+     * the sender does not follow up on costs little.
+     * @param maxCells the most cells a slice may have, so a bad size can't make it allocate without bound
+     * @param maxBytes the most bytes left in the input, so a size it is too short to hold is refused straight away
+     * @throws IOException if the input ends early or the size is out of bounds
+     */
+    public static Slice read(DataInput in, int maxCells, long maxBytes) throws IOException {
+        int number = in.readInt();
+        int version = in.readInt();
+        int sizeX = in.readInt();
+        int sizeY = in.readInt();
+        boolean ages = in.readBoolean();
+        if(sizeX < 1 || sizeY < 1 || (long) sizeX * sizeY > maxCells)
+            throw new IOException("Slice size " + sizeX + "x" + sizeY + " is out of bounds");
+        long cells = (long) sizeX * sizeY;
+        if(17 + (cells + 7) / 8 > maxBytes)
+            throw new IOException("Slice size " + sizeX + "x" + sizeY + " is more than the " + maxBytes + " bytes sent");
+        //the packed stream: whole words, then the last bits in bytes
+        int words = (int) ((cells + 63) >>> 6);
+        long[] stream = new long[Math.min(words, READ_CHUNK)];
+        for(int i = 0; i < cells >>> 6; i++) {
+            if(i == stream.length)
+                stream = Arrays.copyOf(stream, (int) Math.min(words, 2L * stream.length));
+            stream[i] = in.readLong();
+        }
+        if(stream.length < words)
+            stream = Arrays.copyOf(stream, words);
+        for(int i = 0; i < (cells & 63); i += 8)
+            stream[words - 1] |= (long) in.readUnsignedByte() << i;
+        Slice slice = new Slice(number, version, sizeX, sizeY, false, ages);
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        long position = 0;
+        for(int x = 0; x < sizeX; x++) {
+            for(int k = 0; k < wpr; k++) {
+                int n = Math.min(64, sizeY - (k << 6));
+                int at = (int) (position >>> 6);
+                int shift = (int) (position & 63);
+                long word = stream[at] >>> shift;
+                if(shift + n > 64)
+                    word |= stream[at + 1] << (64 - shift);
+                slice.bits[x * wpr + k] = word & mask(n);
+                position += n;
+            }
+        }
+        if(ages) {
+            for(int x = 0; x < sizeX; x++) {
+                for(int k = 0; k < wpr; k++) {
+                    long word = slice.bits[x * wpr + k];
+                    while(word != 0) {
+                        byte age = in.readByte();
+                        if(age < 1)
+                            throw new IOException("Live cell with age " + age);
+                        slice.ages[x * sizeY + (k << 6) + Long.numberOfTrailingZeros(word)] = age;
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return slice;
+    }
+
+    /**The low n bits set, for n in 1..64**/
+    private static long mask(int n) {
+        return n == 64 ? -1L : (1L << n) - 1;
+    }
+
+    /**A slice with the same number, size and age tracking as this one and every cell off**/
+    Slice emptyLike() {
+        return new Slice(number, version, sizeX, sizeY, false, ages != null);
+    }
+
+    /**Lends the slice to a reader on another thread, until it calls release**/
+    synchronized void lend() {
+        lends++;
+    }
+
+    /**Ends one lend of the slice**/
+    synchronized void release() {
+        lends--;
+    }
+
+    boolean isLent() {
+        return lends > 0;
+    }
+
+    /**
+     * Get the state of a cell
+     * @return 0 if off, 1+ if on (ticks spent on, or 1 if ages are not tracked)
+     */
+    public int getCell(int x, int y) {
+        if(!isOn(x, y))
+            return 0;
+        return ages == null ? 1 : ages[x * sizeY + y];
+    }
+
+    /**
+     * Set the state of a cell
+     * @param age 0 for off, 1+ for on (ticks spent on, saturating at MAX_AGE)
+     */
+    public void setCell(int x, int y, int age) {
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        if(age > 0)
+            bits[x * wpr + (y >>> 6)] |= 1L << (y & 63);
+        else
+            bits[x * wpr + (y >>> 6)] &= ~(1L << (y & 63));
+        if(ages != null)
+            ages[x * sizeY + y] = (byte) Math.max(0, Math.min(age, MAX_AGE));
+        live = null;
+        changed = null;
+    }
+
+    /**Does this slice track the ages of its cells?**/
+    public boolean isAgeTracking() {
+        return ages != null;
+    }
+
+    /**
+     * Starts or stops tracking ages. Stopping frees the age plane; starting gives every live cell age 1.
+     */
+    public void setAgeTracking(boolean track) {
+        if(!track) {
+            ages = null;
+        } else if(ages == null) {
+            ages = new byte[sizeX * sizeY];
+            resetAges();
+        }
+    }
+
+    /**Sets every live cell to age 1 and every dead one to 0**/
+    void resetAges() {
+        Arrays.fill(ages, (byte) 0);
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        for(int x = 0; x < sizeX; x++) {
+            for(int k = 0; k < wpr; k++) {
+                long word = bits[x * wpr + k];
+                while(word != 0) {
+                    ages[x * sizeY + (k << 6) + Long.numberOfTrailingZeros(word)] = 1;
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Skips a whole number of periods of a cycle the slice is in, which leaves the liveness as it is.
+     * A cell at least a period old has been alive in every phase of the cycle, so it grows older; the ages of the
+     * others come round again.
+     * @param generations how many generations to skip, a multiple of period
+     */
+    void skipCycles(int generations, int period) {
+        version += generations;
+        if(ages == null)
+            return;
+        for(int i = 0; i < ages.length; i++)
+            if(ages[i] >= period)
+                ages[i] = (byte) Math.min(MAX_AGE, (long) ages[i] + generations);
+    }
+
+    /**The number of rows (first coord)**/
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    /**The number of columns (second coord)**/
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    /**
+     * Updates the slice with the default rule. Does not modify original slice..
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @return The next version of this slice.
+     */
+    public Slice updateToCopy(Slice below, Slice above) {
+        return updateToCopy(below, above, Rule.DEFAULT);
+    }
+
+    /**
+     * Updates the slice. Does not modify original slice..
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @param rule the birth/survival rule to apply
+     * @return The next version of this slice.
+     */
+    public Slice updateToCopy(Slice below, Slice above, Rule rule) {
+        Slice slice = emptyLike();
+        updateInto(below, above, rule, slice);
+        return slice;
+    }
+
+    /**
+     * Writes the next version of this slice into target, overwriting all of its cells. Does not modify original slice.
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @param rule the birth/survival rule to apply
+     * @param target the slice to overwrite. Must not be this slice, below or above.
+     */
+    public void updateInto(Slice below, Slice above, Rule rule, Slice target) {
+        target.version = this.version + 1;
+        target.number = this.number;
+        target.changed = null;
+        target.live = null;
+        beginStats(target);
+        updateRowsScalar(below, above, rule, target, 0, sizeX);
+        tallyRows(target, 0, sizeX);
+        finishStats(target);
+    }
+
+    /**
+     * Updates the slice using the packed bit kernel. Gives the same result as updateToCopy(below, above, rule),
+     * but counts the neighbours of a whole row word at a time. Does not modify original slice.
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @param rule the birth/survival rule to apply
+     * @return The next version of this slice.
+     */
+    public Slice updateToCopyPacked(Slice below, Slice above, Rule rule) {
+        Slice slice = emptyLike();
+        updateIntoPacked(below, above, rule, slice);
+        return slice;
+    }
+
+    /**
+     * Writes the next version of this slice into target using the packed bit kernel, overwriting all of its cells.
+     * Does not modify original slice.
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @param rule the birth/survival rule to apply
+     * @param target the slice to overwrite. Must not be this slice, below or above.
+     */
+    public void updateIntoPacked(Slice below, Slice above, Rule rule, Slice target) {
+        target.version = this.version + 1;
+        target.number = this.number;
+        target.changed = null;
+        target.live = null;
+        beginStats(target);
+        updateRowsPacked(below, above, rule, target, 0, sizeX);
+        tallyRows(target, 0, sizeX);
+        finishStats(target);
+    }
+
+    /**
+     * Writes the next version of this slice into target with the given kernel, overwriting all of its cells.
+     * For the PLANE_SUM, VECTOR and SPARSE kernels, this slice, below and above must have been prepared (see prepare).
+     * @param kernel the kernel to compute with
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @param rule the birth/survival rule to apply
+     * @param target the slice to overwrite. Must not be this slice, below or above.
+     */
+    void updateInto(Field.Kernel kernel, Slice below, Slice above, Rule rule, Slice target) {
+        if(kernel == Field.Kernel.SPARSE && useSparse(below, above, rule)) {
+            updateSparse(below, above, rule, target);
+            target.changed = null;
+            return;
+        }
+        target.version = this.version + 1;
+        target.number = this.number;
+        target.changed = null;
+        target.live = null;
+        target.sparse = false;
+        beginStats(target);
+        updateRows(kernel, below, above, rule, target, 0, sizeX);
+        tallyRows(target, 0, sizeX);
+        finishStats(target);
+    }
+
+    /**
+     * Writes the next version of this slice into target, recomputing only the tiles that can have changed
+     * (see activeTiles) and copying the rest. Records in target which tiles changed.
+     * A slice the SPARSE kernel updates sparsely is recomputed around its live cells instead, and no tiles are copied.
+     * @param kernel the kernel to recompute tiles with
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @param rule the birth/survival rule to apply
+     * @param target the slice to overwrite. Must not be this slice, below or above.
+     * @return the number of tiles that were copied rather than recomputed
+     */
+    int updateActive(Field.Kernel kernel, Slice below, Slice above, Rule rule, Slice target) {
+        if(kernel == Field.Kernel.SPARSE && useSparse(below, above, rule)) {
+            updateSparse(below, above, rule, target);
+            return 0;
+        }
+        target.version = this.version + 1;
+        target.number = this.number;
+        target.live = null;
+        target.sparse = false;
+
+        int height = sizeX;
+        int tiles = tileCount(height);
+        long[] active = activeTiles(below, above);
+        long[] changed = target.changed;
+        if(changed == null || changed.length != tileWords(height))
+            changed = new long[tileWords(height)];
+        else
+            Arrays.fill(changed, 0L);
+
+        int skipped = 0;
+        beginStats(target);
+        for(int t = 0; t < tiles; t++) {
+            int from = t * TILE_ROWS;
+            int to = Math.min(height, from + TILE_ROWS);
+            if(active == null || (active[t >>> 6] & (1L << t)) != 0) {
+                updateRows(kernel, below, above, rule, target, from, to);
+                if(tallyRows(target, from, to))
+                    changed[t >>> 6] |= 1L << t;
+            } else {
+                copyRowsAged(target, from, to);
+                tallyRows(target, from, to);
+                skipped++;
+            }
+        }
+        finishStats(target);
+        target.changed = changed;
+        return skipped;
+    }
+
+    /**Resets the counts of target for the update about to produce it**/
+    private static void beginStats(Slice target) {
+        if(target.stats == null)
+            target.stats = new SliceStats();
+        else
+            target.stats.reset();
+        target.stats.origin = WorldHash.origin(target.number, target.sizeX, target.sizeY);
+        target.stats.sizeY = target.sizeY;
+    }
+
+    /**
+     * Counts the live, born and dead cells of rows [from, to) of target, which has been updated from this slice.
+     * @return whether any of the rows changed
+     */
+    private boolean tallyRows(Slice target, int from, int to) {
+        SliceStats stats = target.stats;
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        long diff = 0;
+        for(int x = from; x < to; x++) {
+            for(int k = 0; k < wpr; k++) {
+                long before = bits[x * wpr + k];
+                long after = target.bits[x * wpr + k];
+                stats.addWord(before, after, x, k << 6);
+                diff |= before ^ after;
+            }
+        }
+        return diff != 0;
+    }
+
+    /**Without ages, every live cell counts as age 1**/
+    private static void finishStats(Slice target) {
+        if(target.ages == null && target.stats.population > 0)
+            target.stats.maxAge = 1;
+    }
+
+    /**
+     * The tiles of the next version that can differ from this version: those that changed in the last update,
+     * or border a tile that did, in this slice or the slices below or above.
+     * @return one bit per tile, or null if every tile must be recomputed
+     */
+    long[] activeTiles(Slice below, Slice above) {
+        if(changed == null || below.changed == null || above.changed == null)
+            return null;
+        int tiles = tileCount(sizeX);
+        long[] active = new long[changed.length];
+        for(int t = 0; t < tiles; t++) {
+            int t_prev = (t + tiles - 1) % tiles;
+            int t_next = (t + 1) % tiles;
+            if(anyChanged(t_prev, below, above) || anyChanged(t, below, above) || anyChanged(t_next, below, above))
+                active[t >>> 6] |= 1L << t;
+        }
+        return active;
+    }
+
+    private boolean anyChanged(int tile, Slice below, Slice above) {
+        long bit = 1L << tile;
+        int w = tile >>> 6;
+        return ((changed[w] | below.changed[w] | above.changed[w]) & bit) != 0;
+    }
+
+    /**Has any cell changed in the update that produced this slice? True if unknown.**/
+    boolean hasChanged() {
+        if(changed == null)
+            return true;
+        for(long word : changed)
+            if(word != 0)
+                return true;
+        return false;
+    }
+
+    /**The number of activity tiles in a slice of this height**/
+    static int tileCount(int height) {
+        return (height + TILE_ROWS - 1) / TILE_ROWS;
+    }
+
+    static int tileWords(int height) {
+        return (tileCount(height) + 63) >>> 6;
+    }
+
+    /**
+     * Should the next version of this slice be computed sparsely? Only if this slice, below and above are sparse
+     * enough together: under 1 live cell in ENTER_SPARSE, or if this slice was computed sparsely, 1 in EXIT_SPARSE.
+     * Never for rules with birth on 0 adjacent cells, where every empty region comes alive.
+     * The live cells of all three slices must be known (see prepare).
+     */
+    boolean useSparse(Slice below, Slice above, Rule rule) {
+        if(rule.isBorn(0))
+            return false;
+        long population = (long) below.liveCount + liveCount + above.liveCount;
+        long cells = 3L * sizeX * sizeY;
+        return population * (sparse ? EXIT_SPARSE : ENTER_SPARSE) < cells;
+    }
+
+    /**
+     * Writes the next version of this slice into target by counting neighbours around live cells only,
+     * so it costs time in proportion to the population of this slice, below and above rather than to their size.
+     * Only the cells target had alive before are cleared. Records which tiles changed, and target's live cells.
+     * The live cells of this slice, below and above must be known (see prepare).
+     */
+    void updateSparse(Slice below, Slice above, Rule rule, Slice target) {
+        target.version = this.version + 1;
+        target.number = this.number;
+        target.sparse = true;
+        beginStats(target);
+        SliceStats stats = target.stats;
+
+        int size = sizeX * sizeY;
+        if(target.counts == null || target.counts.length != size)
+            target.counts = new byte[size];
+        long bound = 9L * below.liveCount + 9L * liveCount + 9L * above.liveCount;
+        int capacity = (int) Math.min(size, bound);
+        if(target.touched == null || target.touched.length < capacity)
+            target.touched = new int[capacity];
+        byte[] counts = target.counts;
+        int[] touched = target.touched;
+
+        int n = 0;
+        n = touchAround(below.live, below.liveCount, true, counts, touched, n);
+        n = touchAround(above.live, above.liveCount, true, counts, touched, n);
+        n = touchAround(live, liveCount, false, counts, touched, n);
+
+        //clear what target held alive before
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        if(target.live != null) {
+            for(int i = 0; i < target.liveCount; i++) {
+                int p = target.live[i];
+                if(target.ages != null)
+                    target.ages[p] = 0;
+                //every set bit belongs to a cell in the list, so whole words can be cleared
+                target.bits[(p / sizeY) * wpr + ((p % sizeY) >>> 6)] = 0;
+            }
+        } else {
+            if(target.ages != null)
+                Arrays.fill(target.ages, (byte) 0);
+            Arrays.fill(target.bits, 0L);
+        }
+
+        int[] next = target.live;
+        if(next == null || next.length < n)
+            next = new int[Math.max(n, 16)];
+        int born = 0;
+        int stayAlive = rule.getStayAliveMask();
+        int birth = rule.getBirthMask();
+        for(int i = 0; i < n; i++) {
+            int p = touched[i];
+            int adjacent = counts[p] - 1;
+            counts[p] = 0;
+            int mask = isOn(p) ? stayAlive : birth;
+            if(((mask >>> adjacent) & 1) != 0)
+                next[born++] = p;
+        }
+        Arrays.sort(next, 0, born);
+
+        int maxAge = 0;
+        for(int i = 0; i < born; i++) {
+            int p = next[i];
+            int y = p % sizeY;
+            if(target.ages != null) {
+                byte age = olderAge(p);
+                target.ages[p] = age;
+                maxAge = Math.max(maxAge, age);
+            }
+            target.bits[(p / sizeY) * wpr + (y >>> 6)] |= 1L << (y & 63);
+        }
+        target.live = next;
+        target.liveCount = born;
+        stats.population = born;
+        stats.maxAge = maxAge;
+        finishStats(target);
+
+        //a tile changed if a cell in it was born or died
+        long[] changed = target.changed;
+        if(changed == null || changed.length != tileWords(sizeX))
+            changed = new long[tileWords(sizeX)];
+        else
+            Arrays.fill(changed, 0L);
+        for(int i = 0; i < born; i++) {
+            if(!isOn(next[i])) {
+                markChanged(changed, next[i]);
+                stats.births++;
+                stats.addChange(next[i] / sizeY, next[i] % sizeY);
+            }
+        }
+        for(int i = 0; i < liveCount; i++) {
+            if(!target.isOn(live[i])) {
+                markChanged(changed, live[i]);
+                stats.deaths++;
+                stats.addChange(live[i] / sizeY, live[i] % sizeY);
+            }
+        }
+        target.changed = changed;
+    }
+
+    /**Is the cell at index p (x * sizeY + y) on?**/
+    private boolean isOn(int p) {
+        return isOn(p / sizeY, p % sizeY);
+    }
+
+    private boolean isOn(int x, int y) {
+        return ((bits[x * BitKernel.wordsPerRow(sizeY) + (y >>> 6)] >>> (y & 63)) & 1) != 0;
+    }
+
+    /**The age the cell at index p has in the next version if it is alive then**/
+    private byte olderAge(int p) {
+        return ages == null ? 1 : (byte) Math.min(ages[p] + 1, MAX_AGE);
+    }
+
+    private void markChanged(long[] changed, int p) {
+        int t = (p / sizeY) / TILE_ROWS;
+        changed[t >>> 6] |= 1L << t;
+    }
+
+    /**
+     * Adds one to the counts of the cells around each of the given live cells, wrapping, and records cells
+     * touched for the first time. The live cell itself counts only if centre is set, but is always touched.
+     * @return the new number of touched cells
+     */
+    private int touchAround(int[] cells, int count, boolean centre, byte[] counts, int[] touched, int n) {
+        for(int i = 0; i < count; i++) {
+            int p = cells[i];
+            int x = p / sizeY;
+            int y = p - x * sizeY;
+            int x_prev = x == 0 ? sizeX - 1 : x - 1;
+            int x_next = x == sizeX - 1 ? 0 : x + 1;
+            int y_prev = y == 0 ? sizeY - 1 : y - 1;
+            int y_next = y == sizeY - 1 ? 0 : y + 1;
+            for(int r = 0; r < 3; r++) {
+                int row = (r == 0 ? x_prev : r == 1 ? x : x_next) * sizeY;
+                for(int c = 0; c < 3; c++) {
+                    int q = row + (c == 0 ? y_prev : c == 1 ? y : y_next);
+                    if(counts[q] == 0) {
+                        counts[q] = 1;
+                        touched[n++] = q;
+                    }
+                    if(q != p || centre)
+                        counts[q]++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**Finds the live cells from the liveness bits**/
+    private void collectLive() {
+        int population = 0;
+        for(long word : bits)
+            population += Long.bitCount(word);
+        if(live == null || live.length < population)
+            live = new int[Math.max(population, 16)];
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        int n = 0;
+        for(int x = 0; x < sizeX; x++) {
+            for(int k = 0; k < wpr; k++) {
+                long word = bits[x * wpr + k];
+                while(word != 0) {
+                    live[n++] = x * sizeY + (k << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+        }
+        liveCount = n;
+    }
+
+    /**Update of rows [from, to) into target with the given kernel**/
+    private void updateRows(Field.Kernel kernel, Slice below, Slice above, Rule rule, Slice target, int from, int to) {
+        switch(kernel) {
+            case SCALAR:
+                updateRowsScalar(below, above, rule, target, from, to);
+                break;
+            case PACKED:
+            case SPARSE:
+                updateRowsPacked(below, above, rule, target, from, to);
+                break;
+            case PLANE_SUM:
+                updateRowsPlaneSum(below, above, rule, target, from, to);
+                break;
+            case VECTOR:
+                if(Field.Kernel.VECTOR.isAvailable())
+                    updateRowsVector(below, above, rule, target, from, to);
+                else
+                    updateRowsScalar(below, above, rule, target, from, to);
+                break;
+        }
+    }
+
+    /**
+     * Computes what a kernel needs from this slice before any slice is updated with it:
+     * box sums for PLANE_SUM, the padded plane for VECTOR, the live cells for SPARSE (if not already known).
+     * Nothing for the others.
+     */
+    void prepare(Field.Kernel kernel) {
+        if(kernel == Field.Kernel.SPARSE) {
+            if(live == null)
+                collectLive();
+        } else if(kernel == Field.Kernel.PLANE_SUM) {
+            computeBoxSums();
+        } else if(kernel == Field.Kernel.VECTOR && Field.Kernel.VECTOR.isAvailable()) {
+            int height = sizeX;
+            int width = sizeY;
+            if(padded == null || padded.length != VectorKernel.paddedSize(height, width))
+                padded = new byte[VectorKernel.paddedSize(height, width)];
+            VectorKernel.pad(bits, height, width, padded);
+        }
+    }
+
+    /**Vector update of rows [from, to) into target. The padded planes of this, below and above must be current.**/
+    private void updateRowsVector(Slice below, Slice above, Rule rule, Slice target, int from, int to) {
+        VectorKernel.stepRows(below.padded, this.padded, above.padded, target.bits, sizeX, sizeY,
+                rule.getBirthMask(), rule.getStayAliveMask(), from, to);
+        ageRows(target, from, to);
+    }
+
+    /**Scalar update of rows [from, to) into target**/
+    private void updateRowsScalar(Slice below, Slice above, Rule rule, Slice target, int from, int to) {
+        int birth = rule.getBirthMask();
+        int stayAlive = rule.getStayAliveMask();
+
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        Arrays.fill(target.bits, from * wpr, to * wpr, 0L);
+        for(int i = from; i < to; i++) {
+            for(int j = 0; j < sizeY; j++) {
+                int adjacent = getAdjacent(i,j,below,above);
+                boolean on = isOn(i, j);
+                if((!on && ((birth >>> adjacent) & 1) != 0)             //birth
+                        || (on && ((stayAlive >>> adjacent) & 1) != 0)) { //stay alive
+                    target.bits[i * wpr + (j >>> 6)] |= 1L << (j & 63);
+                }                                                        //otherwise death
+            }
+        }
+        ageRows(target, from, to);
+    }
+
+    /**Packed update of rows [from, to) into target**/
+    private void updateRowsPacked(Slice below, Slice above, Rule rule, Slice target, int from, int to) {
+        int height = sizeX;
+        int width = sizeY;
+        if(target.counter == null)
+            target.counter = new BitKernel();
+        target.counter.stepRows(below.bits, this.bits, above.bits, target.bits, height, width,
+                rule.getBirthMask(), rule.getStayAliveMask(), from, to);
+        ageRows(target, from, to);
+    }
+
+    /**
+     * Computes this slice's box sums: for every cell, the number of live cells in the 3x3 square around it
+     * (itself included, wrapping). Rows are summed across first and then down, so each sum costs two adds.
+     */
+    void computeBoxSums() {
+        int height = sizeX;
+        int width = sizeY;
+        int wpr = BitKernel.wordsPerRow(width);
+        if(boxSums == null || boxSums.length != height * width) {
+            boxSums = new byte[height * width];
+            rowSums = new byte[height * width];
+        }
+
+        //across: each row's 1x3 sums, sliding the window along the row
+        for(int i = 0; i < height; i++) {
+            int off = i * width;
+            int base = i * wpr;
+            int last = (int) ((bits[base + ((width - 1) >>> 6)] >>> ((width - 1) & 63)) & 1);
+            int cur = (int) (bits[base] & 1);
+            int sum = last + cur;
+            for(int j = 0; j < width; j++) {
+                int y_next = j + 1 == width ? 0 : j + 1;
+                int next = (int) ((bits[base + (y_next >>> 6)] >>> (y_next & 63)) & 1);
+                sum += next;
+                rowSums[off + j] = (byte) sum;
+                sum -= last;
+                last = cur;
+                cur = next;
+            }
+        }
+
+        //down: three row sums
+        for(int i = 0; i < height; i++) {
+            int prev = ((i + height - 1) % height) * width;
+            int cur = i * width;
+            int next = ((i + 1) % height) * width;
+            for(int j = 0; j < width; j++)
+                boxSums[cur + j] = (byte) (rowSums[prev + j] + rowSums[cur + j] + rowSums[next + j]);
+        }
+    }
+
+    /**Plane sum update of rows [from, to) into target. The box sums of this, below and above must be current.**/
+    private void updateRowsPlaneSum(Slice below, Slice above, Rule rule, Slice target, int from, int to) {
+        int birth = rule.getBirthMask();
+        int stayAlive = rule.getStayAliveMask();
+        int width = sizeY;
+        byte[] sumsBelow = below.boxSums;
+        byte[] sums = boxSums;
+        byte[] sumsAbove = above.boxSums;
+
+        int wpr = BitKernel.wordsPerRow(width);
+        for(int i = from; i < to; i++) {
+            int off = i * width;
+            for(int k = 0; k < wpr; k++) {
+                long word = bits[i * wpr + k];
+                long next = 0;
+                int end = Math.min(64, width - (k << 6));
+                for(int b = 0; b < end; b++) {
+                    int j = off + (k << 6) + b;
+                    int alive = (int) ((word >>> b) & 1);
+                    //the three 3x3 squares, less the cell itself
+                    int adjacent = sumsBelow[j] + sums[j] + sumsAbove[j] - alive;
+                    int mask = alive != 0 ? stayAlive : birth;
+                    next |= (long) ((mask >>> adjacent) & 1) << b;
+                }
+                target.bits[i * wpr + k] = next;
+            }
+        }
+        ageRows(target, from, to);
+    }
+
+    /**Copies the liveness of rows [from, to) into target unchanged, with live cells one iteration older**/
+    private void copyRowsAged(Slice target, int from, int to) {
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        System.arraycopy(bits, from * wpr, target.bits, from * wpr, (to - from) * wpr);
+        ageRows(target, from, to);
+    }
+
+    /**
+     * Sets the ages of rows [from, to) of target from its liveness: a live cell is one iteration older, a dead one is 0.
+     * Nothing to do if target does not track ages.
+     */
+    private void ageRows(Slice target, int from, int to) {
+        if(target.ages == null)
+            return;
+        int wpr = BitKernel.wordsPerRow(sizeY);
+        int maxAge = target.stats.maxAge;
+        Arrays.fill(target.ages, from * sizeY, to * sizeY, (byte) 0);
+        for(int i = from; i < to; i++) {
+            int off = i * sizeY;
+            for(int k = 0; k < wpr; k++) {
+                long word = target.bits[i * wpr + k];
+                while(word != 0) {
+                    int j = off + (k << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    byte age = olderAge(j);
+                    target.ages[j] = age;
+                    if(age > maxAge)
+                        maxAge = age;
+                }
+            }
+        }
+        target.stats.maxAge = maxAge;
+    }
+
+    /**
+     * Gets the adjacency count for a cell
+     * @param x the x index of the cell
+     * @param y the y index of the cell
+     * @param below the slice "below" this one
+     * @param above the slice "above" this one
+     * @return the number of adjacent cells
+     */
+    public int getAdjacent(int x , int y, Slice below, Slice above) {
+        int x_prev = (x+sizeX-1) % sizeX;
+        int x_next = (x+1) % sizeX;
+        int y_prev = (y+sizeY-1) % sizeY;
+        int y_next = (y+1) % sizeY;
+        int adjacent = 0;
+
+        //below
+        if(below.isOn(x_prev, y_prev))   adjacent++;
+        if(below.isOn(x_prev, y))        adjacent++;
+        if(below.isOn(x_prev, y_next))   adjacent++;
+
+        if(below.isOn(x, y_prev))        adjacent++;
+        if(below.isOn(x, y))             adjacent++;
+        if(below.isOn(x, y_next))        adjacent++;
+
+        if(below.isOn(x_next, y_prev))   adjacent++;
+        if(below.isOn(x_next, y))        adjacent++;
+        if(below.isOn(x_next, y_next))   adjacent++;
+
+        //in-line
+        if(this.isOn(x_prev, y_prev))   adjacent++;
+        if(this.isOn(x_prev, y))        adjacent++;
+        if(this.isOn(x_prev, y_next))   adjacent++;
+
+        if(this.isOn(x, y_prev))        adjacent++;
+        //if(this.isOn(x, y))             adjacent++; //this is the current cell, does not count as adjacent
+        if(this.isOn(x, y_next))        adjacent++;
+
+        if(this.isOn(x_next, y_prev))   adjacent++;
+        if(this.isOn(x_next, y))        adjacent++;
+        if(this.isOn(x_next, y_next))   adjacent++;
+
+        //above
+        if(above.isOn(x_prev, y_prev))   adjacent++;
+        if(above.isOn(x_prev, y))        adjacent++;
+        if(above.isOn(x_prev, y_next))   adjacent++;
+
+        if(above.isOn(x, y_prev))        adjacent++;
+        if(above.isOn(x, y))             adjacent++;
+        if(above.isOn(x, y_next))        adjacent++;
+
+        if(above.isOn(x_next, y_prev))   adjacent++;
+        if(above.isOn(x_next, y))        adjacent++;
+        if(above.isOn(x_next, y_next))   adjacent++;
+
+        return adjacent;
+    }
+
+    /**The number of the slice**/
+    public int getNumber() {
+        return number;
+    }
+
+    /** The version of the slice**/
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,64 @@
+package model;
+
+/**
+ * Counts for one slice, filled in by the update that produces it. See GenerationStats.
+ */
+final class SliceStats {
+    /**Live cells, cells born and cells that died in the update**/
+    int population;
+    int births;
+    int deaths;
+    /**Oldest live cell, 1 if ages are not tracked and any cell is alive**/
+    int maxAge;
+    /**Rows and columns spanned by the cells that were born or died. minX > maxX if none did.**/
+    int minX;
+    int maxX;
+    int minY;
+    int maxY;
+    /**The world hash keys of the cells that were born or died, XORed together. See WorldHash.**/
+    long hash;
+    /**The world index of the slice's first cell, and its row length, to find the keys of its cells**/
+    long origin;
+    int sizeY;
+
+    SliceStats() {
+        reset();
+    }
+
+    void reset() {
+        population = births = deaths = maxAge = 0;
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = -1;
+        hash = 0;
+    }
+
+    /**Counts one word of a row: old and new liveness of cells [y0, y0 + 64) of row x**/
+    void addWord(long before, long after, int x, int y0) {
+        population += Long.bitCount(after);
+        long born = after & ~before;
+        long died = before & ~after;
+        if((born | died) == 0)
+            return;
+        births += Long.bitCount(born);
+        deaths += Long.bitCount(died);
+        long any = born | died;
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y0 + Long.numberOfTrailingZeros(any));
+        maxY = Math.max(maxY, y0 + 63 - Long.numberOfLeadingZeros(any));
+        hash ^= WorldHash.ofWord(any, origin + (long) x * sizeY + y0);
+    }
+
+    /**Counts one cell that was born or died**/
+    void addChange(int x, int y) {
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+        hash ^= WorldHash.key(origin + (long) x * sizeY + y);
+    }
+
+    boolean hasChanged() {
+        return births + deaths > 0;
+    }
+}
@@ -0,0 +1,405 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One generation of a world's slices, kept off the Java heap.
+ *
+ * The store is either direct memory (allocateDirect) or a memory-mapped file (create, open). Each slice is
+ * one fixed-size record: whether its changed tiles are known, the changed tiles, the packed liveness and,
+ * if the store tracks ages, a byte per cell of ages. A mapped file also has a header with the dimensions, generation and rule, so a world can be reopened
+ * after a restart and carry on from where it was.
+ *
+ * Records are laid out back to back and mapped (or allocated) as a few large regions of whole records, so the
+ * store can be larger than 2GB as long as one slice is not.
+ *
+ * A mapped file holds three banks of records. One holds the generation last flushed, and the header names it and
+ * its generation; steps alternate between the other two, so stepping never writes over the flushed generation and
+ * never waits for the disk. Flushing forces the bank being written and only then makes the header name it, so a
+ * crash leaves the file at the generation last flushed rather than part way through a step. Nothing is forced
+ * but by flush and close (see OffHeapField.setCheckpointInterval to flush as a world steps). Direct memory has
+ * one bank.
+ *
+ * Slices are copied to and from heap Slices whole with bulk transfers; see OffHeapField for stepping a store.
+ */
+public final class SliceStore implements Closeable {
+    private static final int MAGIC = 0x474F4C33; //"GOL3"
+    private static final int FORMAT = 4;
+    /**Banks of records in a mapped file: the flushed generation, and the two a step reads and writes**/
+    private static final int MAPPED_BANKS = 3;
+    /**Bytes before the first slice record**/
+    private static final int HEADER_SIZE = 64;
+    /**The largest region mapped or allocated at once**/
+    private static final int MAX_REGION = 1 << 30;
+    /**Record flag: the changed tiles are known**/
+    private static final long CHANGED_KNOWN = 1;
+
+    //header fields (byte offsets)
+    private static final int H_MAGIC = 0;
+    private static final int H_FORMAT = 4;
+    private static final int H_SIZE_X = 8;
+    private static final int H_SIZE_Y = 12;
+    private static final int H_SLICES = 16;
+    private static final int H_VERSION = 20;
+    private static final int H_BIRTH = 24;
+    private static final int H_STAY_ALIVE = 28;
+    private static final int H_AGES = 32;
+    private static final int H_BANK = 36;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int sliceCount;
+    private final ByteBuffer header;
+    /**Per bank, the regions holding its records**/
+    private final ByteBuffer[][] regions;
+    /**Per bank and record: the flags word followed by the changed tiles, the liveness, and the ages**/
+    private final LongBuffer[][] meta;
+    private final LongBuffer[][] bits;
+    /**Null if the store does not track ages**/
+    private final ByteBuffer[][] ages;
+    /**The mapped file, null for direct memory**/
+    private final FileChannel channel;
+
+    /**
+     * The bank read and written, and the bank the header names (the same as bank for direct memory, -1 for a file
+     * not flushed yet)
+     **/
+    private int bank;
+    private int flushedBank = -1;
+    /**The generation and rule of the bank read and written; the header has those of the flushed bank**/
+    private int version;
+    private Rule rule;
+
+    private SliceStore(int sizeX, int sizeY, int sliceCount, boolean trackAges, ByteBuffer header, FileChannel channel,
+                       ByteBuffer[][] regions, int recordSize) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sliceCount = sliceCount;
+        this.header = header;
+        this.channel = channel;
+        this.regions = regions;
+        int banks = regions.length;
+        this.meta = new LongBuffer[banks][sliceCount];
+        this.bits = new LongBuffer[banks][sliceCount];
+        this.ages = trackAges ? new ByteBuffer[banks][sliceCount] : null;
+        int metaSize = 8 * (1 + Slice.tileWords(sizeX));
+        int bitsSize = 8 * sizeX * BitKernel.wordsPerRow(sizeY);
+        int perRegion = recordsPerRegion(recordSize);
+        for(int b = 0; b < banks; b++) {
+            for(int i = 0; i < sliceCount; i++) {
+                ByteBuffer record = regions[b][i / perRegion].slice((i % perRegion) * recordSize, recordSize);
+                meta[b][i] = record.slice(0, metaSize).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                bits[b][i] = record.slice(metaSize, bitsSize).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                if(trackAges)
+                    ages[b][i] = record.slice(metaSize + bitsSize, sizeX * sizeY);
+            }
+        }
+    }
+
+    /**
+     * A store in direct memory, every cell off. Gone when the store is garbage collected.
+     * @param sizeX rows in each slice
+     * @param sizeY columns in each slice
+     * @param sliceCount number of slices
+     * @param trackAges whether to keep the ages of the cells, a byte per cell
+     */
+    public static SliceStore allocateDirect(int sizeX, int sizeY, int sliceCount, boolean trackAges) {
+        int recordSize = recordSize(sizeX, sizeY, sliceCount, trackAges);
+        ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int perRegion = recordsPerRegion(recordSize);
+        ByteBuffer[][] regions = new ByteBuffer[1][(sliceCount + perRegion - 1) / perRegion];
+        for(int r = 0; r < regions[0].length; r++)
+            regions[0][r] = ByteBuffer.allocateDirect(recordSize * Math.min(perRegion, sliceCount - r * perRegion));
+        SliceStore store = new SliceStore(sizeX, sizeY, sliceCount, trackAges, header, null, regions, recordSize);
+        store.rule = Rule.DEFAULT;
+        store.writeHeader();
+        return store;
+    }
+
+    /**
+     * Creates (or truncates) a store file and maps it, every cell off.
+     * @param file the file to hold the world
+     * @param sizeX rows in each slice
+     * @param sizeY columns in each slice
+     * @param sliceCount number of slices
+     * @param rule the rule to record for the world
+     * @param trackAges whether to keep the ages of the cells, a byte per cell
+     */
+    public static SliceStore create(Path file, int sizeX, int sizeY, int sliceCount, Rule rule, boolean trackAges)
+            throws IOException {
+        int recordSize = recordSize(sizeX, sizeY, sliceCount, trackAges);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            SliceStore store = map(channel, sizeX, sizeY, sliceCount, trackAges, recordSize);
+            store.rule = rule;
+            store.flush();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps an existing store file.
+     * @throws IOException if the file can't be read or is not a store
+     */
+    public static SliceStore open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining())
+                if(channel.read(header, header.position()) < 0)
+                    throw new IOException(file + " is too short to be a slice store");
+            if(header.getInt(H_MAGIC) != MAGIC)
+                throw new IOException(file + " is not a slice store");
+            if(header.getInt(H_FORMAT) != FORMAT)
+                throw new IOException(file + " has unknown store format " + header.getInt(H_FORMAT));
+            int sizeX = header.getInt(H_SIZE_X);
+            int sizeY = header.getInt(H_SIZE_Y);
+            int sliceCount = header.getInt(H_SLICES);
+            boolean trackAges = header.getInt(H_AGES) != 0;
+            int flushed = header.getInt(H_BANK);
+            if(flushed < 0 || flushed >= MAPPED_BANKS)
+                throw new IOException(file + " names bank " + flushed + " as flushed");
+            int recordSize = recordSize(sizeX, sizeY, sliceCount, trackAges);
+            if(channel.size() < HEADER_SIZE + (long) MAPPED_BANKS * recordSize * sliceCount)
+                throw new IOException(file + " is truncated");
+            SliceStore store = map(channel, sizeX, sizeY, sliceCount, trackAges, recordSize);
+            store.bank = flushed;
+            store.flushedBank = flushed;
+            store.version = header.getInt(H_VERSION);
+            store.rule = new Rule(header.getInt(H_BIRTH), header.getInt(H_STAY_ALIVE));
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static SliceStore map(FileChannel channel, int sizeX, int sizeY, int sliceCount, boolean trackAges,
+                                  int recordSize) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int perRegion = recordsPerRegion(recordSize);
+        ByteBuffer[][] regions = new ByteBuffer[MAPPED_BANKS][(sliceCount + perRegion - 1) / perRegion];
+        long bankSize = (long) recordSize * sliceCount;
+        for(int b = 0; b < MAPPED_BANKS; b++) {
+            for(int r = 0; r < regions[b].length; r++) {
+                long start = HEADER_SIZE + b * bankSize + (long) r * perRegion * recordSize;
+                long size = (long) recordSize * Math.min(perRegion, sliceCount - r * perRegion);
+                regions[b][r] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            }
+        }
+        return new SliceStore(sizeX, sizeY, sliceCount, trackAges, header, channel, regions, recordSize);
+    }
+
+    /**Whole records in one region: as many as fit in MAX_REGION, and at least one**/
+    private static int recordsPerRegion(int recordSize) {
+        return Math.max(1, MAX_REGION / recordSize);
+    }
+
+    /**Bytes in one slice record, a multiple of 8**/
+    private static int recordSize(int sizeX, int sizeY, int sliceCount, boolean trackAges) {
+        if(sizeX < 1 || sizeY < 1 || sliceCount < 1)
+            throw new IllegalArgumentException("A store needs at least one row, column and slice");
+        long size = 8L * (1 + Slice.tileWords(sizeX))
+                + 8L * sizeX * BitKernel.wordsPerRow(sizeY)
+                + (trackAges ? (long) sizeX * sizeY : 0);
+        size = (size + 7) & ~7L;
+        if(size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A slice of " + sizeX + "x" + sizeY + " is too large for one record");
+        return (int) size;
+    }
+
+    /**Records the dimensions, and the generation and rule of the current bank as the flushed one**/
+    private void writeHeader() {
+        header.putInt(H_MAGIC, MAGIC);
+        header.putInt(H_FORMAT, FORMAT);
+        header.putInt(H_SIZE_X, sizeX);
+        header.putInt(H_SIZE_Y, sizeY);
+        header.putInt(H_SLICES, sliceCount);
+        header.putInt(H_VERSION, version);
+        header.putInt(H_BIRTH, rule.getBirthMask());
+        header.putInt(H_STAY_ALIVE, rule.getStayAliveMask());
+        header.putInt(H_AGES, ages != null ? 1 : 0);
+        header.putInt(H_BANK, bank);
+        flushedBank = bank;
+    }
+
+    /**
+     * Copies slice z into a heap slice of the same size, which then has number z and the store's version.
+     * If the heap slice tracks ages but the store does not, its live cells get age 1.
+     */
+    public void read(int z, Slice into) {
+        checkSize(into);
+        into.number = z;
+        into.version = getVersion();
+        if((meta[bank][z].get(0) & CHANGED_KNOWN) != 0) {
+            if(into.changed == null || into.changed.length != Slice.tileWords(sizeX))
+                into.changed = new long[Slice.tileWords(sizeX)];
+            meta[bank][z].get(1, into.changed);
+        } else {
+            into.changed = null;
+        }
+        bits[bank][z].get(0, into.bits);
+        if(into.ages != null) {
+            if(ages != null)
+                ages[bank][z].get(0, into.ages);
+            else
+                into.resetAges();
+        }
+        into.live = null;
+        into.sparse = false;
+    }
+
+    /**
+     * Copies a heap slice of the same size into slice z.
+     * If the store tracks ages but the heap slice does not, its live cells are stored with age 1.
+     */
+    public void write(int z, Slice from) {
+        unshare();
+        write(bank, z, from);
+    }
+
+    private void write(int bank, int z, Slice from) {
+        checkSize(from);
+        if(from.changed != null) {
+            meta[bank][z].put(1, from.changed);
+            meta[bank][z].put(0, CHANGED_KNOWN);
+        } else {
+            meta[bank][z].put(0, 0L);
+        }
+        bits[bank][z].put(0, from.bits);
+        if(ages != null) {
+            if(from.ages != null) {
+                ages[bank][z].put(0, from.ages);
+            } else {
+                for(int x = 0; x < sizeX; x++)
+                    for(int y = 0; y < sizeY; y++)
+                        ages[bank][z].put(x * sizeY + y, (byte) from.getCell(x, y));
+            }
+        }
+    }
+
+    /**
+     * Writes slice z of the next generation, which read does not see until swap. With one bank this is the
+     * current one, so a slice must only be written once the old one has been read for the slices either side.
+     * A mapped store writes the bank that is neither current nor flushed, so nothing is forced.
+     */
+    void writeNext(int z, Slice from) {
+        write(nextBank(), z, from);
+    }
+
+    /**Makes the generation written by writeNext the current one**/
+    void swap(int version) {
+        bank = nextBank();
+        this.version = version;
+    }
+
+    /**The bank the next generation is written to: the current one for direct memory, else one not flushed**/
+    private int nextBank() {
+        for(int b = 0; b < regions.length; b++)
+            if(b != bank && b != flushedBank)
+                return b;
+        return bank;
+    }
+
+    /**Before editing the flushed bank of a mapped store, copies it to the other bank and edits that instead**/
+    private void unshare() {
+        if(regions.length == 1 || bank != flushedBank)
+            return;
+        int next = nextBank();
+        for(int r = 0; r < regions[bank].length; r++)
+            regions[next][r].duplicate().put(regions[bank][r].duplicate());
+        bank = next;
+    }
+
+    /**Forgets which tiles changed in every slice, so the next step recomputes them all**/
+    void clearChanged() {
+        unshare();
+        for(LongBuffer m : meta[bank])
+            m.put(0, 0L);
+    }
+
+    private void checkSize(Slice slice) {
+        if(slice.sizeX != sizeX || slice.sizeY != sizeY)
+            throw new IllegalArgumentException("Slice is " + slice.sizeX + "x" + slice.sizeY
+                    + ", store slices are " + sizeX + "x" + sizeY);
+    }
+
+    /**The generation the store holds**/
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**The rule recorded for the world**/
+    public Rule getRule() {
+        return rule;
+    }
+
+    public void setRule(Rule rule) {
+        this.rule = rule;
+    }
+
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    public int getSliceCount() {
+        return sliceCount;
+    }
+
+    /**Does the store keep the ages of the cells?**/
+    public boolean isAgeTracking() {
+        return ages != null;
+    }
+
+    /**Is the store backed by a file?**/
+    public boolean isMapped() {
+        return channel != null;
+    }
+
+    /**
+     * Writes the current generation of a mapped store back to its file: the records first, then the header naming
+     * them, so the file holds either this generation or the one flushed before. The bank flushed before is then
+     * free for steps to write. Does nothing for direct memory.
+     */
+    public void flush() {
+        if(channel == null)
+            return;
+        if(bank != flushedBank)
+            for(ByteBuffer region : regions[bank])
+                ((MappedByteBuffer) region).force();
+        writeHeader();
+        ((MappedByteBuffer) header).force();
+    }
+
+    /**
+     * Flushes and closes the file of a mapped store. The mapping itself is released when the store is
+     * garbage collected, so the store must not be used after closing.
+     */
+    @Override
+    public void close() throws IOException {
+        if(channel != null) {
+            flush();
+            channel.close();
+        }
+    }
+}
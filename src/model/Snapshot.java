@@ -0,0 +1,351 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a whole world to a file and restores it, without replaying generations.
+ *
+ * A snapshot is a header (dimensions, generation, rule, whether ages are kept), a directory with one entry per slice,
+ * and then one block per slice. A block holds the packed liveness, either as is or, for sparse slices, as runs of
+ * zero words and literal words, whichever is smaller. If ages are kept, the block then has one age byte per live
+ * cell, in cell order (dead cells are always age 0). Each block has a CRC32 in its directory entry.
+ *
+ * Snapshots are written through a FileChannel, a slice at a time, to a temporary file that replaces the target once
+ * complete, so a crash never leaves a half-written snapshot. They are read by mapping the file, a window of slices
+ * at a time, so files larger than 2GB can be read. Halos are not saved; they belong to the neighbouring peers.
+ */
+public final class Snapshot {
+    private static final int MAGIC = 0x534C4F47; //"GOLS"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 24;
+    /**Header flag: the snapshot has ages**/
+    private static final int AGES = 1;
+    /**Block encodings of the liveness**/
+    private static final int RAW = 0;
+    private static final int RUNS = 1;
+    /**Most bytes of slice blocks mapped at once when reading**/
+    private static final long WINDOW = 1L << 30;
+
+    //header fields (byte offsets)
+    private static final int H_MAGIC = 0;
+    private static final int H_FORMAT = 4;
+    private static final int H_SIZE_X = 8;
+    private static final int H_SIZE_Y = 12;
+    private static final int H_SLICES = 16;
+    private static final int H_VERSION = 20;
+    private static final int H_BIRTH = 24;
+    private static final int H_STAY_ALIVE = 28;
+    private static final int H_FLAGS = 32;
+
+    //directory entry fields (byte offsets)
+    private static final int E_OFFSET = 0;
+    private static final int E_BITS = 8;
+    private static final int E_AGES = 12;
+    private static final int E_ENCODING = 16;
+    private static final int E_CRC = 20;
+
+    private Snapshot() {}
+
+    /**Saves a field's slices, generation and rule. Ages are saved if the field tracks them.**/
+    public static void write(Field field, Path file) throws IOException {
+        write(field, field.getRule(), field.isAgeTracking(), file);
+    }
+
+    /**Saves an off-heap field's slices, generation and rule, a slice at a time. Ages are saved if its store has them.**/
+    public static void write(OffHeapField field, Path file) throws IOException {
+        write(field, field.getRule(), field.getStore().isAgeTracking(), file);
+    }
+
+    private static void write(FieldView view, Rule rule, boolean ages, Path file) throws IOException {
+        int sizeX = view.getSizeX();
+        int sizeY = view.getSizeY();
+        int sliceCount = view.getSliceCount();
+        int words = sizeX * BitKernel.wordsPerRow(sizeY);
+        //room for the liveness as is, one age per cell, and one run header past it before the runs are given up on
+        ByteBuffer block = ByteBuffer.allocate(8 * words + (ages ? sizeX * sizeY : 0) + 8).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer directory = ByteBuffer.allocate(ENTRY_SIZE * sliceCount).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            long position = align(HEADER_SIZE + (long) ENTRY_SIZE * sliceCount);
+            for(int z = 0; z < sliceCount; z++) {
+                Slice slice = view.getSlice(z);
+                block.clear();
+                int encoding = encodeRuns(slice.bits, block) ? RUNS : RAW;
+                if(encoding == RAW) {
+                    block.clear();
+                    for(long word : slice.bits)
+                        block.putLong(word);
+                }
+                int bitsBytes = block.position();
+                if(ages)
+                    putAges(slice, block);
+                int agesBytes = block.position() - bitsBytes;
+                block.flip();
+                crc.reset();
+                crc.update(block.duplicate());
+
+                directory.putLong(position).putInt(bitsBytes).putInt(agesBytes).putInt(encoding).putInt((int) crc.getValue());
+                writeFully(channel, block, position);
+                position = align(position + bitsBytes + agesBytes);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(H_MAGIC, MAGIC);
+            header.putInt(H_FORMAT, FORMAT);
+            header.putInt(H_SIZE_X, sizeX);
+            header.putInt(H_SIZE_Y, sizeY);
+            header.putInt(H_SLICES, sliceCount);
+            header.putInt(H_VERSION, view.getVersion());
+            header.putInt(H_BIRTH, rule.getBirthMask());
+            header.putInt(H_STAY_ALIVE, rule.getStayAliveMask());
+            header.putInt(H_FLAGS, ages ? AGES : 0);
+            directory.flip();
+            writeFully(channel, directory, HEADER_SIZE);
+            writeFully(channel, header, 0);
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the words as runs: a count of zero words and a count of literal words, then the literal words.
+     * @return false if that would be no smaller than the words as they are, leaving block in an unknown state
+     */
+    private static boolean encodeRuns(long[] words, ByteBuffer block) {
+        int limit = 8 * words.length;
+        int i = 0;
+        while(i < words.length) {
+            int zeros = 0;
+            while(i + zeros < words.length && words[i + zeros] == 0)
+                zeros++;
+            i += zeros;
+            int literals = 0;
+            while(i + literals < words.length && words[i + literals] != 0)
+                literals++;
+            if(block.position() + 8 + 8 * literals >= limit)
+                return false;
+            block.putInt(zeros).putInt(literals);
+            for(int k = 0; k < literals; k++)
+                block.putLong(words[i + k]);
+            i += literals;
+        }
+        return true;
+    }
+
+    /**Appends the ages of the live cells, in cell order. Without ages every live cell is age 1.**/
+    private static void putAges(Slice slice, ByteBuffer block) {
+        int wpr = BitKernel.wordsPerRow(slice.sizeY);
+        for(int x = 0; x < slice.sizeX; x++) {
+            for(int k = 0; k < wpr; k++) {
+                long word = slice.bits[x * wpr + k];
+                while(word != 0) {
+                    int p = x * slice.sizeY + (k << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    block.put(slice.ages != null ? slice.ages[p] : 1);
+                }
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * Restores a field from a snapshot, at the generation and with the rule it was saved with. The field tracks ages
+     * if the snapshot has them.
+     * @throws IOException if the file can't be read, is not a snapshot or is damaged
+     */
+    public static Field read(Path file) throws IOException {
+        try(Reader reader = new Reader(file)) {
+            Field field = new Field(reader.sizeX, reader.sizeY, reader.sliceCount, reader.rule, reader.ages);
+            field.version = reader.version;
+            for(int z = 0; z < reader.sliceCount; z++) {
+                Slice slice = field.slices.get(z);
+                reader.read(z, slice);
+                slice.version = reader.version;
+            }
+            field.cellsChanged();
+            return field;
+        }
+    }
+
+    /**
+     * Restores a snapshot into a store of the same dimensions, a slice at a time, and steps it from there.
+     * If the store keeps ages and the snapshot does not, live cells get age 1.
+     * @throws IOException if the file can't be read, is not a snapshot or is damaged
+     */
+    public static OffHeapField read(Path file, SliceStore store) throws IOException {
+        try(Reader reader = new Reader(file)) {
+            if(reader.sizeX != store.getSizeX() || reader.sizeY != store.getSizeY() || reader.sliceCount != store.getSliceCount())
+                throw new IllegalArgumentException("Store dimensions don't match the snapshot");
+            Slice slice = new Slice(0, reader.version, reader.sizeX, reader.sizeY, false, reader.ages);
+            for(int z = 0; z < reader.sliceCount; z++) {
+                reader.read(z, slice);
+                slice.number = z;
+                store.write(z, slice);
+            }
+            //nothing is known about what changed in the generation before
+            store.clearChanged();
+            store.setVersion(reader.version);
+            store.setRule(reader.rule);
+            return new OffHeapField(store);
+        }
+    }
+
+    /**A snapshot file opened for reading: the header, the directory, and the window of blocks mapped last**/
+    private static final class Reader implements AutoCloseable {
+        private final Path file;
+        private final FileChannel channel;
+        final int sizeX;
+        final int sizeY;
+        final int sliceCount;
+        final int version;
+        final Rule rule;
+        final boolean ages;
+        private final ByteBuffer directory;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer window = null;
+        private long windowStart = 0;
+
+        Reader(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if(size < HEADER_SIZE)
+                    throw new IOException(file + " is too short to be a snapshot");
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                if(header.getInt(H_MAGIC) != MAGIC)
+                    throw new IOException(file + " is not a snapshot");
+                if(header.getInt(H_FORMAT) != FORMAT)
+                    throw new IOException(file + " has unknown snapshot format " + header.getInt(H_FORMAT));
+                sizeX = header.getInt(H_SIZE_X);
+                sizeY = header.getInt(H_SIZE_Y);
+                sliceCount = header.getInt(H_SLICES);
+                version = header.getInt(H_VERSION);
+                rule = new Rule(header.getInt(H_BIRTH), header.getInt(H_STAY_ALIVE));
+                ages = (header.getInt(H_FLAGS) & AGES) != 0;
+                if(sizeX < 1 || sizeY < 1 || sliceCount < 1 || size < HEADER_SIZE + (long) ENTRY_SIZE * sliceCount)
+                    throw new IOException(file + " is truncated");
+                directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) ENTRY_SIZE * sliceCount)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**Reads slice z's cells into a slice of the snapshot's size**/
+        void read(int z, Slice into) throws IOException {
+            int entry = z * ENTRY_SIZE;
+            long offset = directory.getLong(entry + E_OFFSET);
+            int bitsBytes = directory.getInt(entry + E_BITS);
+            int agesBytes = directory.getInt(entry + E_AGES);
+            int encoding = directory.getInt(entry + E_ENCODING);
+            ByteBuffer block = block(offset, bitsBytes + agesBytes);
+            crc.reset();
+            crc.update(block.duplicate());
+            if((int) crc.getValue() != directory.getInt(entry + E_CRC))
+                throw new IOException(file + " is damaged in slice " + z);
+
+            long[] bits = into.bits;
+            if(encoding == RAW) {
+                if(bitsBytes != 8 * bits.length)
+                    throw new IOException(file + " has a malformed slice " + z);
+                block.asLongBuffer().get(bits);
+            } else if(encoding == RUNS) {
+                decodeRuns(block.slice(0, bitsBytes).order(ByteOrder.LITTLE_ENDIAN), bits, z);
+            } else {
+                throw new IOException(file + " has unknown encoding " + encoding + " in slice " + z);
+            }
+
+            if(into.ages != null) {
+                if(ages) {
+                    block.position(bitsBytes);
+                    getAges(block, into, z);
+                } else {
+                    into.resetAges();
+                }
+            }
+            into.live = null;
+            into.changed = null;
+            into.sparse = false;
+        }
+
+        private void decodeRuns(ByteBuffer runs, long[] bits, int z) throws IOException {
+            int i = 0;
+            while(runs.hasRemaining()) {
+                int zeros = runs.getInt();
+                int literals = runs.getInt();
+                if(zeros < 0 || literals < 0 || (long) i + zeros + literals > bits.length)
+                    throw new IOException(file + " has a malformed slice " + z);
+                Arrays.fill(bits, i, i + zeros, 0L);
+                i += zeros;
+                for(int k = 0; k < literals; k++)
+                    bits[i++] = runs.getLong();
+            }
+            Arrays.fill(bits, i, bits.length, 0L);
+        }
+
+        /**Sets the ages of the live cells from the block, and every dead cell to 0**/
+        private void getAges(ByteBuffer block, Slice into, int z) throws IOException {
+            Arrays.fill(into.ages, (byte) 0);
+            int wpr = BitKernel.wordsPerRow(sizeY);
+            for(int x = 0; x < sizeX; x++) {
+                for(int k = 0; k < wpr; k++) {
+                    long word = into.bits[x * wpr + k];
+                    while(word != 0) {
+                        if(!block.hasRemaining())
+                            throw new IOException(file + " has a malformed slice " + z);
+                        into.ages[x * sizeY + (k << 6) + Long.numberOfTrailingZeros(word)] = block.get();
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+
+        /**The block at offset, from the mapped window, mapping the next window if it is not in this one**/
+        private ByteBuffer block(long offset, int length) throws IOException {
+            if(offset < HEADER_SIZE || offset + length > channel.size())
+                throw new IOException(file + " is truncated");
+            if(window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+                windowStart = offset;
+                long windowSize = Math.min(channel.size() - offset, Math.max(WINDOW, length));
+                window = channel.map(FileChannel.MapMode.READ_ONLY, offset, windowSize);
+            }
+            return window.slice((int) (offset - windowStart), length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
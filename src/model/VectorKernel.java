@@ -0,0 +1,136 @@
+package model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Neighbour counting on the jdk.incubator.vector API, a vector of cells at a time.
+ *
+ * Works on padded planes: each slice's liveness as one byte per cell, with a copy of the opposite edge
+ * around all four sides, so the 27 cells around any cell can be loaded without wraparound arithmetic.
+ * The counts are matched against the rule with vector masks.
+ *
+ * Only load this class when Field.Kernel.VECTOR.isAvailable(); it needs the jdk.incubator.vector module.
+ */
+final class VectorKernel {
+
+    /**Species to try, widest first. The widest that fits in a row is used.**/
+    private static final List<VectorSpecies<Byte>> SPECIES = Arrays.asList(
+            ByteVector.SPECIES_PREFERRED, ByteVector.SPECIES_256, ByteVector.SPECIES_128, ByteVector.SPECIES_64);
+
+    private VectorKernel() {}
+
+    /**
+     * Fills a slice's padded plane: (height + 2) rows of (width + 2) bytes, 1 for a live cell.
+     * Row and column 0 hold the last row and column, and the row and column after the last hold the first.
+     */
+    static void pad(long[] bits, int height, int width, byte[] padded) {
+        int wpr = BitKernel.wordsPerRow(width);
+        int stride = width + 2;
+        for(int i = 0; i < height + 2; i++) {
+            int x = i == 0 ? height - 1 : i == height + 1 ? 0 : i - 1;
+            int off = i * stride;
+            for(int j = 0; j < width + 2; j++) {
+                int y = j == 0 ? width - 1 : j == width + 1 ? 0 : j - 1;
+                padded[off + j] = (byte) ((bits[x * wpr + (y >>> 6)] >>> (y & 63)) & 1);
+            }
+        }
+    }
+
+    /**The size of a padded plane for a slice of this size**/
+    static int paddedSize(int height, int width) {
+        return (height + 2) * (width + 2);
+    }
+
+    /**
+     * Computes the next liveness of rows [from, to) into out (packed, see BitKernel). Other rows are left alone.
+     * @param below padded plane of the slice "below"
+     * @param mid padded plane of the slice being updated
+     * @param above padded plane of the slice "above"
+     */
+    static void stepRows(byte[] below, byte[] mid, byte[] above, long[] out,
+                         int height, int width, int birthMask, int surviveMask, int from, int to) {
+        VectorSpecies<Byte> species = species(width);
+        int lanes = species == null ? 0 : species.length();
+        int bound = species == null ? 0 : species.loopBound(width);
+        int stride = width + 2;
+        int wpr = BitKernel.wordsPerRow(width);
+
+        for(int x = from; x < to; x++) {
+            for(int k = 0; k < wpr; k++)
+                out[x * wpr + k] = 0;
+            //padded row x+1 holds row x, so rows x..x+2 are its neighbourhood
+            int top = x * stride;
+            int j = 0;
+            for(; j < bound; j += lanes) {
+                ByteVector sum = ByteVector.zero(species);
+                for(int r = 0; r < 3; r++) {
+                    int off = top + r * stride + j;
+                    for(int d = 0; d < 3; d++) {
+                        sum = sum.add(ByteVector.fromArray(species, below, off + d))
+                                 .add(ByteVector.fromArray(species, mid, off + d))
+                                 .add(ByteVector.fromArray(species, above, off + d));
+                    }
+                }
+                ByteVector alive = ByteVector.fromArray(species, mid, top + stride + j + 1);
+                //the cell itself does not count as adjacent
+                sum = sum.sub(alive);
+
+                VectorMask<Byte> born = matchAny(sum, birthMask);
+                VectorMask<Byte> survive = matchAny(sum, surviveMask);
+                VectorMask<Byte> isAlive = alive.compare(VectorOperators.NE, (byte) 0);
+                VectorMask<Byte> next = survive.and(isAlive).or(born.andNot(isAlive));
+                setBits(out, x * wpr, j, next.toLong(), lanes);
+            }
+            //what doesn't fill a vector
+            for(; j < width; j++) {
+                int adjacent = 0;
+                for(int r = 0; r < 3; r++) {
+                    int off = top + r * stride + j;
+                    for(int d = 0; d < 3; d++)
+                        adjacent += below[off + d] + mid[off + d] + above[off + d];
+                }
+                int alive = mid[top + stride + j + 1];
+                adjacent -= alive;
+                int mask = alive != 0 ? surviveMask : birthMask;
+                if(((mask >>> adjacent) & 1) != 0)
+                    out[x * wpr + (j >>> 6)] |= 1L << (j & 63);
+            }
+        }
+    }
+
+    /**Lanes whose count is one of the counts set in mask**/
+    private static VectorMask<Byte> matchAny(ByteVector counts, int mask) {
+        VectorMask<Byte> match = counts.compare(VectorOperators.LT, (byte) 0); //all false
+        while(mask != 0) {
+            int n = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            match = match.or(counts.compare(VectorOperators.EQ, (byte) n));
+        }
+        return match;
+    }
+
+    /**ORs the low lanes bits of value into a packed row starting at cell j**/
+    private static void setBits(long[] out, int rowOff, int j, long value, int lanes) {
+        if(lanes < 64)
+            value &= (1L << lanes) - 1;
+        int w = j >>> 6;
+        int shift = j & 63;
+        out[rowOff + w] |= value << shift;
+        if(shift != 0 && shift + lanes > 64)
+            out[rowOff + w + 1] |= value >>> (64 - shift);
+    }
+
+    /**The widest species no wider than a row, or null if the row is narrower than any**/
+    private static VectorSpecies<Byte> species(int width) {
+        for(VectorSpecies<Byte> species : SPECIES)
+            if(species.length() <= width)
+                return species;
+        return null;
+    }
+}
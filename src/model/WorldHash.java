@@ -0,0 +1,51 @@
+package model;
+
+import java.util.Collection;
+
+/**
+ * Zobrist hashing of a world's live cells: every cell has a fixed random 64-bit key, and a world hashes to the XOR of
+ * the keys of its live cells. Flipping a cell flips its key in the hash, so the hash of a generation follows from the
+ * one before and the cells that were born or died.
+ *
+ * Keys are mixed from the cell's index (see cell) rather than kept in a table, since a world can have billions of cells.
+ */
+final class WorldHash {
+
+    private WorldHash() {}
+
+    /**The key of the cell with the given index (splitmix64)**/
+    static long key(long cell) {
+        long z = cell * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**The index of the first cell of a slice, in a world of slices of sizeX x sizeY cells**/
+    static long origin(int z, int sizeX, int sizeY) {
+        return (long) z * sizeX * sizeY;
+    }
+
+    /**The keys of the cells set in a word, XORed together. Bit b of the word is the cell with index first + b.**/
+    static long ofWord(long word, long first) {
+        long hash = 0;
+        while(word != 0) {
+            hash ^= key(first + Long.numberOfTrailingZeros(word));
+            word &= word - 1;
+        }
+        return hash;
+    }
+
+    /**Hashes the live cells of the slices from scratch**/
+    static long of(Collection<Slice> slices) {
+        long hash = 0;
+        for(Slice slice : slices) {
+            int wpr = BitKernel.wordsPerRow(slice.sizeY);
+            long origin = origin(slice.number, slice.sizeX, slice.sizeY);
+            for(int x = 0; x < slice.sizeX; x++)
+                for(int k = 0; k < wpr; k++)
+                    hash ^= ofWord(slice.bits[x * wpr + k], origin + (long) x * slice.sizeY + (k << 6));
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,152 @@
+package chord;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class ConnectionPoolTest {
+    private static final int TIMEOUT = 5000;
+
+    /**A server end the test reads by hand, and which never answers PINGs**/
+    private static final class Remote {
+        final Socket socket;
+        final DataInputStream in;
+
+        Remote(ServerSocket server) throws IOException {
+            socket = server.accept();
+            socket.setSoTimeout(TIMEOUT);
+            in = new DataInputStream(socket.getInputStream());
+            assertEquals(Connection.PREAMBLE, in.readUnsignedByte());
+            assertEquals(Connection.VERSION, in.readUnsignedByte());
+        }
+
+        /**The payload of the next MESSAGE frame, skipping PINGs**/
+        byte[] message() throws IOException {
+            while (true) {
+                int length = in.readInt();
+                int kind = in.readUnsignedByte();
+                byte[] payload = new byte[length - 1];
+                in.readFully(payload);
+                if (kind == Connection.MESSAGE)
+                    return payload;
+            }
+        }
+    }
+
+    private static ServerSocket listen() throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(TIMEOUT);
+        return server;
+    }
+
+    private static InetSocketAddress address(ServerSocket server) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+    }
+
+    @Test
+    void resendsOverANewConnectionWhenTheOldOneWasDropped() throws IOException {
+        ConnectionPool pool = new ConnectionPool(TIMEOUT, 60000, 60000);
+        try (ServerSocket server = listen()) {
+            pool.send(address(server), new byte[] {1, 2, 3});
+            Remote first = new Remote(server);
+            assertArrayEquals(new byte[] {1, 2, 3}, first.message());
+
+            // Reset rather than close, so the pool's next write on the connection fails
+            first.socket.setSoLinger(true, 0);
+            first.socket.close();
+            pool.send(address(server), new byte[] {4, 5});
+            Remote second = new Remote(server);
+            assertArrayEquals(new byte[] {4, 5}, second.message());
+            second.socket.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    void reportsAPeerThatStopsAnswering() throws Exception {
+        ConnectionPool pool = new ConnectionPool(TIMEOUT, 300, 60000);
+        try (ServerSocket server = listen()) {
+            InetSocketAddress address = address(server);
+            pool.send(address, new byte[] {1});
+            Remote remote = new Remote(server);
+            assertEquals(Collections.emptyList(), pool.heartbeat());
+            Thread.sleep(500);
+            assertEquals(Collections.singletonList(address), pool.heartbeat());
+            // Dropped: the other side sees the connection close
+            assertClosed(remote);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    void keepsAPeerThatAnswers() throws Exception {
+        ConnectionPool pool = new ConnectionPool(TIMEOUT, 300, 60000);
+        PeerServer server = new PeerServer(0, new PeerServer.Handler() {
+            public void handle(PeerMessage mesg, InetAddress local, InetAddress remote) {
+            }
+        }, 1, false);
+        try {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+            assertTrue(pool.isAlive(address));
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1500);
+            while (System.nanoTime() < end) {
+                List<InetSocketAddress> dead = pool.heartbeat();
+                assertEquals(Collections.emptyList(), dead);
+                Thread.sleep(100);
+            }
+            assertTrue(pool.isAlive(address));
+        } finally {
+            pool.close();
+            server.close();
+        }
+    }
+
+    @Test
+    void closesIdleConnections() throws Exception {
+        ConnectionPool pool = new ConnectionPool(TIMEOUT, 60000, 200);
+        try (ServerSocket server = listen()) {
+            InetSocketAddress address = address(server);
+            pool.send(address, new byte[] {1});
+            Remote first = new Remote(server);
+            first.message();
+            Thread.sleep(400);
+            // Idle is not dead
+            assertEquals(Collections.emptyList(), pool.heartbeat());
+            assertClosed(first);
+            // And the next message opens a new connection
+            pool.send(address, new byte[] {2});
+            Remote second = new Remote(server);
+            assertArrayEquals(new byte[] {2}, second.message());
+            second.socket.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**Waits for the pool's end of the connection to close, reading anything it sent first**/
+    private static void assertClosed(Remote remote) throws IOException {
+        try {
+            while (true)
+                remote.message();
+        } catch (EOFException e) {
+            // Closed
+        } finally {
+            remote.socket.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package chord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import model.Slice;
+
+class HalosTest {
+    private static final long PREV_SENDER = 100;
+    private static final long NEXT_SENDER = 300;
+    private static final long WAIT = TimeUnit.MILLISECONDS.toNanos(1500);
+
+    @Test
+    void takesBothHalosOfTheGeneration() throws InterruptedException {
+        Halos halos = new Halos(4);
+        Slice before = new Slice(0, 5, 4, 4);
+        Slice after = new Slice(0, 5, 4, 4);
+        halos.put(Halos.PREV, PREV_SENDER, 5, before);
+        halos.put(Halos.NEXT, NEXT_SENDER, 6, new Slice(0, 6, 4, 4));
+        halos.put(Halos.NEXT, NEXT_SENDER, 5, after);
+        assertEquals(5, halos.await(PREV_SENDER, NEXT_SENDER, 5, false, 0));
+        Slice[] taken = halos.take(PREV_SENDER, NEXT_SENDER, 5);
+        assertSame(before, taken[Halos.PREV]);
+        assertSame(after, taken[Halos.NEXT]);
+        // Only the later one is left
+        assertEquals(-1, halos.await(PREV_SENDER, NEXT_SENDER, 5, false, 0));
+    }
+
+    @Test
+    void onlyAPeerCatchingUpTakesANeighbourAhead() throws InterruptedException {
+        Halos halos = new Halos(4);
+        halos.put(Halos.PREV, PREV_SENDER, 9, new Slice(0, 9, 4, 4));
+        halos.put(Halos.NEXT, NEXT_SENDER, 9, new Slice(0, 9, 4, 4));
+        // However long a neighbour has been ahead, a peer in the ring waits for its own generation
+        assertEquals(-1, halos.await(PREV_SENDER, NEXT_SENDER, 3, false, WAIT));
+        assertEquals(9, halos.await(PREV_SENDER, NEXT_SENDER, 3, true, WAIT));
+    }
+
+    @Test
+    void ignoresHalosFromOtherSenders() throws InterruptedException {
+        Halos halos = new Halos(4);
+        halos.put(Halos.PREV, 700, 2, new Slice(0, 2, 4, 4));
+        halos.put(Halos.NEXT, NEXT_SENDER, 2, new Slice(0, 2, 4, 4));
+        assertEquals(-1, halos.await(PREV_SENDER, NEXT_SENDER, 2, false, 0));
+    }
+}
@@ -0,0 +1,73 @@
+package chord;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import model.Slice;
+
+class MessageCodecTest {
+    /**Where a PAYLOAD message's slice size is: the magic, version and type, the node ID, the slice's number and version**/
+    private static final int SIZE_X = 3 + 8 + 8;
+
+    @Test
+    void roundTripsAPayload() throws IOException {
+        Slice slice = new Slice(3, 7, 20, 70);
+        PeerMessage decoded = MessageCodec.decode(MessageCodec.encode(new PeerMessage(42, slice)));
+        assertEquals(PeerMessage.Type.PAYLOAD, decoded.type);
+        assertEquals(42, decoded.nodeIdentifier);
+        for (int x = 0; x < 20; x++)
+            for (int y = 0; y < 70; y++)
+                assertEquals(slice.getCell(x, y), decoded.payload.getCell(x, y));
+    }
+
+    @Test
+    void refusesASliceLargerThanItsFrame() {
+        final byte[] bytes = MessageCodec.encode(new PeerMessage(42, new Slice(0, 0, 4, 4)));
+        // 8192x8192 cells would be 8MB of liveness and 64MB of ages; the frame has a few bytes
+        ByteBuffer.wrap(bytes).putInt(SIZE_X, 8192).putInt(SIZE_X + 4, 8192);
+        assertThrows(IOException.class, new Executable() {
+            public void execute() throws IOException {
+                MessageCodec.decode(bytes);
+            }
+        });
+    }
+
+    @Test
+    void readsFramesAsTheyArrive() throws IOException {
+        byte[] frame = new byte[3 * Connection.READ_CHUNK + 5];
+        for (int i = 0; i < frame.length; i++)
+            frame[i] = (byte) i;
+        assertArrayEquals(frame, Connection.readFully(trickle(frame), frame.length));
+    }
+
+    @Test
+    void refusesAFrameCutShort() {
+        final byte[] sent = new byte[100];
+        assertThrows(EOFException.class, new Executable() {
+            public void execute() throws IOException {
+                Connection.readFully(trickle(sent), Connection.MAX_FRAME);
+            }
+        });
+    }
+
+    /**A stream giving out at most 1000 bytes a read, like a socket**/
+    private static InputStream trickle(byte[] bytes) {
+        return new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+    }
+}
@@ -0,0 +1,96 @@
+package chord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import model.Slice;
+
+class PeerServerTest {
+    /**Far more than MAX_QUEUED frames of 256KB, more than the socket buffers hold as well**/
+    private static final int FRAMES = 4 * PeerServer.MAX_QUEUED;
+
+    @Test
+    void holdsBackAConnectionItCannotKeepUpWith() throws Exception {
+        assertHoldsBackAConnectionItCannotKeepUpWith(false);
+    }
+
+    @Test
+    void holdsBackAConnectionItCannotKeepUpWithOnItsOwnThread() throws Exception {
+        // Each connection on its own virtual thread, which stops reading while it handles a message
+        assertHoldsBackAConnectionItCannotKeepUpWith(true);
+    }
+
+    private static void assertHoldsBackAConnectionItCannotKeepUpWith(boolean virtualThreads) throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> handled = Collections.synchronizedList(new ArrayList<Long>());
+        PeerServer server = new PeerServer(0, new PeerServer.Handler() {
+            public void handle(PeerMessage mesg, InetAddress local, InetAddress remote) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.add(mesg.nodeIdentifier);
+            }
+        }, 2, virtualThreads);
+        final Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            Slice slice = new Slice(0, 0, 1024, 2048);
+            slice.setAgeTracking(false);
+            final byte[] payload = MessageCodec.encode(new PeerMessage(0, slice));
+            final CountDownLatch written = new CountDownLatch(1);
+            Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        out.writeByte(Connection.PREAMBLE);
+                        out.writeByte(Connection.VERSION);
+                        for (int i = 0; i < FRAMES; i++) {
+                            // The node ID, just after the magic, version and type, numbers the frames
+                            byte[] numbered = payload.clone();
+                            for (int b = 0; b < 8; b++)
+                                numbered[3 + b] = (byte) ((long) i >>> (56 - 8 * b));
+                            out.writeInt(numbered.length + 1);
+                            out.writeByte(Connection.MESSAGE);
+                            out.write(numbered);
+                        }
+                        out.flush();
+                        written.countDown();
+                    } catch (IOException e) {
+                        // Closed by the test
+                    }
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+
+            // With its worker stuck, the server stops reading and the writer blocks
+            assertFalse(written.await(2, TimeUnit.SECONDS));
+            release.countDown();
+            assertTrue(written.await(30, TimeUnit.SECONDS));
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (handled.size() < FRAMES && System.nanoTime() < end)
+                Thread.sleep(10);
+            assertEquals(FRAMES, handled.size());
+            for (int i = 0; i < FRAMES; i++)
+                assertEquals(i, (long) handled.get(i));
+        } finally {
+            socket.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package chord;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import model.Field;
+import model.Rule;
+
+class PeerTest {
+    private static final int SIZE = 16;
+    private static final int SLICES = 4;
+    private static final long SEED = 7;
+
+    /**Peer i's part of the world: slices i * SLICES on of one seeded world**/
+    private static Field part(int i) {
+        Field field = new Field(SIZE, SIZE, SLICES, Rule.DEFAULT, SEED, 0.3);
+        field.seed(SEED, 0.3, i * SLICES);
+        return field;
+    }
+
+    /**A two-peer ring, once each peer is the other's successor and predecessor**/
+    private static Peer[] ring() throws InterruptedException {
+        Peer a = new Peer();
+        assertTrue(a.createNetwork(100));
+        Peer b = new Peer();
+        assertTrue(b.connectToNetwork("127.0.0.1", a.getPort(), 600));
+        long end = System.nanoTime() + 60_000_000_000L;
+        while (!(a.getSuccessorID() == 600 && a.getPredecessorID() == 600 && b.getSuccessorID() == 100
+                && b.getPredecessorID() == 100)) {
+            assertTrue(System.nanoTime() < end, "The ring did not settle");
+            Thread.sleep(100);
+        }
+        return new Peer[] {a, b};
+    }
+
+    /**Steps a peer's part in lockstep up to a generation, on a thread of its own**/
+    private static Future<Integer> run(ExecutorService threads, final Peer peer, final Field field, final int generations) {
+        return threads.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                while (field.getVersion() < generations) {
+                    if (peer.exchangeHalos(field))
+                        field.step();
+                }
+                return field.getVersion();
+            }
+        });
+    }
+
+    @Test
+    void ringStepsLikeOneWorldAndNeverRelabels() throws Exception {
+        Peer[] peers = ring();
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            Field[] parts = {part(0), part(1)};
+            Future<Integer> a = run(threads, peers[0], parts[0], 20);
+            Future<Integer> b = run(threads, peers[1], parts[1], 20);
+            assertEquals(20, (int) a.get());
+            assertEquals(20, (int) b.get());
+
+            Field whole = new Field(SIZE, SIZE, 2 * SLICES, Rule.DEFAULT, SEED, 0.3);
+            whole.seed(SEED, 0.3, 0);
+            for (int i = 0; i < 20; i++)
+                whole.step();
+            for (int i = 0; i < 2; i++)
+                for (int z = 0; z < SLICES; z++)
+                    for (int x = 0; x < SIZE; x++)
+                        for (int y = 0; y < SIZE; y++)
+                            assertEquals(whole.getSlice(i * SLICES + z).getCell(x, y) > 0,
+                                    parts[i].getSlice(z).getCell(x, y) > 0, "peer " + i + ", cell " + x + "," + y + "," + z);
+
+            // Having run in the ring, a peer whose field falls behind waits rather than taking its neighbour's generation
+            Field behind = part(1);
+            assertFalse(peers[1].exchangeHalos(behind, 2500));
+            assertEquals(0, behind.getVersion());
+        } finally {
+            threads.shutdownNow();
+            peers[0].disconnectFromNetwork();
+            peers[1].disconnectFromNetwork();
+        }
+    }
+}
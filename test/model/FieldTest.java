@@ -0,0 +1,286 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class FieldTest {
+    /**patterns/pulse-p4.cells, a period 4 oscillator under the default rule**/
+    private static final String PULSE = "...\nOOO\nOOO\n...\n\n.O.\nO.O\nO.O\n.O.\n\n.O.\nO.O\nO.O\n.O.\n";
+
+    private static Field pulse() {
+        Field field = new Field(12, 12, 12, Rule.DEFAULT, false);
+        Pattern.parse(PULSE, "pulse").stampCentred(field);
+        return field;
+    }
+
+    /**Small random clumps of cells every few slices, which B4/S4 grows slowly enough to stay sparse for a while**/
+    private static Field clumps(Rule rule) {
+        Random random = new Random(11);
+        Field field = new Field(48, 48, 40, rule, false);
+        for(int c = 0; c < 8; c++) {
+            int x0 = random.nextInt(48);
+            int y0 = random.nextInt(48);
+            for(int z = 0; z < 4; z++)
+                for(int x = 0; x < 4; x++)
+                    for(int y = 0; y < 4; y++)
+                        if(random.nextInt(10) < 4)
+                            field.getSlice(c * 5 + z).setCell((x0 + x) % 48, (y0 + y) % 48, 1);
+        }
+        field.cellsChanged();
+        return field;
+    }
+
+    private static void assertSameCells(Field expected, Field actual) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        for(int z = 0; z < expected.getSliceCount(); z++)
+            for(int x = 0; x < expected.getSizeX(); x++)
+                for(int y = 0; y < expected.getSizeY(); y++)
+                    assertEquals(expected.getSlice(z).getCell(x, y), actual.getSlice(z).getCell(x, y),
+                            "cell " + x + "," + y + "," + z);
+    }
+
+    @Test
+    void parallelSparseAdvanceMatchesStepping() {
+        Field stepped = clumps(Rule.parse("B4/S4"));
+        stepped.setKernel(Field.Kernel.SCALAR);
+        for(int i = 0; i < 16; i++)
+            stepped.step();
+        //the ranges' borders read the same slices, which must not be written while they are
+        for(int run = 0; run < 200; run++) {
+            Field advanced = clumps(Rule.parse("B4/S4"));
+            advanced.setKernel(Field.Kernel.SPARSE);
+            advanced.setParallelism(4);
+            advanced.advance(16);
+            assertSameCells(stepped, advanced);
+        }
+    }
+
+    @Test
+    void stillLifeHasPeriodOne() {
+        Field field = new Field(8, 8, 8, Rule.DEFAULT, false);
+        Pattern.parse("OO\nO.\n", "corner").stampCentred(field);
+        field.step();
+        assertEquals(0, field.getPeriod());
+        field.step();
+        assertEquals(1, field.getPeriod());
+    }
+
+    @Test
+    void oscillatorHasItsPeriod() {
+        Field field = pulse();
+        for(int i = 0; i < 4; i++) {
+            field.step();
+            assertEquals(0, field.getPeriod());
+        }
+        field.step();
+        assertEquals(4, field.getPeriod());
+    }
+
+    @Test
+    void periodIsForgottenWhenCellsChange() {
+        Field field = pulse();
+        for(int i = 0; i < 6; i++)
+            field.step();
+        assertEquals(4, field.getPeriod());
+        field.getSlice(0).setCell(0, 0, 1);
+        field.cellsChanged();
+        assertEquals(0, field.getPeriod());
+    }
+
+    @Test
+    void advanceSkipsWholePeriodsToTheSameState() {
+        Field stepped = pulse();
+        stepped.setCycleHistory(0);
+        Field advanced = pulse();
+        //into the cycle first, so that advance can skip
+        for(int i = 0; i < 5; i++)
+            advanced.step();
+        advanced.advance(998);
+        for(int i = 0; i < 1003; i++)
+            stepped.step();
+        //ages included, which stepping caps
+        assertSameCells(stepped, advanced);
+        assertEquals(4, advanced.getPeriod());
+    }
+
+    @Test
+    void seedGivesTheSameWorldForAnyParallelism() {
+        Field serial = new Field(16, 24, 20, Rule.DEFAULT, 99, 0.3);
+        Field parallel = new Field(16, 24, 20, Rule.DEFAULT, false);
+        parallel.setParallelism(4);
+        parallel.seed(99, 0.3, 0);
+        assertSameCells(serial, parallel);
+    }
+
+    @Test
+    void seedGivesEachPeerItsPartOfTheWorld() {
+        Field whole = new Field(16, 24, 20, Rule.DEFAULT, 99, 0.3);
+        Field part = new Field(16, 24, 6, Rule.DEFAULT, false);
+        part.seed(99, 0.3, 8);
+        for(int z = 0; z < 6; z++)
+            for(int x = 0; x < 16; x++)
+                for(int y = 0; y < 24; y++)
+                    assertEquals(whole.getSlice(8 + z).getCell(x, y), part.getSlice(z).getCell(x, y),
+                            "cell " + x + "," + y + "," + z);
+    }
+
+    @Test
+    void seedsDiffer() {
+        Field one = new Field(16, 24, 4, Rule.DEFAULT, 1, 0.3);
+        Field two = new Field(16, 24, 4, Rule.DEFAULT, 2, 0.3);
+        assertNotEquals(one.getHash(), two.getHash());
+    }
+
+    /**A 2x2x2 block, which B5/S2-7 leaves as it is, in a field that tracks ages**/
+    private static Field agedBlock() {
+        Field field = new Field(8, 8, 8, Rule.DEFAULT, true);
+        for(int z = 3; z < 5; z++)
+            for(int x = 3; x < 5; x++)
+                for(int y = 3; y < 5; y++)
+                    field.getSlice(z).setCell(x, y, 1);
+        field.cellsChanged();
+        return field;
+    }
+
+    @Test
+    void agesSaturateAtMaxAge() {
+        for(Field.Kernel kernel : Field.Kernel.values()) {
+            Field field = agedBlock();
+            field.setKernel(kernel);
+            for(int i = 1; i <= Slice.MAX_AGE + 20; i++) {
+                field.step();
+                int age = Math.min(Slice.MAX_AGE, 1 + i);
+                assertEquals(age, field.getSlice(3).getCell(3, 3), kernel + ", generation " + i);
+                assertEquals(age, field.getSlice(4).getCell(4, 4), kernel + ", generation " + i);
+                assertEquals(age, field.getStats().getMaxAge(), kernel + ", generation " + i);
+            }
+            assertEquals(0, field.getSlice(2).getCell(3, 3));
+        }
+    }
+
+    @Test
+    void skippingPeriodsSaturatesAges() {
+        Field field = agedBlock();
+        //into the cycle first, so that advance skips whole periods rather than stepping
+        field.step();
+        field.step();
+        assertEquals(1, field.getPeriod());
+        field.advance(1000);
+        assertEquals(1002, field.getVersion());
+        assertEquals(Slice.MAX_AGE, field.getSlice(3).getCell(4, 3));
+        assertEquals(Slice.MAX_AGE, field.getStats().getMaxAge());
+    }
+
+    /**Counts what the step from before to after did cell by cell, and checks the stats after gathered agree**/
+    private static void assertStatsCounted(Field before, Field after, String context) {
+        long population = 0, births = 0, deaths = 0;
+        int maxAge = 0;
+        int[] bounds = {Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1};
+        for(int z = 0; z < after.getSliceCount(); z++)
+            for(int x = 0; x < after.getSizeX(); x++)
+                for(int y = 0; y < after.getSizeY(); y++) {
+                    boolean was = before.getSlice(z).getCell(x, y) > 0;
+                    int age = after.getSlice(z).getCell(x, y);
+                    if(age > 0)
+                        population++;
+                    maxAge = Math.max(maxAge, age);
+                    if(was == age > 0)
+                        continue;
+                    if(was)
+                        deaths++;
+                    else
+                        births++;
+                    int[] cell = {x, y, z};
+                    for(int axis = 0; axis < 3; axis++) {
+                        bounds[2 * axis] = Math.min(bounds[2 * axis], cell[axis]);
+                        bounds[2 * axis + 1] = Math.max(bounds[2 * axis + 1], cell[axis]);
+                    }
+                }
+        GenerationStats stats = after.getStats();
+        assertEquals(after.getVersion(), stats.getGeneration(), context);
+        assertEquals(population, stats.getPopulation(), context);
+        assertEquals(births, stats.getBirths(), context);
+        assertEquals(deaths, stats.getDeaths(), context);
+        assertEquals(maxAge, stats.getMaxAge(), context);
+        if(births + deaths == 0)
+            assertNull(stats.getChangedBounds(), context);
+        else
+            assertArrayEquals(bounds, stats.getChangedBounds(), context);
+    }
+
+    @Test
+    void statsCountWhatEachStepDid() {
+        for(Field.Kernel kernel : Field.Kernel.values()) {
+            for(int parallelism = 1; parallelism <= 3; parallelism += 2) {
+                for(int tracking = 0; tracking < 2; tracking++) {
+                    Field field = new Field(14, 70, 9, Rule.DEFAULT, 5, 0.3);
+                    field.setKernel(kernel);
+                    field.setParallelism(parallelism);
+                    field.setActivityTracking(tracking == 1);
+                    for(int i = 1; i <= 10; i++) {
+                        Field before = new Field(field);
+                        field.step();
+                        assertStatsCounted(before, field, kernel + " on " + parallelism + ", generation " + i);
+                        assertStatsCounted(before, before.updateToCopy(), kernel + " copy, generation " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void statsCountASparseWorld() {
+        //a few cells, so the changes are confined to a small box
+        Field field = new Field(30, 40, 12, Rule.parse("B2/S1-3"), false);
+        field.getSlice(5).setCell(10, 20, 1);
+        field.getSlice(5).setCell(11, 20, 1);
+        field.getSlice(6).setCell(10, 21, 1);
+        field.cellsChanged();
+        field.setKernel(Field.Kernel.SPARSE);
+        for(int i = 1; i <= 4; i++) {
+            Field before = new Field(field);
+            field.step();
+            assertStatsCounted(before, field, "generation " + i);
+        }
+    }
+
+    @Test
+    void unsteppedFieldIsCounted() {
+        Field field = new Field(14, 70, 9, Rule.DEFAULT, 5, 0.3);
+        long population = 0;
+        for(int z = 0; z < 9; z++)
+            for(int x = 0; x < 14; x++)
+                for(int y = 0; y < 70; y++)
+                    if(field.getSlice(z).getCell(x, y) > 0)
+                        population++;
+        GenerationStats stats = field.getStats();
+        assertEquals(population, stats.getPopulation());
+        assertEquals(0, stats.getBirths());
+        assertEquals(0, stats.getDeaths());
+        assertNull(stats.getChangedBounds());
+    }
+
+    @Test
+    void steppingPastLentSlicesLeavesThemAlone() {
+        Field field = new Field(14, 70, 9, Rule.DEFAULT, 5, 0.3);
+        field.step();
+        Field copy = new Field(field);
+        Field lent = field.lend();
+        for(int i = 0; i < 4; i++)
+            field.step();
+        assertSameCells(copy, lent);
+        //released, the buffers are written again
+        for(Slice slice : lent.slices.values())
+            slice.release();
+        Field stepped = new Field(copy);
+        for(int i = 0; i < 4; i++)
+            stepped.step();
+        assertSameCells(stepped, field);
+    }
+}
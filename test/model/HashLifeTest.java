@@ -0,0 +1,65 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class HashLifeTest {
+    /**An empty 8x8x8 world with a 2x2x2 block in it, which B5/S2-7 leaves as it is**/
+    private static Field block() {
+        Field field = new Field(8, 8, 8, Rule.DEFAULT, false);
+        for(int z = 3; z < 5; z++)
+            for(int x = 3; x < 5; x++)
+                for(int y = 3; y < 5; y++)
+                    field.getSlice(z).setCell(x, y, 1);
+        field.cellsChanged();
+        return field;
+    }
+
+    private static void assertSameCells(Field expected, Field actual) {
+        for(int z = 0; z < expected.getSliceCount(); z++)
+            for(int x = 0; x < expected.getSizeX(); x++)
+                for(int y = 0; y < expected.getSizeY(); y++)
+                    assertEquals(expected.getSlice(z).getCell(x, y) > 0, actual.getSlice(z).getCell(x, y) > 0,
+                            "cell " + x + "," + y + "," + z);
+    }
+
+    @Test
+    void advanceMatchesStepping() {
+        Field field = new Field(8, 8, 8, Rule.DEFAULT, 1, 0.3);
+        HashLife life = new HashLife(field);
+        life.advance(37);
+        for(int i = 0; i < 37; i++)
+            field.step();
+        Field advanced = life.toField();
+        assertEquals(37, advanced.getVersion());
+        assertSameCells(field, advanced);
+    }
+
+    @Test
+    void longJumpKeepsAStillLife() {
+        Field field = block();
+        HashLife life = new HashLife(field);
+        //the tiled node of a 2^30 jump holds more cells than a long can count
+        life.advance(1L << 30);
+        assertEquals(8, life.getPopulation());
+        Field advanced = life.toField();
+        assertEquals(1 << 30, advanced.getVersion());
+        assertSameCells(field, advanced);
+    }
+
+    @Test
+    void refusesToPassTheLastGenerationAFieldHolds() {
+        final HashLife life = new HashLife(block());
+        life.advance(Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, life.toField().getVersion());
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                life.advance(1);
+            }
+        });
+        assertEquals(8, life.getPopulation());
+    }
+}
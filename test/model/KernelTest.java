@@ -0,0 +1,137 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class KernelTest {
+    /**
+     * Steps the same seeded world with the given kernel and with SCALAR, and checks every cell and age after each
+     * step. SCALAR runs on one thread; the kernel runs with the parallelism given.
+     */
+    private static void assertMatchesScalar(Field.Kernel kernel, int sizeX, int sizeY, int slices, Rule rule,
+            int parallelism, boolean activityTracking) {
+        assertMatchesScalar(kernel, sizeX, sizeY, slices, rule, parallelism, activityTracking, 0.3, 12);
+    }
+
+    private static void assertMatchesScalar(Field.Kernel kernel, int sizeX, int sizeY, int slices, Rule rule,
+            int parallelism, boolean activityTracking, double density, int generations) {
+        Field scalar = new Field(sizeX, sizeY, slices, rule, 42, density);
+        scalar.setKernel(Field.Kernel.SCALAR);
+        scalar.setActivityTracking(activityTracking);
+        Field other = new Field(scalar);
+        other.setKernel(kernel);
+        other.setParallelism(parallelism);
+        for(int generation = 1; generation <= generations; generation++) {
+            scalar.step();
+            other.step();
+            for(int z = 0; z < slices; z++)
+                for(int x = 0; x < sizeX; x++)
+                    for(int y = 0; y < sizeY; y++)
+                        assertEquals(scalar.getSlice(z).getCell(x, y), other.getSlice(z).getCell(x, y),
+                                kernel + " " + sizeX + "x" + sizeY + " " + rule + " on " + parallelism + ", generation "
+                                        + generation + ", cell " + x + "," + y + "," + z);
+        }
+    }
+
+    @Test
+    void packedMatchesScalar() {
+        assertMatchesScalar(Field.Kernel.PACKED, 16, 64, 6, Rule.DEFAULT, 1, true);
+        assertMatchesScalar(Field.Kernel.PACKED, 16, 64, 6, Rule.DEFAULT, 1, false);
+    }
+
+    @Test
+    void packedMatchesScalarOnRowsThatAreNotWholeWords() {
+        //the last word of each row is partial, and a row of 1 wraps onto itself
+        assertMatchesScalar(Field.Kernel.PACKED, 9, 70, 5, Rule.DEFAULT, 1, true);
+        assertMatchesScalar(Field.Kernel.PACKED, 7, 13, 4, Rule.DEFAULT, 1, false);
+        assertMatchesScalar(Field.Kernel.PACKED, 5, 1, 3, Rule.DEFAULT, 1, true);
+        assertMatchesScalar(Field.Kernel.PACKED, 6, 129, 4, Rule.DEFAULT, 1, false);
+    }
+
+    @Test
+    void packedMatchesScalarOnOtherRules() {
+        assertMatchesScalar(Field.Kernel.PACKED, 12, 40, 6, Rule.parse("B4/S4"), 1, true);
+        assertMatchesScalar(Field.Kernel.PACKED, 12, 40, 6, Rule.parse("B4-5/S5"), 1, false);
+        assertMatchesScalar(Field.Kernel.PACKED, 12, 40, 6, Rule.parse("B0-2/S0-26"), 1, true);
+    }
+
+    @Test
+    void packedMatchesScalarInParallel() {
+        assertMatchesScalar(Field.Kernel.PACKED, 20, 100, 9, Rule.DEFAULT, 3, true);
+        assertMatchesScalar(Field.Kernel.PACKED, 20, 100, 9, Rule.DEFAULT, 4, false);
+    }
+
+    @Test
+    void planeSumMatchesScalar() {
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 16, 64, 6, Rule.DEFAULT, 1, true);
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 12, 40, 6, Rule.parse("B4/S4"), 1, false);
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 12, 40, 6, Rule.parse("B0-2/S0-26"), 1, true);
+    }
+
+    @Test
+    void planeSumMatchesScalarOnRowsThatAreNotWholeWords() {
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 9, 70, 5, Rule.DEFAULT, 1, true);
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 7, 13, 4, Rule.DEFAULT, 1, false);
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 5, 1, 3, Rule.DEFAULT, 1, true);
+    }
+
+    @Test
+    void planeSumMatchesScalarInParallel() {
+        //each slice's box sums are shared by the slices either side, which may be in another thread's slab
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 20, 100, 9, Rule.DEFAULT, 3, true);
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 11, 67, 13, Rule.DEFAULT, 4, false);
+        assertMatchesScalar(Field.Kernel.PLANE_SUM, 11, 67, 13, Rule.parse("B4-5/S5"), 2, true);
+    }
+
+    @Test
+    void planeSumAdvanceMatchesScalarStepping() {
+        //a blocked pass prepares the box sums of slices it has carried on further than their neighbours
+        Field scalar = new Field(11, 67, 13, Rule.DEFAULT, 42, 0.3);
+        scalar.setKernel(Field.Kernel.SCALAR);
+        Field advanced = new Field(scalar);
+        advanced.setKernel(Field.Kernel.PLANE_SUM);
+        advanced.setParallelism(3);
+        for(int i = 0; i < 20; i++)
+            scalar.step();
+        advanced.advance(20);
+        for(int z = 0; z < 13; z++)
+            for(int x = 0; x < 11; x++)
+                for(int y = 0; y < 67; y++)
+                    assertEquals(scalar.getSlice(z).getCell(x, y), advanced.getSlice(z).getCell(x, y),
+                            "cell " + x + "," + y + "," + z);
+    }
+
+    @Test
+    void sparseMatchesScalarOnSparseWorlds() {
+        //below 1 live cell in 128 the slices are updated around their live cells
+        assertMatchesScalar(Field.Kernel.SPARSE, 40, 70, 8, Rule.DEFAULT, 1, true, 0.005, 12);
+        assertMatchesScalar(Field.Kernel.SPARSE, 40, 70, 8, Rule.parse("B2/S1-3"), 1, false, 0.005, 12);
+        assertMatchesScalar(Field.Kernel.SPARSE, 33, 1, 6, Rule.parse("B2/S1-3"), 1, true, 0.005, 12);
+    }
+
+    @Test
+    void sparseMatchesScalarAsSlicesFillAndEmpty() {
+        //B1/S1 fills a sparse world within a few generations and then dies back, switching kernel both ways
+        assertMatchesScalar(Field.Kernel.SPARSE, 40, 70, 8, Rule.parse("B1/S1"), 1, true, 0.002, 12);
+        assertMatchesScalar(Field.Kernel.SPARSE, 40, 70, 8, Rule.parse("B1/S1"), 3, false, 0.002, 12);
+        //and a dense world is updated as PACKED
+        assertMatchesScalar(Field.Kernel.SPARSE, 16, 64, 6, Rule.DEFAULT, 1, true);
+    }
+
+    @Test
+    void sparseMatchesScalarInParallel() {
+        assertMatchesScalar(Field.Kernel.SPARSE, 40, 70, 9, Rule.parse("B2/S1-3"), 4, true, 0.005, 12);
+        assertMatchesScalar(Field.Kernel.SPARSE, 40, 70, 9, Rule.DEFAULT, 2, false, 0.005, 12);
+    }
+
+    @Test
+    void sparseUpdatesSparseSlicesAroundTheirCells() {
+        Field field = new Field(40, 70, 8, Rule.parse("B2/S1-3"), 42, 0.005);
+        field.setKernel(Field.Kernel.SPARSE);
+        field.step();
+        for(Slice slice : field.internalSlices().values())
+            assertTrue(slice.sparse, "slice " + slice.number);
+    }
+}
@@ -0,0 +1,80 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+class PatternTest {
+    private static final String GLIDER = "!Name: 5766 glider\n!Rule: B6/S5-7\n!A comment\n.O.\nO..\n\n.O\nOO\n";
+
+    @TempDir
+    Path dir;
+
+    /**The pattern's box read back out of a field as text, in the file's layout**/
+    private static String cells(Field field, int x, int y, int z, Pattern pattern) {
+        StringBuilder text = new StringBuilder();
+        for(int k = 0; k < pattern.getSizeZ(); k++) {
+            if(k > 0)
+                text.append('\n');
+            Slice slice = field.getSlice(Math.floorMod(z + k, field.getSliceCount()));
+            for(int i = 0; i < pattern.getSizeX(); i++) {
+                for(int j = 0; j < pattern.getSizeY(); j++)
+                    text.append(slice.getCell(Math.floorMod(x + i, field.getSizeX()), Math.floorMod(y + j, field.getSizeY())) > 0 ? 'O' : '.');
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    @Test
+    void parsesLayersNameAndRule() {
+        Pattern pattern = Pattern.parse(GLIDER, "glider");
+        assertEquals("5766 glider", pattern.getName());
+        assertEquals(Rule.parse("B6/S5-7"), pattern.getRule());
+        assertEquals(2, pattern.getSizeX());
+        assertEquals(3, pattern.getSizeY());
+        assertEquals(2, pattern.getSizeZ());
+        assertEquals(5, pattern.getPopulation());
+    }
+
+    @Test
+    void stampsWhatItReads() throws IOException {
+        Path file = dir.resolve("glider.cells");
+        Files.write(file, ".O.\r\nO..\r\n\r\n.O\r\nOO\r\n".getBytes(StandardCharsets.UTF_8));
+        Pattern pattern = Pattern.read(file);
+        assertEquals("glider", pattern.getName());
+        assertNull(pattern.getRule());
+        //across every edge, so the pattern wraps
+        Field field = new Field(6, 6, 4, Rule.DEFAULT, 5, 0.5);
+        pattern.stamp(field, 5, 4, 3);
+        assertEquals(".O.\nO..\n\n.O.\nOO.\n", cells(field, 5, 4, 3, pattern));
+    }
+
+    @Test
+    void refusesWhatIsNotAPattern() {
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                Pattern.parse(".O.\nOxO\n", "bad");
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                Pattern.parse("!Name: nothing\n", "empty");
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            public void execute() {
+                Pattern.parse("OOOO\n", "wide").stamp(new Field(3, 3, 3, Rule.DEFAULT, false), 0, 0, 0);
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecorderTest {
+    private static final int GENERATIONS = 50;
+
+    @TempDir
+    Path dir;
+
+    private static void assertSameCells(Field expected, Field actual) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        for(int z = 0; z < expected.getSliceCount(); z++)
+            for(int x = 0; x < expected.getSizeX(); x++)
+                for(int y = 0; y < expected.getSizeY(); y++)
+                    assertEquals(expected.getSlice(z).getCell(x, y), actual.getSlice(z).getCell(x, y),
+                            "generation " + expected.getVersion() + ", cell " + x + "," + y + "," + z);
+    }
+
+    /**
+     * Records a run with a keyframe every 16 generations, with cells edited at generation 20.
+     * @return copies of the field at every generation
+     */
+    private List<Field> record() throws IOException {
+        Field field = new Field(16, 40, 6, Rule.parse("B4/S4"), 4, 0.3);
+        List<Field> generations = new ArrayList<Field>();
+        try(Recorder recorder = new Recorder(dir, 16, GENERATIONS + 1)) {
+            recorder.record(field);
+            generations.add(new Field(field));
+            for(int i = 1; i <= GENERATIONS; i++) {
+                field.step();
+                if(i == 20) {
+                    field.getSlice(1).setCell(3, 3, field.getSlice(1).getCell(3, 3) > 0 ? 0 : 1);
+                    field.cellsChanged();
+                }
+                recorder.record(field);
+                generations.add(new Field(field));
+            }
+            assertEquals(0, recorder.getDropped());
+        }
+        return generations;
+    }
+
+    @Test
+    void seekLandsOnTheGenerationRecorded() throws IOException {
+        List<Field> generations = record();
+        //the edit starts a segment
+        assertEquals(Arrays.asList(0, 16, 20, 36), new ArrayList<Integer>(Replay.keyframes(dir)));
+        try(Replay replay = new Replay(dir)) {
+            assertEquals(0, replay.getFirstGeneration());
+            for(int generation : new int[] {GENERATIONS, 0, 7, 16, 19, 20, 21, 33, 17})
+                assertSameCells(generations.get(generation), replay.seek(generation));
+        }
+    }
+
+    @Test
+    void nextReplaysEveryGeneration() throws IOException {
+        List<Field> generations = record();
+        try(Replay replay = new Replay(dir)) {
+            replay.seek(3);
+            for(int generation = 4; generation <= GENERATIONS; generation++) {
+                assertTrue(replay.next());
+                assertSameCells(generations.get(generation), replay.getField());
+            }
+            assertFalse(replay.next());
+        }
+    }
+
+    @Test
+    void refusesGenerationsNotRecorded() throws IOException {
+        record();
+        final Replay replay = new Replay(dir);
+        try {
+            assertThrows(IllegalArgumentException.class, new Executable() {
+                public void execute() throws IOException {
+                    replay.seek(GENERATIONS + 1);
+                }
+            });
+            assertThrows(IllegalArgumentException.class, new Executable() {
+                public void execute() throws IOException {
+                    replay.seek(-1);
+                }
+            });
+        } finally {
+            replay.close();
+        }
+    }
+}
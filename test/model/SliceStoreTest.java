@@ -0,0 +1,103 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SliceStoreTest {
+    @TempDir
+    Path dir;
+
+    private static void assertSameCells(Field expected, OffHeapField actual) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        for(int z = 0; z < expected.getSliceCount(); z++)
+            for(int x = 0; x < expected.getSizeX(); x++)
+                for(int y = 0; y < expected.getSizeY(); y++)
+                    assertEquals(expected.getSlice(z).getCell(x, y), actual.getCell(x, y, z),
+                            "cell " + x + "," + y + "," + z);
+    }
+
+    @Test
+    void mappedStoreStepsLikeAField() throws IOException {
+        Field field = new Field(12, 20, 6, Rule.DEFAULT, 3, 0.3);
+        try(SliceStore store = SliceStore.create(dir.resolve("world"), 12, 20, 6, field.getRule(), true)) {
+            OffHeapField offHeap = OffHeapField.copyOf(field, store);
+            for(int i = 0; i < 9; i++) {
+                field.step();
+                offHeap.step();
+                assertSameCells(field, offHeap);
+            }
+        }
+    }
+
+    @Test
+    void directStoreStepsLikeAField() {
+        Field field = new Field(9, 33, 4, Rule.parse("B4/S4"), 5, 0.4);
+        OffHeapField offHeap = OffHeapField.copyOf(field, SliceStore.allocateDirect(9, 33, 4, true));
+        for(int i = 0; i < 9; i++) {
+            field.step();
+            offHeap.step();
+            assertSameCells(field, offHeap);
+        }
+    }
+
+    @Test
+    void reopeningFindsTheGenerationLastFlushed() throws IOException {
+        Path file = dir.resolve("world");
+        Field field = new Field(8, 16, 5, Rule.DEFAULT, 7, 0.3);
+        Field flushed = new Field(field);
+        try(SliceStore store = SliceStore.create(file, 8, 16, 5, field.getRule(), true)) {
+            OffHeapField offHeap = OffHeapField.copyOf(field, store);
+            store.flush();
+            //steps write the banks not flushed, and leave the file as it was
+            for(int i = 0; i < 4; i++) {
+                offHeap.step();
+                field.step();
+                try(SliceStore reopened = SliceStore.open(file)) {
+                    assertSameCells(flushed, new OffHeapField(reopened));
+                }
+            }
+            store.flush();
+            flushed = new Field(field);
+            //as does an edit of the generation last flushed
+            Slice slice = offHeap.getSlice(2);
+            slice.setCell(1, 1, slice.getCell(1, 1) > 0 ? 0 : 1);
+            store.write(2, slice);
+            try(SliceStore reopened = SliceStore.open(file)) {
+                assertSameCells(flushed, new OffHeapField(reopened));
+            }
+        }
+    }
+
+    @Test
+    void reopeningAfterManyStepsFindsTheLastCheckpoint() throws IOException {
+        Path file = dir.resolve("world");
+        Field field = new Field(10, 70, 7, Rule.DEFAULT, 9, 0.3);
+        Field checkpoint = null;
+        try(SliceStore store = SliceStore.create(file, 10, 70, 7, field.getRule(), true)) {
+            OffHeapField offHeap = OffHeapField.copyOf(field, store);
+            offHeap.setCheckpointInterval(8);
+            for(int i = 1; i <= 61; i++) {
+                offHeap.step();
+                field.step();
+                if(i % 8 == 0)
+                    checkpoint = new Field(field);
+            }
+            assertSameCells(field, offHeap);
+            try(SliceStore reopened = SliceStore.open(file)) {
+                OffHeapField restarted = new OffHeapField(reopened);
+                assertSameCells(checkpoint, restarted);
+                //and carries on from there like the field did
+                for(int i = 0; i < 5; i++) {
+                    checkpoint.step();
+                    restarted.step();
+                }
+                assertSameCells(checkpoint, restarted);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+class SnapshotTest {
+    @TempDir
+    Path dir;
+
+    /**A world with full, sparse and empty slices, stepped so that ages differ**/
+    private static Field world() {
+        Field field = new Field(20, 70, 6, Rule.parse("B4/S4"), 8, 0.35);
+        for(int x = 0; x < 20; x++)
+            for(int y = 0; y < 70; y++) {
+                field.getSlice(3).setCell(x, y, x == 4 && y % 9 == 0 ? 1 : 0);
+                field.getSlice(4).setCell(x, y, 0);
+            }
+        field.cellsChanged();
+        for(int i = 0; i < 3; i++)
+            field.step();
+        return field;
+    }
+
+    private static void assertSameCells(Field expected, FieldView actual) {
+        assertEquals(expected.getVersion(), actual.getVersion());
+        for(int z = 0; z < expected.getSliceCount(); z++)
+            for(int x = 0; x < expected.getSizeX(); x++)
+                for(int y = 0; y < expected.getSizeY(); y++)
+                    assertEquals(expected.getSlice(z).getCell(x, y), actual.getSlice(z).getCell(x, y),
+                            "cell " + x + "," + y + "," + z);
+    }
+
+    @Test
+    void restoresCellsAgesGenerationAndRule() throws IOException {
+        Field field = world();
+        Path file = dir.resolve("world.snap");
+        Snapshot.write(field, file);
+        Field restored = Snapshot.read(file);
+        assertEquals(field.getRule(), restored.getRule());
+        assertSameCells(field, restored);
+        //and carries on the same
+        field.step();
+        restored.step();
+        assertSameCells(field, restored);
+    }
+
+    @Test
+    void restoresWithoutAges() throws IOException {
+        Field field = world();
+        field.setAgeTracking(false);
+        Path file = dir.resolve("world.snap");
+        Snapshot.write(field, file);
+        Field restored = Snapshot.read(file);
+        assertFalse(restored.isAgeTracking());
+        assertSameCells(field, restored);
+    }
+
+    @Test
+    void restoresIntoAStore() throws IOException {
+        Field field = world();
+        Path file = dir.resolve("world.snap");
+        OffHeapField offHeap = OffHeapField.copyOf(field, SliceStore.allocateDirect(20, 70, 6, true));
+        Snapshot.write(offHeap, file);
+        OffHeapField restored = Snapshot.read(file, SliceStore.allocateDirect(20, 70, 6, true));
+        assertEquals(field.getRule(), restored.getRule());
+        assertSameCells(field, restored);
+    }
+
+    @Test
+    void refusesDamagedAndTruncatedFiles() throws IOException {
+        final Path file = dir.resolve("world.snap");
+        Snapshot.write(world(), file);
+        byte[] bytes = Files.readAllBytes(file);
+
+        byte[] damaged = bytes.clone();
+        damaged[damaged.length - 5] ^= 0x10;
+        Files.write(file, damaged);
+        Executable read = new Executable() {
+            public void execute() throws IOException {
+                Snapshot.read(file);
+            }
+        };
+        assertThrows(IOException.class, read);
+
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 16));
+        assertThrows(IOException.class, read);
+        Files.write(file, Arrays.copyOf(bytes, 40));
+        assertThrows(IOException.class, read);
+    }
+}
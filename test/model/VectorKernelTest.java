@@ -0,0 +1,45 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+class VectorKernelTest {
+    /**Steps the same seeded world with the VECTOR and SCALAR kernels and checks every cell and age after each step**/
+    private static void assertMatchesScalar(int sizeX, int sizeY, int slices, Rule rule, boolean activityTracking) {
+        assumeTrue(Field.Kernel.VECTOR.isAvailable(), "jdk.incubator.vector is not loaded");
+        Field scalar = new Field(sizeX, sizeY, slices, rule, 42, 0.3);
+        scalar.setKernel(Field.Kernel.SCALAR);
+        scalar.setActivityTracking(activityTracking);
+        Field vector = new Field(scalar);
+        vector.setKernel(Field.Kernel.VECTOR);
+        for(int generation = 1; generation <= 12; generation++) {
+            scalar.step();
+            vector.step();
+            for(int z = 0; z < slices; z++)
+                for(int x = 0; x < sizeX; x++)
+                    for(int y = 0; y < sizeY; y++)
+                        assertEquals(scalar.getSlice(z).getCell(x, y), vector.getSlice(z).getCell(x, y),
+                                sizeX + "x" + sizeY + " " + rule + ", generation " + generation + ", cell " + x + "," + y + "," + z);
+        }
+    }
+
+    @Test
+    void matchesScalarOnWholeVectors() {
+        assertMatchesScalar(16, 64, 6, Rule.DEFAULT, true);
+    }
+
+    @Test
+    void matchesScalarOnRowsWithATail() {
+        //rows that are not a whole number of vectors finish with the scalar tail
+        assertMatchesScalar(9, 70, 5, Rule.DEFAULT, true);
+        assertMatchesScalar(7, 13, 4, Rule.DEFAULT, false);
+    }
+
+    @Test
+    void matchesScalarOnOtherRules() {
+        assertMatchesScalar(12, 40, 6, Rule.parse("B4/S4"), true);
+        assertMatchesScalar(12, 40, 6, Rule.parse("B4-5/S5"), false);
+    }
+}